@@ -1,18 +1,28 @@
 package bounce;
 
 import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
 
 /**
  * This shape class produces an aggregate fractal shape consisting of varying
  * numbers of overlapping circles that change colour and state upon each bounce
- * with a wall.
+ * with a wall. The circles of each state are drawn once into an image by the
+ * {@link GeometryCache} and copied into place each frame.
  * 
  * @author Harry She
  */
 public class AggregateShape extends Shape {
 
+	// Circles drawn and their colour in each state
+	private static final int[] CIRCLES = { 0, 0x30, 0x07, 0x7e, GeometryCache.ALL_CIRCLES };
+	private static final Color[] COLORS = { null, Color.red, Color.orange, Color.green, Color.blue };
+
 	private int radius;
 	private int _state;
+	// The circles of the state they were last drawn for
+	private BufferedImage _sprite;
+	private int _spriteState = 0;
 
 	public AggregateShape(int x, int y, int deltaX, int deltaY, int width, int height, int radius) {
 		super(x, y, deltaX, deltaY, width, height);
@@ -20,60 +30,26 @@ public class AggregateShape extends Shape {
 		_state = 1;
 	}
 
-	protected void paints(Painter painter) {
+	/**
+	 * The circles spread from x + r to x + 31r and from y - 16r to y + 16r.
+	 */
+	protected Rectangle bounds(int x, int y) {
 		int r = radius;
-		int adjR = 16 * r;
-		// x values of circle centres
-		int x1 = _x + 8 * r;
-		int x2 = _x + 8 * r;
-		int x3 = _x + r;
-		int x4 = _x + 15 * r;
-		int x5 = _x + r;
-		int x6 = _x + 15 * r;
-		int x7 = _x + 8 * r;
-		// y values of circle centres
-		int y1 = _y - 8 * r;
-		int y2 = _y;
-		int y3 = _y - 4 * r;
-		int y4 = _y - 4 * r;
-		int y5 = _y - 12 * r;
-		int y6 = _y - 12 * r;
-		int y7 = _y - 16 * r;
+		return new Rectangle(x + r, y - 16 * r, GeometryCache.width(r), GeometryCache.height(r));
+	}
 
+	protected void paints(Painter painter) {
+		int r = radius;
 		// Different aggregate fractal shapes
-		if (_state == 1) {
-			painter.setColor(Color.red);
-			painter.drawOval(x5, y5, adjR, adjR);
-			painter.drawOval(x6, y6, adjR, adjR);
+		painter.setColor(COLORS[_state]);
+		if (_state != _spriteState) {
+			_sprite = GeometryCache.get(CIRCLES[_state], r, COLORS[_state]);
+			_spriteState = _state;
 		}
-
-		if (_state == 2) {
-			painter.setColor(Color.orange);
-			painter.drawOval(x1, y1, adjR, adjR);
-			painter.drawOval(x2, y2, adjR, adjR);
-			painter.drawOval(x3, y3, adjR, adjR);
-		}
-
-		if (_state == 3) {
-			painter.setColor(Color.green);
-			painter.drawOval(x2, y2, adjR, adjR);
-			painter.drawOval(x3, y3, adjR, adjR);
-			painter.drawOval(x4, y4, adjR, adjR);
-			painter.drawOval(x5, y5, adjR, adjR);
-			painter.drawOval(x6, y6, adjR, adjR);
-			painter.drawOval(x7, y7, adjR, adjR);
-		}
-
-		if (_state == 4) {
-			// draw 7 circles
-			painter.setColor(Color.blue);
-			painter.drawOval(x1, y1, adjR, adjR);
-			painter.drawOval(x2, y2, adjR, adjR);
-			painter.drawOval(x3, y3, adjR, adjR);
-			painter.drawOval(x4, y4, adjR, adjR);
-			painter.drawOval(x5, y5, adjR, adjR);
-			painter.drawOval(x6, y6, adjR, adjR);
-			painter.drawOval(x7, y7, adjR, adjR);
+		if (_sprite != null) {
+			painter.drawImage(_sprite, _x + r, _y - 16 * r, _sprite.getWidth(), _sprite.getHeight(), null);
+		} else {
+			GeometryCache.drawCircles(painter, CIRCLES[_state], r, _x + r, _y - 16 * r);
 		}
 
 	}
@@ -2,12 +2,17 @@ package bounce;
 
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.util.ArrayList;
+import java.awt.image.VolatileImage;
+import java.io.File;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.swing.BorderFactory;
 import javax.swing.JPanel;
@@ -24,6 +29,22 @@ import javax.swing.border.BevelBorder;
  * receiving an event from the Timer, the AnimationViewer iterates through a
  * list of Shapes requesting that each Shape paints and moves itself.
  * 
+ * By default the animation is instead rendered actively by a thread of its
+ * own, so its speed no longer depends on how busy the EDT is. The shapes move
+ * on a fixed timestep of DELAY milliseconds, as they did with the Timer, while
+ * frames are drawn at up to 60 fps into an offscreen buffer with the shapes
+ * interpolated between steps. The EDT only copies the finished frame to the
+ * screen. Frame time statistics are shown in the corner. Running with
+ * -Dvamix.activeRender=false goes back to the Timer.
+ * 
+ * In both modes only the areas the shapes have moved out of and into are
+ * redrawn each frame, batched into a {@link DirtyRegion}, unless most of the
+ * panel has changed anyway. The shapes draw through a pooled
+ * {@link BatchingPainter}, so their primitives reach Java2D grouped by colour.
+ * 
+ * Shapes can optionally bounce off each other as well as the walls, see
+ * {@link CollisionEngine}.
+ * 
  * NB: Class adapted from Ian Warren's bounce code from Softeng 251. All credit
  * for the base code such as AnimationViewer, Shape, Painter and Graphics
  * Painter goes to him, but all other classes are my own work.
@@ -35,35 +56,68 @@ public class AnimationViewer extends JPanel implements ActionListener {
 	// Frequency in milliseconds to generate ActionEvents.
 	private final int DELAY = 20;
 
-	// Collection of Shapes to animate.
+	// Whether to render on a thread of its own rather than from the Timer.
+	private static final boolean ACTIVE_RENDER = !"false".equals(System.getProperty("vamix.activeRender"));
+	// Frames drawn per second by the render thread.
+	private static final int TARGET_FPS = 60;
+	// Most time simulated in one frame, e.g. after the machine was suspended.
+	private static final long MAX_CATCH_UP_NANOS = 250000000L;
+
+	// Collection of Shapes to animate. The EDT adds to this while the render
+	// thread is iterating through it.
 	private List<Shape> _shapes;
 	private Timer _timer = new Timer(DELAY, this);
 
+	private Thread _renderThread = null;
+	private volatile boolean _rendering = false;
+	// The frame being drawn and the last finished frame, swapped under the lock
+	private VolatileImage _back = null;
+	private VolatileImage _front = null;
+	private final Object _bufferLock = new Object();
+	private final FrameStats _stats = new FrameStats();
+	// What changed in the last frame drawn by the render thread, null if
+	// everything did
+	private DirtyRegion _lastDirty = null;
+
+	private final CollisionEngine _collisionEngine = new CollisionEngine();
+	private volatile boolean _collisions = false;
+
+	// Directory the GIFs are generated in
+	private File _gifDir;
+	private int _numShapes;
+	// The single shape of a normal bounce, null for bouncemania
+	private BounceNorm _bounceNorm = null;
+	// When the animation started, for the clock that drives the GIF frames
+	private final long _startTime = System.currentTimeMillis();
+
 	/**
 	 * Creates an AnimationViewer instance with a list of Shape objects and
-	 * starts the animation.
+	 * starts the animation. The GIFs are added with {@link #addClip(int)} as
+	 * they are generated.
 	 * 
+	 * @param gifDir
+	 *            directory holding the GIFs to display
 	 */
-	public AnimationViewer() {
-		_shapes = new ArrayList<Shape>();
+	public AnimationViewer(File gifDir) {
+		_shapes = new CopyOnWriteArrayList<Shape>();
+		_gifDir = gifDir;
 
 		setBorder(BorderFactory.createBevelBorder(BevelBorder.LOWERED, Color.BLACK, Color.DARK_GRAY));
 		// Populate the list of Shapes.
 
-		_shapes.add(new BounceNorm(this.getWidth() / 2, this.getHeight() / 2, 1, 1, 320, 240));
-		// Start the animation.
-		_timer.start();
+		_bounceNorm = new BounceNorm(this.getWidth() / 2, this.getHeight() / 2, 1, 1, 320, 240);
+		_shapes.add(_bounceNorm);
+		// The animation starts when this is added to the screen.
 	}
 
-	public AnimationViewer(int numShapes) {
+	public AnimationViewer(int numShapes, File gifDir) {
 		setBorder(BorderFactory.createBevelBorder(BevelBorder.LOWERED, Color.BLACK, Color.DARK_GRAY));
-		_shapes = new ArrayList<Shape>();
-		int maxX = this.getWidth();
-		int maxY = this.getHeight();
-		int minDXY = -5;
-		int maxDXY = 5;
+		_shapes = new CopyOnWriteArrayList<Shape>();
+		_gifDir = gifDir;
+		_numShapes = numShapes;
 
-		// Populate the list of Shapes.
+		// Populate the list of Shapes. Bouncemania shapes are added by
+		// addClip() as their GIFs are generated.
 		if (numShapes == 42) {
 
 			_shapes.add(new DynamicRectangleShape(0, 0, -5, -3, 300, 150, Color.green, "Easter egg!!"));
@@ -71,23 +125,23 @@ public class AnimationViewer extends JPanel implements ActionListener {
 			_shapes.add(new DynamicRectangleShape(0, 500, 10, 25, 40, 60, Color.blue));
 			_shapes.add(new FractalShape(500, 500, -10, 0, 60, 70, 4));
 			_shapes.add(new AggregateShape(250, 100, -10, 1, 120, 70, 5));
-
-		} else {
-			for (int i = 1; i <= numShapes; i++) {
-				int randomX = 5 + (int) (Math.random() * (maxX + 1));
-				int randomY = 5 + (int) (Math.random() * (maxY + 1));
-				int randomDX = minDXY + (int) (Math.random() * ((maxDXY - minDXY) + 1));
-				int randomDY = minDXY + (int) (Math.random() * ((maxDXY - minDXY) + 1));
-				_shapes.add(new Bouncemania(randomX, randomY, randomDX, randomDY, 320, 240, i, numShapes));
-			}
-
-			setBorder(BorderFactory.createBevelBorder(BevelBorder.LOWERED, Color.BLACK, Color.DARK_GRAY));
-			// Populate the list of Shapes.
-
-			// Start the animation.
 		}
-		_timer.start();
+		// The animation starts when this is added to the screen.
+	}
 
+	/**
+	 * Adds the GIF with the given number to the animation as soon as it has
+	 * been generated. A normal bounce cycles through it, bouncemania gives it
+	 * a shape of its own at a random position and speed.
+	 * 
+	 * @param clip
+	 */
+	public void addClip(int clip) {
+		if (_bounceNorm != null) {
+			_bounceNorm.addImage(new File(_gifDir, clip + ".gif"));
+			return;
+		}
+		_shapes.add(Bouncemania.random(clip, _numShapes, _gifDir, this.getWidth(), this.getHeight()));
 	}
 
 	/**
@@ -98,31 +152,254 @@ public class AnimationViewer extends JPanel implements ActionListener {
 	 * 
 	 */
 	public void paintComponent(Graphics g) {
+		if (ACTIVE_RENDER) {
+			// Just show the last frame drawn by the render thread
+			synchronized (_bufferLock) {
+				if (_front != null && !_front.contentsLost()) {
+					g.drawImage(_front, 0, 0, null);
+					return;
+				}
+			}
+			super.paintComponent(g);
+			return;
+		}
+
 		// Call inherited implementation to handle background painting.
 		super.paintComponent(g);
 
-		// Calculate bounds of animation screen area.
-		int width = getSize().width;
-		int height = getSize().height;
+		// Take this thread's BatchingPainter for the Shape objects to draw
+		// with. It batches their drawing up and delegates it to a basic
+		// Graphics object when released.
+		BatchingPainter painter = BatchingPainter.obtain(g);
 
-		// Create a GraphicsPainter that Shape objects will use for drawing.
-		// The GraphicsPainter delegates painting to a basic Graphics object.
-		Painter painter = new GraphicsPainter(g);
+		// Only the shapes within the area being repainted need painting. The
+		// animation is progressed by actionPerformed().
+		Rectangle clip = g.getClipBounds();
+		try {
+			for (Shape s : _shapes) {
+				if (clip == null || clip.intersects(s.paintBounds(1))) {
+					s.paint(painter, 1);
+				}
+			}
+		} finally {
+			painter.release();
+		}
+	}
 
-		// Progress the animation.
+	/**
+	 * Starts the animation when this AnimationViewer is added to the screen.
+	 */
+	@Override
+	public void addNotify() {
+		super.addNotify();
+		if (ACTIVE_RENDER) {
+			_rendering = true;
+			_renderThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					renderLoop();
+				}
+			}, "vamix-bounce-render");
+			_renderThread.setDaemon(true);
+			_renderThread.start();
+		} else {
+			_timer.start();
+		}
+	}
+
+	/**
+	 * Stops the animation when this AnimationViewer is removed from the screen.
+	 */
+	@Override
+	public void removeNotify() {
+		_timer.stop();
+		_rendering = false;
+		if (_renderThread != null) {
+			_renderThread.interrupt();
+			_renderThread = null;
+		}
+		super.removeNotify();
+	}
+
+	/**
+	 * Turns bouncing of shapes off each other on or off.
+	 */
+	public void setCollisions(boolean collisions) {
+		_collisions = collisions;
+	}
+
+	/**
+	 * Moves every shape one step, bouncing them off the walls and, if turned
+	 * on, off each other.
+	 */
+	private void step(int width, int height) {
 		for (Shape s : _shapes) {
-			s.paint(painter);
 			s.move(width, height);
 		}
+		if (_collisions) {
+			_collisionEngine.collide(_shapes, width, height);
+		}
+	}
+
+	/**
+	 * Returns the frame time statistics of the render thread.
+	 */
+	public FrameStats getStats() {
+		return _stats;
+	}
+
+	/**
+	 * Body of the render thread. Each frame first moves the shapes as many
+	 * fixed steps as the time since the last frame allows, then draws them
+	 * part of the way towards their next step and sleeps until the next frame
+	 * is due.
+	 */
+	private void renderLoop() {
+		long stepNanos = DELAY * 1000000L;
+		long frameNanos = 1000000000L / TARGET_FPS;
+		long previous = System.nanoTime();
+		long accumulator = 0;
+		while (_rendering) {
+			long frameStart = System.nanoTime();
+			accumulator += Math.min(frameStart - previous, MAX_CATCH_UP_NANOS);
+			previous = frameStart;
+
+			int width = getWidth();
+			int height = getHeight();
+			int steps = 0;
+			while (accumulator >= stepNanos) {
+				step(width, height);
+				accumulator -= stepNanos;
+				steps++;
+			}
+			render(width, height, (double) accumulator / stepNanos);
+			_stats.frame(System.nanoTime() - frameStart, steps);
+
+			long sleep = frameNanos - (System.nanoTime() - frameStart);
+			if (sleep > 0) {
+				try {
+					Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Draws a frame into the back buffer, then swaps it to the front and asks
+	 * the EDT to show it.
+	 */
+	private void render(int width, int height, double alpha) {
+		GraphicsConfiguration gc = getGraphicsConfiguration();
+		if (gc == null || width <= 0 || height <= 0) {
+			return;
+		}
+		long time = System.currentTimeMillis() - _startTime;
+
+		// What has changed since the last frame, including the statistics
+		DirtyRegion dirty = new DirtyRegion(width, height);
+		for (Shape s : _shapes) {
+			dirty.add(s.dirtyBounds(alpha));
+		}
+		dirty.add(new Rectangle(0, height - 24, width, 24));
+		boolean changedAll = dirty.isMostlyDirty();
+
+		// The back buffer still holds the frame before last, so what changed in
+		// the last frame has to be redrawn too
+		DirtyRegion redraw = new DirtyRegion(width, height);
+		redraw.addAll(dirty);
+		boolean full = changedAll || _lastDirty == null;
+		if (!full) {
+			redraw.addAll(_lastDirty);
+			full = redraw.isMostlyDirty();
+		}
+		do {
+			if (_back == null || _back.getWidth() != width || _back.getHeight() != height
+					|| _back.validate(gc) == VolatileImage.IMAGE_INCOMPATIBLE) {
+				_back = gc.createCompatibleVolatileImage(width, height);
+				full = true;
+			}
+			Graphics2D g = _back.createGraphics();
+			try {
+				if (full) {
+					drawFrame(g, new Rectangle(0, 0, width, height), alpha, time);
+				} else {
+					for (Rectangle rect : redraw.getRectangles()) {
+						drawFrame(g, rect, alpha, time);
+					}
+				}
+			} finally {
+				g.dispose();
+			}
+			// Anything lost has to be drawn again in full
+			full = true;
+		} while (_back.contentsLost());
+		_lastDirty = changedAll ? null : dirty;
+
+		synchronized (_bufferLock) {
+			VolatileImage finished = _back;
+			_back = _front;
+			_front = finished;
+		}
+		if (changedAll) {
+			repaint();
+		} else {
+			for (Rectangle rect : dirty.getRectangles()) {
+				repaint(rect);
+			}
+		}
+	}
+
+	/**
+	 * Draws the part of a frame within the given clip.
+	 */
+	private void drawFrame(Graphics2D g, Rectangle clip, double alpha, long time) {
+		g.setClip(clip);
+		g.setColor(getBackground());
+		g.fillRect(clip.x, clip.y, clip.width, clip.height);
+		g.setColor(getForeground());
+		BatchingPainter painter = BatchingPainter.obtain(g);
+		try {
+			for (Shape s : _shapes) {
+				if (clip.intersects(s.paintBounds(alpha))) {
+					s.tick(time);
+					s.paint(painter, alpha);
+				}
+			}
+		} finally {
+			painter.release();
+		}
+		g.setColor(Color.GRAY);
+		g.drawString(_stats.toString(), 8, getHeight() - 8);
 	}
 
 	/**
 	 * Notifies this AnimationViewer object of an ActionEvent.
 	 */
 	public void actionPerformed(ActionEvent e) {
-		// Request that the AnimationViewer repaints itself. The call to
-		// repaint() will cause the AnimationViewer's paintComponent() to be
-		// called.
-		repaint();
+		int width = getWidth();
+		int height = getHeight();
+
+		// Progress the animation, noting where each shape was and will be.
+		long time = System.currentTimeMillis() - _startTime;
+		step(width, height);
+		DirtyRegion dirty = new DirtyRegion(width, height);
+		for (Shape s : _shapes) {
+			s.tick(time);
+			dirty.add(s.dirtyBounds(1));
+		}
+
+		// Request that the AnimationViewer repaints the areas that changed.
+		// These will cause the AnimationViewer's paintComponent() to be
+		// called once for each batch, or once for everything if most of it
+		// changed.
+		if (dirty.isMostlyDirty()) {
+			repaint();
+		} else {
+			for (Rectangle rect : dirty.getRectangles()) {
+				paintImmediately(rect);
+			}
+		}
 	}
 }
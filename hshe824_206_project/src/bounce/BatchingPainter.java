@@ -0,0 +1,235 @@
+package bounce;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Image;
+
+/**
+ * Painter that collects the primitives drawn through it rather than drawing
+ * each one straight away, and draws them in one go when flushed, grouped by
+ * colour and then by type. Java2D has to validate its rendering pipeline every
+ * time the colour changes, so a scene full of fractal and aggregate circles in
+ * a few colours is drawn with a handful of colour changes instead of one per
+ * shape.
+ *
+ * Within a batch the filled rectangles of a colour are drawn before its
+ * outlines. Images and text cannot be reordered, so the batch is flushed
+ * before each is drawn.
+ *
+ * The primitives are kept in primitive arrays that grow as needed and are
+ * reused from frame to frame. Each thread has a painter of its own, handed
+ * out by {@link #obtain(Graphics)} and given back by {@link #release()}, so
+ * that painting a frame creates no garbage.
+ *
+ * @author Harry She
+ *
+ */
+public class BatchingPainter implements Painter {
+	// Primitive types, in the order they are drawn within a colour
+	private static final int FILL_RECT = 0;
+	private static final int RECT = 1;
+	private static final int OVAL = 2;
+	private static final int LINE = 3;
+	private static final int TYPES = 4;
+
+	private static final ThreadLocal<BatchingPainter> POOL = new ThreadLocal<BatchingPainter>() {
+		@Override
+		protected BatchingPainter initialValue() {
+			return new BatchingPainter();
+		}
+	};
+
+	private Graphics _g;
+	private boolean _inUse = false;
+	private Color _color;
+
+	// The primitives waiting to be drawn
+	private int _count;
+	private int[] _type = new int[64];
+	private int[] _colorIndex = new int[64];
+	private int[] _a = new int[64];
+	private int[] _b = new int[64];
+	private int[] _c = new int[64];
+	private int[] _d = new int[64];
+
+	// The colours used by the waiting primitives
+	private int _colorCount;
+	private Color[] _colors = new Color[8];
+
+	// Counting sort of the primitives by colour and type
+	private int[] _keyStart = new int[8 * TYPES + 1];
+	private int[] _order = new int[64];
+
+	/**
+	 * Returns this thread's painter, set up to draw with the given Graphics.
+	 * Painters obtained here must be released when the drawing is done.
+	 *
+	 * @param g
+	 * @return
+	 */
+	public static BatchingPainter obtain(Graphics g) {
+		BatchingPainter painter = POOL.get();
+		if (painter._inUse) {
+			// Already painting something else on this thread
+			painter = new BatchingPainter();
+		}
+		painter._inUse = true;
+		painter._g = g;
+		painter._color = g.getColor();
+		return painter;
+	}
+
+	/**
+	 * Draws everything that is waiting and gives this painter back. The
+	 * Graphics is left set to the colour last set through the painter.
+	 */
+	public void release() {
+		flush();
+		_g.setColor(_color);
+		_g = null;
+		_inUse = false;
+	}
+
+	public void drawRect(int x, int y, int width, int height) {
+		add(RECT, x, y, width, height);
+	}
+
+	public void drawOval(int x, int y, int width, int height) {
+		add(OVAL, x, y, width, height);
+	}
+
+	public void drawLine(int x1, int y1, int x2, int y2) {
+		add(LINE, x1, y1, x2, y2);
+	}
+
+	public void fillRect(int x, int y, int width, int height) {
+		add(FILL_RECT, x, y, width, height);
+	}
+
+	public Color getColor() {
+		return _color;
+	}
+
+	public void setColor(Color color) {
+		_color = color;
+	}
+
+	/**
+	 * Draws a text string inside a given shape, after everything drawn before
+	 * it.
+	 */
+	public void drawCentredText(int x, int y, int width, int height, String text) {
+		flush();
+		_g.setColor(_color);
+		GraphicsPainter.drawCentredText(_g, x, y, width, height, text);
+	}
+
+	/**
+	 * Draws an image, after everything drawn before it.
+	 */
+	public void drawImage(Image img, int i, int j, int _width, int _height, Object object) {
+		flush();
+		_g.drawImage(img, i, j, _width, _height, null);
+	}
+
+	/**
+	 * Queues a primitive in the current colour.
+	 */
+	private void add(int type, int a, int b, int c, int d) {
+		if (_count == _type.length) {
+			int capacity = _count * 2;
+			_type = grow(_type, capacity);
+			_colorIndex = grow(_colorIndex, capacity);
+			_a = grow(_a, capacity);
+			_b = grow(_b, capacity);
+			_c = grow(_c, capacity);
+			_d = grow(_d, capacity);
+			_order = new int[capacity];
+		}
+		_type[_count] = type;
+		_colorIndex[_count] = colorIndex(_color);
+		_a[_count] = a;
+		_b[_count] = b;
+		_c[_count] = c;
+		_d[_count] = d;
+		_count++;
+	}
+
+	/**
+	 * Returns the index of a colour in the colours of this batch, adding it if
+	 * it is new. Scenes use only a few colours, so a linear search is fastest.
+	 */
+	private int colorIndex(Color color) {
+		for (int i = 0; i < _colorCount; i++) {
+			if (_colors[i] == color || _colors[i].equals(color)) {
+				return i;
+			}
+		}
+		if (_colorCount == _colors.length) {
+			Color[] colors = new Color[_colorCount * 2];
+			System.arraycopy(_colors, 0, colors, 0, _colorCount);
+			_colors = colors;
+			_keyStart = new int[colors.length * TYPES + 1];
+		}
+		_colors[_colorCount] = color;
+		return _colorCount++;
+	}
+
+	/**
+	 * Draws the waiting primitives grouped by colour and type, keeping their
+	 * order within each group.
+	 */
+	private void flush() {
+		if (_count == 0) {
+			return;
+		}
+		int keys = _colorCount * TYPES;
+		for (int k = 0; k <= keys; k++) {
+			_keyStart[k] = 0;
+		}
+		for (int i = 0; i < _count; i++) {
+			_keyStart[_colorIndex[i] * TYPES + _type[i] + 1]++;
+		}
+		for (int k = 0; k < keys; k++) {
+			_keyStart[k + 1] += _keyStart[k];
+		}
+		for (int i = 0; i < _count; i++) {
+			_order[_keyStart[_colorIndex[i] * TYPES + _type[i]]++] = i;
+		}
+
+		int color = -1;
+		for (int n = 0; n < _count; n++) {
+			int i = _order[n];
+			if (_colorIndex[i] != color) {
+				color = _colorIndex[i];
+				_g.setColor(_colors[color]);
+			}
+			switch (_type[i]) {
+			case FILL_RECT:
+				_g.fillRect(_a[i], _b[i], _c[i], _d[i]);
+				break;
+			case RECT:
+				_g.drawRect(_a[i], _b[i], _c[i], _d[i]);
+				break;
+			case OVAL:
+				_g.drawOval(_a[i], _b[i], _c[i], _d[i]);
+				break;
+			case LINE:
+				_g.drawLine(_a[i], _b[i], _c[i], _d[i]);
+				break;
+			}
+		}
+
+		for (int i = 0; i < _colorCount; i++) {
+			_colors[i] = null;
+		}
+		_colorCount = 0;
+		_count = 0;
+	}
+
+	private static int[] grow(int[] array, int capacity) {
+		int[] grown = new int[capacity];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+}
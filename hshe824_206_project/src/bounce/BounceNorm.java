@@ -1,11 +1,9 @@
 package bounce;
 
+import java.awt.Image;
 import java.io.File;
-import java.util.ArrayList;
-
-import javax.swing.ImageIcon;
-
-import processes.video.VideoTask;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * This class produces a rectangle shape that contains a gif file which changes
@@ -18,18 +16,21 @@ public class BounceNorm extends Shape {
 
 	private int _state;
 
-	ArrayList<ImageIcon> _images = new ArrayList<ImageIcon>();
+	private long _time;
+
+	// Added to from the EDT while the animation may be running
+	List<Sprite> _images = new CopyOnWriteArrayList<Sprite>();
 
 	public BounceNorm(int x, int y, int deltaX, int deltaY, int width, int height) {
 		super(x, y, deltaX, deltaY, width, height);
 		_state = 0;
+	}
 
-		// Add all gifs to the arraylist
-		for (int i = 1; i < 5; i++) {
-			_images.add(new ImageIcon(VideoTask.tempDir + File.separator + i + ".gif"));
-			System.out.println(VideoTask.tempDir + File.separator + i + ".gif");
-		}
-
+	/**
+	 * Adds another gif to cycle through, e.g. as soon as it has been generated.
+	 */
+	public void addImage(File gif) {
+		_images.add(SpriteCache.getInstance().get(gif, _width, _height));
 	}
 
 	/**
@@ -40,15 +41,33 @@ public class BounceNorm extends Shape {
 
 		// Draw current state of image every bounce
 		painter.drawRect(_x, _y, _width, _height);
-		painter.drawImage(_images.get(_state).getImage(), _x, _y, _width, _height, null);
+		if (!_images.isEmpty()) {
+			Image frame = _images.get(_state).getFrame(_time);
+			if (frame != null) {
+				painter.drawImage(frame, _x, _y, _width, _height, null);
+			}
+		}
+
+	}
 
+	public void tick(long time) {
+		_time = time;
+	}
+
+	public boolean isReady() {
+		for (Sprite sprite : _images) {
+			if (!sprite.isLoaded()) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	public void move(int _width, int _height) {
 		// Change state every bounce
 		super.move(_width, _height);
 		if (_y == 0 || _y == _height - this._height || _x == 0 || _x == _width - this._width) {
-			if (_state != _images.size() - 1) {
+			if (_state < _images.size() - 1) {
 				_state++;
 			} else {
 				_state = 0;
@@ -1,15 +1,13 @@
 package bounce;
 
+import java.awt.Image;
 import java.io.File;
 
-import javax.swing.ImageIcon;
-
-import processes.video.VideoTask;
-
 /**
  * Class that displays an animated GIF image of the video passed. This shape
  * doesn't change state when it bounces on the wall for clarity when multiple
- * instances of shapes are bouncing.
+ * instances of shapes are bouncing. The GIF frames come pre-decoded from the
+ * {@link SpriteCache}.
  * 
  * @author: Harry She
  * 
@@ -17,28 +15,55 @@ import processes.video.VideoTask;
 public class Bouncemania extends Shape {
 
 	private int _GIFState;
-	private ImageIcon _imageIcon;
+	private Sprite _sprite;
+	private long _time;
 
 	public Bouncemania() {
 		super();
 	}
 
-	public Bouncemania(int x, int y, int deltaX, int deltaY, int width, int height, int Gif, int numShapes) {
+	public Bouncemania(int x, int y, int deltaX, int deltaY, int width, int height, int Gif, int numShapes,
+			File gifDir) {
 		super(x, y, deltaX, deltaY, width, height);
 		_GIFState = Gif;
 
 		// Gets gif image to display in this instance
-		_imageIcon = new ImageIcon(VideoTask.tempDir + File.separator + Gif + ".gif");
+		_sprite = SpriteCache.getInstance().get(new File(gifDir, Gif + ".gif"), width, height);
 
 	}
 
+	/**
+	 * Creates a shape for the given GIF at a random position and speed within
+	 * a world of the given size.
+	 */
+	public static Bouncemania random(int Gif, int numShapes, File gifDir, int maxX, int maxY) {
+		int minDXY = -5;
+		int maxDXY = 5;
+		int randomX = 5 + (int) (Math.random() * (maxX + 1));
+		int randomY = 5 + (int) (Math.random() * (maxY + 1));
+		int randomDX = minDXY + (int) (Math.random() * ((maxDXY - minDXY) + 1));
+		int randomDY = minDXY + (int) (Math.random() * ((maxDXY - minDXY) + 1));
+		return new Bouncemania(randomX, randomY, randomDX, randomDY, 320, 240, Gif, numShapes, gifDir);
+	}
+
 	/**
 	 * Paints this RectangleShape object using the supplied Painter object.
 	 */
 	protected void paints(Painter painter) {
 		// Paint corresponding current GIF file
 		painter.drawRect(_x, _y, _width, _height);
-		painter.drawImage(_imageIcon.getImage(), _x, _y, _width, _height, null);
+		Image frame = _sprite.getFrame(_time);
+		if (frame != null) {
+			painter.drawImage(frame, _x, _y, _width, _height, null);
+		}
+	}
+
+	public void tick(long time) {
+		_time = time;
+	}
+
+	public boolean isReady() {
+		return _sprite.isLoaded();
 	}
 
 	public void move(int _width, int _height) {
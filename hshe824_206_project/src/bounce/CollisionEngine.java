@@ -0,0 +1,182 @@
+package bounce;
+
+import java.util.List;
+
+/**
+ * Optional shape against shape collisions for the bounce animation. After the
+ * shapes have made their normal moves (bouncing off the walls), overlapping
+ * shapes bounce off each other as equal masses would: the velocities along the
+ * axis they overlap least on are exchanged and the shapes are pushed apart.
+ *
+ * To stay close to linear in the number of shapes, candidate pairs come from a
+ * uniform grid whose cells are as large as the largest shape, so a shape can
+ * only touch shapes in its own or the eight neighbouring cells. The grid is
+ * built with a counting sort each step. Positions and velocities are worked on
+ * in primitive arrays that are reused from step to step, and only written
+ * back to the shapes at the end.
+ *
+ * @author Harry She
+ *
+ */
+public class CollisionEngine {
+
+	private int _count;
+	private int[] _x = new int[0];
+	private int[] _y = new int[0];
+	private int[] _dx = new int[0];
+	private int[] _dy = new int[0];
+	private int[] _w = new int[0];
+	private int[] _h = new int[0];
+
+	// Grid cell of each shape, the first entry of each cell in _cellItems, and
+	// the shapes sorted by cell
+	private int[] _cellOf = new int[0];
+	private int[] _cellStart = new int[0];
+	private int[] _cellFill = new int[0];
+	private int[] _cellItems = new int[0];
+
+	/**
+	 * Resolves the collisions between the given shapes within a world of the
+	 * given size.
+	 *
+	 * @param shapes
+	 * @param width
+	 *            width of two-dimensional world.
+	 * @param height
+	 *            height of two-dimensional world.
+	 */
+	public void collide(List<Shape> shapes, int width, int height) {
+		load(shapes);
+		if (_count < 2) {
+			return;
+		}
+
+		int cellSize = 1;
+		for (int i = 0; i < _count; i++) {
+			cellSize = Math.max(cellSize, Math.max(_w[i], _h[i]));
+		}
+		int cols = Math.max(1, width / cellSize + 1);
+		int rows = Math.max(1, height / cellSize + 1);
+		buildGrid(cellSize, cols, rows);
+
+		for (int i = 0; i < _count; i++) {
+			int cx = _cellOf[i] % cols;
+			int cy = _cellOf[i] / cols;
+			for (int ny = Math.max(0, cy - 1); ny <= Math.min(rows - 1, cy + 1); ny++) {
+				for (int nx = Math.max(0, cx - 1); nx <= Math.min(cols - 1, cx + 1); nx++) {
+					int cell = ny * cols + nx;
+					for (int k = _cellStart[cell]; k < _cellStart[cell + 1]; k++) {
+						int j = _cellItems[k];
+						if (j > i) {
+							resolve(i, j, width, height);
+						}
+					}
+				}
+			}
+		}
+		store(shapes);
+	}
+
+	/**
+	 * Copies the shapes' positions, velocities and sizes into the arrays.
+	 */
+	private void load(List<Shape> shapes) {
+		_count = shapes.size();
+		if (_x.length < _count) {
+			int capacity = Math.max(_count, _x.length * 2);
+			_x = new int[capacity];
+			_y = new int[capacity];
+			_dx = new int[capacity];
+			_dy = new int[capacity];
+			_w = new int[capacity];
+			_h = new int[capacity];
+			_cellOf = new int[capacity];
+			_cellItems = new int[capacity];
+		}
+		for (int i = 0; i < _count; i++) {
+			Shape s = shapes.get(i);
+			_x[i] = s._x;
+			_y[i] = s._y;
+			_dx[i] = s._deltaX;
+			_dy[i] = s._deltaY;
+			_w[i] = s._width;
+			_h[i] = s._height;
+		}
+	}
+
+	/**
+	 * Writes the resolved positions and velocities back to the shapes.
+	 */
+	private void store(List<Shape> shapes) {
+		for (int i = 0; i < _count; i++) {
+			Shape s = shapes.get(i);
+			s._x = _x[i];
+			s._y = _y[i];
+			s._deltaX = _dx[i];
+			s._deltaY = _dy[i];
+		}
+	}
+
+	/**
+	 * Sorts the shapes into grid cells by their top left corner.
+	 */
+	private void buildGrid(int cellSize, int cols, int rows) {
+		int cells = cols * rows;
+		if (_cellStart.length < cells + 1) {
+			_cellStart = new int[cells + 1];
+			_cellFill = new int[cells + 1];
+		}
+		for (int c = 0; c <= cells; c++) {
+			_cellStart[c] = 0;
+		}
+		for (int i = 0; i < _count; i++) {
+			int cx = Math.min(cols - 1, Math.max(0, _x[i] / cellSize));
+			int cy = Math.min(rows - 1, Math.max(0, _y[i] / cellSize));
+			_cellOf[i] = cy * cols + cx;
+			_cellStart[_cellOf[i] + 1]++;
+		}
+		for (int c = 0; c < cells; c++) {
+			_cellStart[c + 1] += _cellStart[c];
+		}
+		// _cellStart[c] is now where cell c starts in _cellItems
+		System.arraycopy(_cellStart, 0, _cellFill, 0, cells);
+		for (int i = 0; i < _count; i++) {
+			_cellItems[_cellFill[_cellOf[i]]++] = i;
+		}
+	}
+
+	/**
+	 * Bounces two shapes off each other if they overlap.
+	 */
+	private void resolve(int i, int j, int width, int height) {
+		int overlapX = Math.min(_x[i] + _w[i], _x[j] + _w[j]) - Math.max(_x[i], _x[j]);
+		int overlapY = Math.min(_y[i] + _h[i], _y[j] + _h[j]) - Math.max(_y[i], _y[j]);
+		if (overlapX <= 0 || overlapY <= 0) {
+			return;
+		}
+		if (overlapX < overlapY) {
+			// Side by side, i is to the left when direction is 1
+			int direction = _x[i] < _x[j] ? 1 : -1;
+			if ((_dx[j] - _dx[i]) * direction < 0) {
+				int dx = _dx[i];
+				_dx[i] = _dx[j];
+				_dx[j] = dx;
+			}
+			_x[i] = clamp(_x[i] - direction * (overlapX / 2), width - _w[i]);
+			_x[j] = clamp(_x[j] + direction * (overlapX - overlapX / 2), width - _w[j]);
+		} else {
+			int direction = _y[i] < _y[j] ? 1 : -1;
+			if ((_dy[j] - _dy[i]) * direction < 0) {
+				int dy = _dy[i];
+				_dy[i] = _dy[j];
+				_dy[j] = dy;
+			}
+			_y[i] = clamp(_y[i] - direction * (overlapY / 2), height - _h[i]);
+			_y[j] = clamp(_y[j] + direction * (overlapY - overlapY / 2), height - _h[j]);
+		}
+	}
+
+	private static int clamp(int value, int max) {
+		return Math.max(0, Math.min(max, value));
+	}
+}
@@ -0,0 +1,88 @@
+package bounce;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The parts of an animation that need redrawing for the next frame. Each
+ * rectangle added is merged with any it overlaps or nearly touches, so the
+ * region ends up as a few separate batches that can each be redrawn with a
+ * single clip.
+ *
+ * Once the batches cover most of the area it is cheaper to redraw everything,
+ * which {@link #isMostlyDirty()} tells the caller.
+ *
+ * @author Harry She
+ *
+ */
+public class DirtyRegion {
+	// Rectangles closer than this many pixels are redrawn together
+	private static final int MERGE_GAP = 8;
+	// Fraction of the area above which everything is redrawn
+	private static final double FULL_REDRAW_COVERAGE = 0.5;
+
+	private final Rectangle _bounds;
+	private final List<Rectangle> _rects = new ArrayList<Rectangle>();
+
+	/**
+	 * Creates an empty region within an area of the given size.
+	 */
+	public DirtyRegion(int width, int height) {
+		_bounds = new Rectangle(0, 0, width, height);
+	}
+
+	/**
+	 * Marks a rectangle as needing to be redrawn.
+	 */
+	public void add(Rectangle rect) {
+		Rectangle merged = rect.intersection(_bounds);
+		if (merged.isEmpty()) {
+			return;
+		}
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			Rectangle grown = new Rectangle(merged.x - MERGE_GAP, merged.y - MERGE_GAP, merged.width + 2
+					* MERGE_GAP, merged.height + 2 * MERGE_GAP);
+			for (Iterator<Rectangle> it = _rects.iterator(); it.hasNext();) {
+				Rectangle other = it.next();
+				if (grown.intersects(other)) {
+					merged = merged.union(other);
+					it.remove();
+					changed = true;
+				}
+			}
+		}
+		_rects.add(merged);
+	}
+
+	/**
+	 * Adds everything in another region to this one.
+	 */
+	public void addAll(DirtyRegion other) {
+		for (Rectangle rect : other._rects) {
+			add(rect);
+		}
+	}
+
+	/**
+	 * Returns the batches to redraw. They do not overlap.
+	 */
+	public List<Rectangle> getRectangles() {
+		return _rects;
+	}
+
+	/**
+	 * Checks whether enough of the area is dirty that it should all be
+	 * redrawn.
+	 */
+	public boolean isMostlyDirty() {
+		long area = 0;
+		for (Rectangle rect : _rects) {
+			area += (long) rect.width * rect.height;
+		}
+		return area >= FULL_REDRAW_COVERAGE * _bounds.width * _bounds.height;
+	}
+}
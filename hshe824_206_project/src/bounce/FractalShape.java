@@ -1,13 +1,22 @@
 package bounce;
 
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
 /**
  * This shape class produces a fractal shape consisting of overlapping circles.
+ * The circles are drawn once into an image by the {@link GeometryCache} and
+ * copied into place each frame.
  * 
  * 
  * @author: Harry She
  */
 public class FractalShape extends Shape {
 	private int radius;
+	// The circles in the colour they were last drawn in
+	private BufferedImage _sprite;
+	private Color _spriteColor;
 
 	public FractalShape(int x, int y, int deltaX, int deltaY, int width, int height, int radius) {
 		super(x, y, deltaX, deltaY, width, height);
@@ -15,35 +24,29 @@ public class FractalShape extends Shape {
 
 	}
 
-	public void paints(Painter painter) {
+	/**
+	 * The circles spread from x + r to x + 31r and from y - 16r to y + 16r.
+	 */
+	protected Rectangle bounds(int x, int y) {
 		int r = radius;
-		int adjR = 16 * r;
-		// x values of circle centres
-		int x1 = _x + 8 * r;
-		int x2 = _x + 8 * r;
-		int x3 = _x + r;
-		int x4 = _x + 15 * r;
-		int x5 = _x + r;
-		int x6 = _x + 15 * r;
-		int x7 = _x + 8 * r;
-		// y values of circle centres
-		int y1 = _y - 8 * r;
-		int y2 = _y;
-		int y3 = _y - 4 * r;
-		int y4 = _y - 4 * r;
-		int y5 = _y - 12 * r;
-		int y6 = _y - 12 * r;
-		int y7 = _y - 16 * r;
+		return new Rectangle(x + r, y - 16 * r, GeometryCache.width(r), GeometryCache.height(r));
+	}
 
+	public void paints(Painter painter) {
+		int r = radius;
 		if (r > 0) {
-			// draw 7 circles
-			painter.drawOval(x1, y1, adjR, adjR);
-			painter.drawOval(x2, y2, adjR, adjR);
-			painter.drawOval(x3, y3, adjR, adjR);
-			painter.drawOval(x4, y4, adjR, adjR);
-			painter.drawOval(x5, y5, adjR, adjR);
-			painter.drawOval(x6, y6, adjR, adjR);
-			painter.drawOval(x7, y7, adjR, adjR);
+			// Only look the image up again if the colour has changed
+			Color color = painter.getColor();
+			if (color != _spriteColor) {
+				_sprite = GeometryCache.get(GeometryCache.ALL_CIRCLES, r, color);
+				_spriteColor = color;
+			}
+			if (_sprite != null) {
+				painter.drawImage(_sprite, _x + r, _y - 16 * r, _sprite.getWidth(), _sprite.getHeight(), null);
+			} else {
+				// draw 7 circles
+				GeometryCache.drawCircles(painter, GeometryCache.ALL_CIRCLES, r, _x + r, _y - 16 * r);
+			}
 		}
 
 	}
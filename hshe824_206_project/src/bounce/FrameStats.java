@@ -0,0 +1,58 @@
+package bounce;
+
+/**
+ * Keeps track of how long the frames of an animation take to produce, giving a
+ * summary that is updated once a second. The frame time is the time spent
+ * simulating and drawing a frame, not counting the time waiting for the next
+ * one.
+ *
+ * Frames are recorded by the render thread only, the summary may be read from
+ * any thread.
+ *
+ * @author Harry She
+ *
+ */
+public class FrameStats {
+
+	private long _windowStart = System.nanoTime();
+	private int _frames;
+	private int _steps;
+	private long _totalNanos;
+	private long _maxNanos;
+	private volatile String _summary = "";
+
+	/**
+	 * Records a finished frame.
+	 *
+	 * @param frameNanos
+	 *            time taken to produce the frame
+	 * @param steps
+	 *            number of simulation steps taken for the frame
+	 */
+	public void frame(long frameNanos, int steps) {
+		_frames++;
+		_steps += steps;
+		_totalNanos += frameNanos;
+		_maxNanos = Math.max(_maxNanos, frameNanos);
+
+		long now = System.nanoTime();
+		if (now - _windowStart >= 1000000000L) {
+			double seconds = (now - _windowStart) / 1e9;
+			_summary = String.format("%.0f fps - frame %.1f ms avg, %.1f ms max - %.0f steps/s", _frames / seconds,
+					_totalNanos / 1e6 / _frames, _maxNanos / 1e6, _steps / seconds);
+			_windowStart = now;
+			_frames = 0;
+			_steps = 0;
+			_totalNanos = 0;
+			_maxNanos = 0;
+		}
+	}
+
+	/**
+	 * Returns the summary of the last full second, e.g.
+	 * "60 fps - frame 2.1 ms avg, 4.3 ms max - 50 steps/s".
+	 */
+	public String toString() {
+		return _summary;
+	}
+}
@@ -0,0 +1,121 @@
+package bounce;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the circles drawn by {@link FractalShape} and
+ * {@link AggregateShape}, pre-rendered into translucent images. The circles
+ * only ever move as a whole, so they are drawn once per radius, colour and set
+ * of circles and then copied to wherever the shape is, which costs the same
+ * however many circles there are. Shapes that look the same share one image.
+ *
+ * The circles are numbered 0 to 6 and a set of them is given as a bit mask.
+ * Images larger than MAX_PIXELS are not cached, those shapes draw their
+ * circles directly with {@link #drawCircles}.
+ *
+ * @author Harry She
+ *
+ */
+public class GeometryCache {
+	// All seven circles of a fractal
+	public static final int ALL_CIRCLES = 0x7f;
+
+	// Most images kept, least recently used are dropped first
+	private static final int MAX_SPRITES = 64;
+	// Largest image cached, in pixels
+	private static final int MAX_PIXELS = 1 << 20;
+
+	// Top left corner of each circle in multiples of the radius, relative to
+	// the top left of the shape's bounds
+	private static final int[] CIRCLE_X = { 7, 7, 0, 14, 0, 14, 7 };
+	private static final int[] CIRCLE_Y = { 8, 16, 12, 12, 4, 4, 0 };
+
+	private static final Map<String, BufferedImage> theSprites = new LinkedHashMap<String, BufferedImage>(16, 0.75f,
+			true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+			return size() > MAX_SPRITES;
+		}
+	};
+
+	private GeometryCache() {
+	}
+
+	/**
+	 * Returns the image of the given circles, drawing it if it is not cached.
+	 *
+	 * @param circles
+	 *            bit mask of the circles to draw
+	 * @param radius
+	 * @param color
+	 * @return the image, whose top left corner goes at the top left of the
+	 *         shape's bounds, or null if it would be too large to cache
+	 */
+	public static synchronized BufferedImage get(int circles, int radius, Color color) {
+		if (radius <= 0 || (long) width(radius) * height(radius) > MAX_PIXELS) {
+			return null;
+		}
+		String key = circles + "|" + radius + "|" + color.getRGB();
+		BufferedImage sprite = theSprites.get(key);
+		if (sprite == null) {
+			sprite = createImage(width(radius), height(radius), color);
+			Graphics2D g = sprite.createGraphics();
+			g.setColor(color);
+			drawCircles(new GraphicsPainter(g), circles, radius, 0, 0);
+			g.dispose();
+			theSprites.put(key, sprite);
+		}
+		return sprite;
+	}
+
+	/**
+	 * Draws the given circles with their bounds' top left corner at x, y.
+	 */
+	public static void drawCircles(Painter painter, int circles, int radius, int x, int y) {
+		int size = 16 * radius;
+		for (int i = 0; i < CIRCLE_X.length; i++) {
+			if ((circles & (1 << i)) != 0) {
+				painter.drawOval(x + CIRCLE_X[i] * radius, y + CIRCLE_Y[i] * radius, size, size);
+			}
+		}
+	}
+
+	/**
+	 * Width of the circles including the outline.
+	 */
+	public static int width(int radius) {
+		return 30 * radius + 1;
+	}
+
+	/**
+	 * Height of the circles including the outline.
+	 */
+	public static int height(int radius) {
+		return 32 * radius + 1;
+	}
+
+	/**
+	 * Creates a transparent image in a format the screen can draw quickly. Off
+	 * screen the image has just two colours, transparent and the colour of the
+	 * circles, which Java2D can copy without blending each pixel.
+	 */
+	private static BufferedImage createImage(int width, int height, Color color) {
+		if (!GraphicsEnvironment.isHeadless()) {
+			return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+					.getDefaultConfiguration().createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+		}
+		IndexColorModel model = new IndexColorModel(8, 2, new int[] { 0, color.getRGB() }, 0, true, 0,
+				DataBuffer.TYPE_BYTE);
+		return new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, model);
+	}
+}
@@ -63,7 +63,14 @@ public class GraphicsPainter implements Painter {
 	 *            text string
 	 */
 	public void drawCentredText(int x, int y, int width, int height, String text) {
-		FontMetrics font = _g.getFontMetrics();
+		drawCentredText(_g, x, y, width, height, text);
+	}
+
+	/**
+	 * Draws a text string inside a given shape with the given Graphics.
+	 */
+	static void drawCentredText(Graphics g, int x, int y, int width, int height, String text) {
+		FontMetrics font = g.getFontMetrics();
 		int ascent = font.getAscent();
 		int descent = font.getDescent();
 		int textWidth = font.stringWidth(text);
@@ -82,9 +89,9 @@ public class GraphicsPainter implements Painter {
 		 * the width of the shape - the width of the text.
 		 */
 		if (ascent > descent) {
-			_g.drawString(text, x + width / 2 - textWidth / 2, y + height / 2 + (ascent - descent) / 2);
+			g.drawString(text, x + width / 2 - textWidth / 2, y + height / 2 + (ascent - descent) / 2);
 		} else if (descent > ascent) {
-			_g.drawString(text, x + width / 2 - textWidth / 2, y + height / 2 + (ascent + descent) / 2);
+			g.drawString(text, x + width / 2 - textWidth / 2, y + height / 2 + (ascent + descent) / 2);
 		}
 	}
 
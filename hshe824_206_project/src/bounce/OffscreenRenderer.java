@@ -0,0 +1,256 @@
+package bounce;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.UIManager;
+
+/**
+ * Draws a bounce animation into images in memory rather than onto the screen,
+ * so it can be exported to a video file. It needs no display and runs as fast
+ * as the frames can be used: the animation clock is advanced by exactly one
+ * frame each time, however long the frame took.
+ *
+ * The shapes move on the same fixed timestep as in the {@link AnimationViewer}
+ * and are drawn through a {@link BatchingPainter}, interpolated between steps
+ * when the frame rate does not divide evenly into it. Every frame is drawn
+ * into the same image, whose pixels are in the packed BGR order avconv knows
+ * as bgr24, so they can be written out as raw video without any conversion.
+ *
+ * {@link #render} writes a whole animation to a stream, and {@link #main} uses
+ * it to render the GIFs in a directory from the command line without any UI.
+ *
+ * @author Harry She
+ *
+ */
+public class OffscreenRenderer {
+	// Length of a simulation step in milliseconds, as in AnimationViewer
+	private static final int DELAY = 20;
+	// Frame rate used by main
+	private static final int FRAME_RATE = 25;
+	// Longest time to wait for the shapes to load
+	private static final long LOAD_TIMEOUT_MILLIS = 60000;
+
+	private final List<Shape> _shapes;
+	private final int _width;
+	private final int _height;
+	private final int _frameRate;
+	private final BufferedImage _frame;
+	private final byte[] _pixels;
+	private final Color _background;
+	private final Color _foreground = Color.BLACK;
+
+	private final CollisionEngine _collisionEngine = new CollisionEngine();
+	private boolean _collisions = false;
+
+	private long _frameCount = 0;
+	// Time simulated so far in milliseconds
+	private long _simulated = 0;
+
+	/**
+	 * Creates a renderer for the given shapes. The renderer takes over the
+	 * shapes, which must not be shown anywhere else.
+	 *
+	 * @param shapes
+	 * @param width
+	 *            width of the frames, must be even for most encoders.
+	 * @param height
+	 *            height of the frames, must be even for most encoders.
+	 * @param frameRate
+	 *            frames per second of the video.
+	 */
+	public OffscreenRenderer(List<Shape> shapes, int width, int height, int frameRate) {
+		_shapes = new ArrayList<Shape>(shapes);
+		_width = width;
+		_height = height;
+		_frameRate = frameRate;
+		_frame = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		_pixels = ((DataBufferByte) _frame.getRaster().getDataBuffer()).getData();
+		Color background = UIManager.getColor("Panel.background");
+		_background = background != null ? new Color(background.getRGB()) : Color.WHITE;
+	}
+
+	/**
+	 * Turns bouncing of shapes off each other on or off.
+	 */
+	public void setCollisions(boolean collisions) {
+		_collisions = collisions;
+	}
+
+	/**
+	 * Checks whether all of the shapes have loaded what they need to be drawn.
+	 */
+	public boolean isReady() {
+		for (Shape s : _shapes) {
+			if (!s.isReady()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Waits for all of the shapes to load, giving up after a minute.
+	 *
+	 * @return whether the shapes loaded in time
+	 * @throws InterruptedException
+	 */
+	public boolean awaitReady() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + LOAD_TIMEOUT_MILLIS;
+		while (!isReady()) {
+			if (System.currentTimeMillis() > deadline) {
+				return false;
+			}
+			Thread.sleep(50);
+		}
+		return true;
+	}
+
+	/**
+	 * Advances the animation by one frame and draws it.
+	 *
+	 * @return the frame, which is reused for the next one
+	 */
+	public BufferedImage nextFrame() {
+		long time = _frameCount * 1000 / _frameRate;
+		while (_simulated + DELAY <= time) {
+			for (Shape s : _shapes) {
+				s.move(_width, _height);
+			}
+			if (_collisions) {
+				_collisionEngine.collide(_shapes, _width, _height);
+			}
+			_simulated += DELAY;
+		}
+		double alpha = (double) (time - _simulated) / DELAY;
+
+		Graphics2D g = _frame.createGraphics();
+		try {
+			g.setColor(_background);
+			g.fillRect(0, 0, _width, _height);
+			g.setColor(_foreground);
+			BatchingPainter painter = BatchingPainter.obtain(g);
+			try {
+				for (Shape s : _shapes) {
+					s.tick(time);
+					s.paint(painter, alpha);
+				}
+			} finally {
+				painter.release();
+			}
+		} finally {
+			g.dispose();
+		}
+		_frameCount++;
+		return _frame;
+	}
+
+	/**
+	 * Returns the pixels of the last frame drawn, three bytes per pixel in
+	 * blue, green, red order, row by row.
+	 */
+	public byte[] getPixels() {
+		return _pixels;
+	}
+
+	/**
+	 * Returns the number of frames drawn so far.
+	 */
+	public long getFrameCount() {
+		return _frameCount;
+	}
+
+	public int getWidth() {
+		return _width;
+	}
+
+	public int getHeight() {
+		return _height;
+	}
+
+	/**
+	 * Draws an animation of the given shapes and writes the pixels of every
+	 * frame to a stream as raw bgr24 video.
+	 *
+	 * @param shapes
+	 * @param width
+	 * @param height
+	 * @param frameRate
+	 * @param seconds
+	 *            length of the animation
+	 * @param collisions
+	 *            whether the shapes bounce off each other
+	 * @param out
+	 * @throws IOException
+	 *             if the shapes could not be loaded or the stream could not be
+	 *             written to
+	 * @throws InterruptedException
+	 */
+	public static void render(List<Shape> shapes, int width, int height, int frameRate, int seconds,
+			boolean collisions, OutputStream out) throws IOException, InterruptedException {
+		OffscreenRenderer renderer = new OffscreenRenderer(shapes, width, height, frameRate);
+		renderer.setCollisions(collisions);
+		if (!renderer.awaitReady()) {
+			throw new IOException("The shapes could not be loaded");
+		}
+		long frames = (long) seconds * frameRate;
+		for (long i = 0; i < frames; i++) {
+			renderer.nextFrame();
+			out.write(renderer.getPixels());
+		}
+		out.flush();
+	}
+
+	/**
+	 * Renders the GIFs 1.gif, 2.gif and so on in a directory bouncing around
+	 * on their own, as Bouncemania does, and writes the video to standard
+	 * output as raw bgr24 frames at 25 frames per second, e.g.
+	 *
+	 * <pre>
+	 * java bounce.OffscreenRenderer gifs 640 480 10 | avconv -f rawvideo -pix_fmt bgr24 -s 640x480 -r 25 -i - out.mp4
+	 * </pre>
+	 *
+	 * @param args
+	 *            the GIF directory, width, height and length in seconds of the
+	 *            video, and optionally "collisions"
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.err.println("Usage: java bounce.OffscreenRenderer <gif directory> <width> <height> <seconds>"
+					+ " [collisions]");
+			System.exit(2);
+		}
+		File gifDir = new File(args[0]);
+		int width = Math.max(2, Integer.parseInt(args[1]) & ~1);
+		int height = Math.max(2, Integer.parseInt(args[2]) & ~1);
+		int seconds = Integer.parseInt(args[3]);
+		boolean collisions = args.length > 4 && "collisions".equals(args[4]);
+
+		int numShapes = 0;
+		while (new File(gifDir, (numShapes + 1) + ".gif").exists()) {
+			numShapes++;
+		}
+		if (numShapes == 0) {
+			System.err.println("No GIFs named 1.gif, 2.gif... in " + gifDir);
+			System.exit(1);
+		}
+		List<Shape> shapes = new ArrayList<Shape>();
+		for (int clip = 1; clip <= numShapes; clip++) {
+			shapes.add(Bouncemania.random(clip, numShapes, gifDir, width, height));
+		}
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 20)) {
+			render(shapes, width, height, FRAME_RATE, seconds, collisions, out);
+		}
+		System.exit(0);
+	}
+}
@@ -1,5 +1,7 @@
 package bounce;
 
+import java.awt.Rectangle;
+
 /**
  * Abstract superclass to represent the general concept of a Shape. This class
  * defines state common to all special kinds of Shape instances and implements a
@@ -41,6 +43,14 @@ public abstract class Shape {
 
 	protected String _text;
 
+	// Position before the last move, for drawing in between moves
+	protected int _previousX;
+
+	protected int _previousY;
+
+	// Area covered the last time this Shape was painted, null if never
+	private Rectangle _painted = null;
+
 	// ===
 
 	/**
@@ -72,6 +82,8 @@ public abstract class Shape {
 	public Shape(int x, int y, int deltaX, int deltaY, int width, int height) {
 		_x = x;
 		_y = y;
+		_previousX = x;
+		_previousY = y;
 		_deltaX = deltaX;
 		_deltaY = deltaY;
 		_width = width;
@@ -85,6 +97,8 @@ public abstract class Shape {
 	public Shape(int x, int y, int deltaX, int deltaY, int width, int height, String text) {
 		_x = x;
 		_y = y;
+		_previousX = x;
+		_previousY = y;
 		_deltaX = deltaX;
 		_deltaY = deltaY;
 		_width = width;
@@ -103,6 +117,8 @@ public abstract class Shape {
 	 *            height of two-dimensional world.
 	 */
 	public void move(int width, int height) {
+		_previousX = _x;
+		_previousY = _y;
 		int nextX = _x + _deltaX;
 		int nextY = _y + _deltaY;
 
@@ -126,6 +142,24 @@ public abstract class Shape {
 		_y = nextY;
 	}
 
+	/**
+	 * Advances any animation within this Shape, such as the frames of a GIF, to
+	 * the given time on the animation clock. Does nothing by default.
+	 * 
+	 * @param time
+	 *            milliseconds since the animation started.
+	 */
+	public void tick(long time) {
+	}
+
+	/**
+	 * Checks whether everything this Shape needs to paint itself, such as its
+	 * GIF frames, has been loaded. Always true by default.
+	 */
+	public boolean isReady() {
+		return true;
+	}
+
 	// Created new abstract paints method to be implemented by concrete
 	// subclasses
 	protected abstract void paints(Painter painter);
@@ -147,6 +181,62 @@ public abstract class Shape {
 		paints(painter);
 	}
 
+	/**
+	 * Paints this Shape part of the way between its position before the last
+	 * move and its current position, so that the animation looks smooth when
+	 * frames are drawn more often than the Shape moves.
+	 * 
+	 * @param painter
+	 *            the Painter object used for drawing.
+	 * @param alpha
+	 *            0 for the previous position through to 1 for the current
+	 *            one.
+	 */
+	protected final void paint(Painter painter, double alpha) {
+		int x = _x;
+		int y = _y;
+		_x = interpolate(_previousX, x, alpha);
+		_y = interpolate(_previousY, y, alpha);
+		_painted = bounds(_x, _y);
+		try {
+			paint(painter);
+		} finally {
+			_x = x;
+			_y = y;
+		}
+	}
+
+	private static int interpolate(int previous, int current, double alpha) {
+		return previous + (int) Math.round((current - previous) * alpha);
+	}
+
+	/**
+	 * Returns the area this Shape covers when painted at the given position,
+	 * including the extra pixel taken by the outline. Subclasses that draw
+	 * outside their width and height must override this.
+	 */
+	protected Rectangle bounds(int x, int y) {
+		return new Rectangle(x, y, _width + 1, _height + 1);
+	}
+
+	/**
+	 * Returns the area this Shape will cover when painted with the given
+	 * alpha, see {@link #paint(Painter, double)}.
+	 */
+	public Rectangle paintBounds(double alpha) {
+		return bounds(interpolate(_previousX, _x, alpha), interpolate(_previousY, _y, alpha));
+	}
+
+	/**
+	 * Returns the area that has to be redrawn to paint this Shape with the
+	 * given alpha: where it was painted last time plus where it will be
+	 * painted now.
+	 */
+	public Rectangle dirtyBounds(double alpha) {
+		Rectangle next = paintBounds(alpha);
+		return _painted == null ? next : next.union(_painted);
+	}
+
 	/**
 	 * Returns this Shape object's x position.
 	 */
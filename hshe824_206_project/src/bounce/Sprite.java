@@ -0,0 +1,90 @@
+package bounce;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+
+/**
+ * The frames of an animated GIF, decoded once and scaled to the size they are
+ * drawn at. Which frame to show is worked out from the animation clock rather
+ * than by Swing animating the image, so drawing a frame is just a copy.
+ *
+ * Sprites are created by the {@link SpriteCache} and decoded in the
+ * background, so no frame is available until {@link #isLoaded()}.
+ *
+ * @author Harry She
+ *
+ */
+public class Sprite {
+
+	private final int _width;
+	private final int _height;
+
+	private volatile BufferedImage[] _frames = null;
+	// Time in milliseconds at which each frame starts
+	private int[] _startTimes;
+	private int _duration;
+
+	Sprite(int width, int height) {
+		_width = width;
+		_height = height;
+	}
+
+	/**
+	 * Called by the cache once decoding has finished.
+	 */
+	void setFrames(BufferedImage[] frames, int[] startTimes, int duration) {
+		_startTimes = startTimes;
+		_duration = duration;
+		_frames = frames;
+	}
+
+	public boolean isLoaded() {
+		return _frames != null;
+	}
+
+	/**
+	 * Returns the frame to show at the given time on the animation clock, or
+	 * null if the sprite has not been decoded yet. The animation loops.
+	 *
+	 * @param time
+	 *            time in milliseconds
+	 */
+	public Image getFrame(long time) {
+		BufferedImage[] frames = _frames;
+		if (frames == null || frames.length == 0) {
+			return null;
+		}
+		if (_duration <= 0) {
+			return frames[0];
+		}
+		int t = (int) (time % _duration);
+		int low = 0;
+		int high = frames.length - 1;
+		// Find the last frame starting at or before t
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (_startTimes[mid] <= t) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return frames[low];
+	}
+
+	public int getWidth() {
+		return _width;
+	}
+
+	public int getHeight() {
+		return _height;
+	}
+
+	/**
+	 * Returns roughly how much memory the decoded frames use.
+	 */
+	long getBytes() {
+		BufferedImage[] frames = _frames;
+		return frames == null ? 0 : (long) frames.length * _width * _height * 4;
+	}
+}
@@ -0,0 +1,245 @@
+package bounce;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+
+import org.w3c.dom.Node;
+
+/**
+ * Cache of decoded {@link Sprite}s shared by all of the bouncing shapes. A GIF
+ * is decoded once per size it is drawn at, in the background, into images in
+ * the screen's own format which Java2D can keep in video memory. Shapes showing
+ * the same clip at the same size share one sprite.
+ *
+ * The memory used by the cache is limited to a quarter of the heap, or the
+ * number of megabytes given by the "vamix.spriteCacheMB" system property. So
+ * that a full bouncemania of 20 clips always fits, a single sprite keeps only
+ * every second (third...) frame if all of its frames would take more than a
+ * twentieth of that.
+ *
+ * @author Harry She
+ *
+ */
+public class SpriteCache {
+	// Singleton - one cache shared by all animations
+	private static SpriteCache theInstance = null;
+
+	// Maximum number of clips in a bouncemania
+	private static final int MAX_SPRITES = 20;
+	// Delay used when a GIF frame does not specify one
+	private static final int DEFAULT_DELAY = 100;
+
+	private final Map<String, Sprite> _sprites = new LinkedHashMap<String, Sprite>(16, 0.75f, true);
+	private final long _budget;
+	private final ExecutorService _decoder;
+
+	private SpriteCache() {
+		long budget = Runtime.getRuntime().maxMemory() / 4;
+		try {
+			budget = Long.parseLong(System.getProperty("vamix.spriteCacheMB", Long.toString(budget >> 20))) << 20;
+		} catch (NumberFormatException e) {
+			// Keep the default
+		}
+		_budget = budget;
+		_decoder = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "vamix-sprites");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
+	/**
+	 * Grab the singleton instance of this class.
+	 *
+	 * @return
+	 */
+	public static synchronized SpriteCache getInstance() {
+		if (theInstance == null) {
+			theInstance = new SpriteCache();
+		}
+		return theInstance;
+	}
+
+	/**
+	 * Returns the sprite for a GIF drawn at the given size, starting to decode
+	 * it in the background if it is not cached.
+	 *
+	 * @param gif
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	public synchronized Sprite get(final File gif, int width, int height) {
+		String key = gif.getPath() + "|" + gif.lastModified() + "|" + width + "x" + height;
+		Sprite sprite = _sprites.get(key);
+		if (sprite == null) {
+			final Sprite newSprite = new Sprite(width, height);
+			_sprites.put(key, newSprite);
+			_decoder.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						decode(gif, newSprite, _budget / MAX_SPRITES);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+					trim();
+				}
+			});
+			sprite = newSprite;
+		}
+		return sprite;
+	}
+
+	/**
+	 * Drops the least recently used sprites while the cache is over budget.
+	 * Shapes still showing a dropped sprite keep it until they go away.
+	 */
+	private synchronized void trim() {
+		long total = 0;
+		for (Sprite s : _sprites.values()) {
+			total += s.getBytes();
+		}
+		Iterator<Sprite> it = _sprites.values().iterator();
+		while (total > _budget && it.hasNext()) {
+			Sprite s = it.next();
+			if (s.isLoaded()) {
+				total -= s.getBytes();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Decodes every frame of a GIF, compositing each onto the ones before it as
+	 * the GIF's disposal methods require, and scales them to the sprite's size.
+	 */
+	private static void decode(File gif, Sprite sprite, long maxBytes) throws IOException {
+		ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+		try (ImageInputStream in = ImageIO.createImageInputStream(gif)) {
+			if (in == null) {
+				throw new IOException("Cannot read " + gif);
+			}
+			reader.setInput(in, false);
+			int count = reader.getNumImages(true);
+			long frameBytes = (long) sprite.getWidth() * sprite.getHeight() * 4;
+			int step = (int) Math.max(1, (count * frameBytes + maxBytes - 1) / maxBytes);
+
+			BufferedImage canvas = new BufferedImage(reader.getWidth(0), reader.getHeight(0),
+					BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = canvas.createGraphics();
+			List<BufferedImage> frames = new ArrayList<BufferedImage>();
+			List<Integer> startTimes = new ArrayList<Integer>();
+			int time = 0;
+			for (int i = 0; i < count; i++) {
+				BufferedImage raw = reader.read(i);
+				IIOMetadataNode root = (IIOMetadataNode) reader.getImageMetadata(i).getAsTree(
+						"javax_imageio_gif_image_1.0");
+				int left = intAttribute(root, "ImageDescriptor", "imageLeftPosition", 0);
+				int top = intAttribute(root, "ImageDescriptor", "imageTopPosition", 0);
+				int delay = intAttribute(root, "GraphicControlExtension", "delayTime", 0) * 10;
+				String disposal = attribute(root, "GraphicControlExtension", "disposalMethod");
+
+				BufferedImage previous = null;
+				if ("restoreToPrevious".equals(disposal)) {
+					previous = copy(canvas);
+				}
+				g.drawImage(raw, left, top, null);
+				if (i % step == 0) {
+					frames.add(scale(canvas, sprite.getWidth(), sprite.getHeight()));
+					startTimes.add(time);
+				}
+				time += delay > 0 ? delay : DEFAULT_DELAY;
+
+				if ("restoreToBackgroundColor".equals(disposal)) {
+					g.setComposite(AlphaComposite.Clear);
+					g.fillRect(left, top, raw.getWidth(), raw.getHeight());
+					g.setComposite(AlphaComposite.SrcOver);
+				} else if (previous != null) {
+					g.setComposite(AlphaComposite.Src);
+					g.drawImage(previous, 0, 0, null);
+					g.setComposite(AlphaComposite.SrcOver);
+				}
+			}
+			g.dispose();
+
+			int[] starts = new int[startTimes.size()];
+			for (int i = 0; i < starts.length; i++) {
+				starts[i] = startTimes.get(i);
+			}
+			sprite.setFrames(frames.toArray(new BufferedImage[frames.size()]), starts, time);
+		} finally {
+			reader.dispose();
+		}
+	}
+
+	/**
+	 * Creates an image in the format of the screen, so that drawing it needs
+	 * no conversion.
+	 */
+	private static BufferedImage createFrame(int width, int height) {
+		if (!GraphicsEnvironment.isHeadless()) {
+			return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+					.getDefaultConfiguration().createCompatibleImage(width, height);
+		}
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+	}
+
+	private static BufferedImage scale(BufferedImage image, int width, int height) {
+		BufferedImage frame = createFrame(width, height);
+		Graphics2D g = frame.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(image, 0, 0, width, height, null);
+		g.dispose();
+		return frame;
+	}
+
+	private static BufferedImage copy(BufferedImage image) {
+		BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = copy.createGraphics();
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+		return copy;
+	}
+
+	private static String attribute(IIOMetadataNode root, String element, String name) {
+		for (Node n = root.getFirstChild(); n != null; n = n.getNextSibling()) {
+			if (n.getNodeName().equals(element)) {
+				Node attr = n.getAttributes().getNamedItem(name);
+				return attr == null ? null : attr.getNodeValue();
+			}
+		}
+		return null;
+	}
+
+	private static int intAttribute(IIOMetadataNode root, String element, String name, int defaultValue) {
+		String value = attribute(root, element, name);
+		try {
+			return value == null ? defaultValue : Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package model;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.List;
+
+import javax.swing.table.AbstractTableModel;
+
+import processes.file.DownloadQueue;
+
+/**
+ * Table model showing the downloads in the {@link DownloadQueue}, one row per
+ * download with its file name, state and progress. The model keeps itself up
+ * to date with the queue until {@link #dispose()} is called.
+ *
+ * @author Harry She
+ *
+ */
+@SuppressWarnings("serial")
+public class DownloadQueueModel extends AbstractTableModel {
+	public static final int PROGRESS_COLUMN = 2;
+
+	private final String[] columnNames = new String[] { "File", "State", "Progress" };
+	private final DownloadQueue _queue;
+	private List<DownloadQueue.Item> _items;
+
+	private final PropertyChangeListener _listener = new PropertyChangeListener() {
+		@Override
+		public void propertyChange(PropertyChangeEvent evt) {
+			List<DownloadQueue.Item> items = _queue.getItems();
+			if (items.equals(_items)) {
+				// Only progress or states, keep the selection
+				if (!items.isEmpty()) {
+					fireTableRowsUpdated(0, items.size() - 1);
+				}
+			} else {
+				_items = items;
+				fireTableDataChanged();
+			}
+		}
+	};
+
+	public DownloadQueueModel(DownloadQueue queue) {
+		_queue = queue;
+		_items = queue.getItems();
+		queue.addPropertyChangeListener(_listener);
+	}
+
+	/**
+	 * Stops following the queue.
+	 */
+	public void dispose() {
+		_queue.removePropertyChangeListener(_listener);
+	}
+
+	/**
+	 * Returns the download shown in a row.
+	 */
+	public DownloadQueue.Item getItem(int row) {
+		return _items.get(row);
+	}
+
+	@Override
+	public String getColumnName(int column) {
+		return columnNames[column];
+	}
+
+	@Override
+	public int getColumnCount() {
+		return columnNames.length;
+	}
+
+	@Override
+	public int getRowCount() {
+		return _items.size();
+	}
+
+	@Override
+	public Object getValueAt(int rowIndex, int columnIndex) {
+		DownloadQueue.Item row = _items.get(rowIndex);
+		if (0 == columnIndex) {
+			return row.getTarget().getName();
+		} else if (1 == columnIndex) {
+			return row.getState().toString();
+		} else if (PROGRESS_COLUMN == columnIndex) {
+			return row;
+		}
+		return null;
+	}
+}
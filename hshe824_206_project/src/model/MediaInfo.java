@@ -0,0 +1,185 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable description of a media file as reported by a single avprobe run.
+ * This holds the parsed streams, codecs, duration, resolution and frame rate
+ * as well as the raw avprobe output that is shown in the details panes.
+ *
+ * The size and last modified time of the file at the time of probing are kept
+ * so that the cache can tell when this information has gone stale.
+ *
+ * @author Harry She
+ *
+ */
+public final class MediaInfo {
+
+	/**
+	 * A single stream (audio, video, subtitle etc.) within a media file.
+	 */
+	public static final class Stream {
+		private final String _type;
+		private final String _codec;
+		private final String _description;
+
+		public Stream(String type, String codec, String description) {
+			_type = type;
+			_codec = codec;
+			_description = description;
+		}
+
+		// Stream type as printed by avprobe, e.g. "Video" or "Audio"
+		public String getType() {
+			return _type;
+		}
+
+		public String getCodec() {
+			return _codec;
+		}
+
+		// Everything avprobe printed after the stream type
+		public String getDescription() {
+			return _description;
+		}
+	}
+
+	private final String _path;
+	private final long _size;
+	private final long _lastModified;
+	private final double _duration;
+	private final int _bitrate;
+	private final int _width;
+	private final int _height;
+	private final double _frameRate;
+	private final int _sampleRate;
+	private final String _channelLayout;
+	private final List<Stream> _streams;
+	private final String _details;
+
+	public MediaInfo(String path, long size, long lastModified, double duration, int bitrate, int width, int height,
+			double frameRate, int sampleRate, String channelLayout, List<Stream> streams, String details) {
+		_path = path;
+		_size = size;
+		_lastModified = lastModified;
+		_duration = duration;
+		_bitrate = bitrate;
+		_width = width;
+		_height = height;
+		_frameRate = frameRate;
+		_sampleRate = sampleRate;
+		_channelLayout = channelLayout;
+		_streams = Collections.unmodifiableList(new ArrayList<Stream>(streams));
+		_details = details;
+	}
+
+	public String getPath() {
+		return _path;
+	}
+
+	public long getSize() {
+		return _size;
+	}
+
+	public long getLastModified() {
+		return _lastModified;
+	}
+
+	/**
+	 * Returns the duration in seconds, or 0 if avprobe did not report one.
+	 */
+	public double getDuration() {
+		return _duration;
+	}
+
+	/**
+	 * Returns the overall bitrate in kb/s, or 0 if unknown.
+	 */
+	public int getBitrate() {
+		return _bitrate;
+	}
+
+	/**
+	 * Returns the width of the first video stream, or 0 if there is none.
+	 */
+	public int getWidth() {
+		return _width;
+	}
+
+	/**
+	 * Returns the height of the first video stream, or 0 if there is none.
+	 */
+	public int getHeight() {
+		return _height;
+	}
+
+	/**
+	 * Returns the frame rate of the first video stream, or 0 if unknown.
+	 */
+	public double getFrameRate() {
+		return _frameRate;
+	}
+
+	/**
+	 * Returns the sample rate of the first audio stream in Hz, or 0 if there is
+	 * none.
+	 */
+	public int getSampleRate() {
+		return _sampleRate;
+	}
+
+	/**
+	 * Returns the channel layout of the first audio stream as printed by
+	 * avprobe, e.g. "stereo", or null if there is none.
+	 */
+	public String getChannelLayout() {
+		return _channelLayout;
+	}
+
+	public List<Stream> getStreams() {
+		return _streams;
+	}
+
+	/**
+	 * Returns the raw avprobe output for this file.
+	 */
+	public String getDetails() {
+		return _details;
+	}
+
+	/**
+	 * Checks whether the file contains a stream of the given type. The type is
+	 * matched ignoring case so "audio" and "Audio" are equivalent.
+	 */
+	public boolean hasStream(String type) {
+		for (Stream s : _streams) {
+			if (s.getType().equalsIgnoreCase(type)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean hasAudio() {
+		return hasStream("Audio");
+	}
+
+	public boolean hasVideo() {
+		return hasStream("Video");
+	}
+
+	/**
+	 * Returns the codec of the first stream of the given type, or null if the
+	 * file has no such stream.
+	 */
+	public String getCodec(String type) {
+		for (Stream s : _streams) {
+			if (s.getType().equalsIgnoreCase(type)) {
+				return s.getCodec();
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,92 @@
+package processes;
+
+/**
+ * Immutable snapshot of how far an avconv encode has got, as parsed from its
+ * status line by {@link ProgressParser}. Tasks publish these to the EDT so the
+ * editors can show a real progress bar with the frame rate and time left.
+ *
+ * @author Harry She
+ *
+ */
+public final class EncodeProgress {
+	private final int _percent;
+	private final long _frame;
+	private final double _fps;
+	private final double _time;
+	private final double _bitrate;
+	private final double _speed;
+	private final double _eta;
+
+	public EncodeProgress(int percent, long frame, double fps, double time, double bitrate, double speed, double eta) {
+		_percent = percent;
+		_frame = frame;
+		_fps = fps;
+		_time = time;
+		_bitrate = bitrate;
+		_speed = speed;
+		_eta = eta;
+	}
+
+	/**
+	 * Returns the percentage complete, or -1 if the duration is unknown.
+	 */
+	public int getPercent() {
+		return _percent;
+	}
+
+	public long getFrame() {
+		return _frame;
+	}
+
+	public double getFps() {
+		return _fps;
+	}
+
+	/**
+	 * Returns how many seconds of output have been encoded.
+	 */
+	public double getTime() {
+		return _time;
+	}
+
+	/**
+	 * Returns the output bitrate in kbits/s.
+	 */
+	public double getBitrate() {
+		return _bitrate;
+	}
+
+	/**
+	 * Returns the encoding speed as a multiple of real time.
+	 */
+	public double getSpeed() {
+		return _speed;
+	}
+
+	/**
+	 * Returns the estimated number of seconds left, or -1 if unknown.
+	 */
+	public double getEta() {
+		return _eta;
+	}
+
+	/**
+	 * Short description for progress bars, e.g. "42% - 87 fps - 3.1x - 0:25 left".
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		if (_percent >= 0) {
+			sb.append(_percent).append("% - ");
+		}
+		if (_fps > 0) {
+			sb.append((int) _fps).append(" fps - ");
+		}
+		sb.append(String.format("%.1fx", _speed));
+		if (_eta >= 0) {
+			int eta = (int) Math.ceil(_eta);
+			sb.append(String.format(" - %d:%02d left", eta / 60, eta % 60));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,267 @@
+package processes;
+
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+
+/**
+ * Central job engine that all of the long running avconv/wget SwingWorker
+ * tasks are submitted to instead of calling execute() on the default
+ * SwingWorker pool.
+ *
+ * CPU bound jobs (encodes, filters, bounce clips) share a fixed number of
+ * slots, defaulting to the number of cores and configurable with the
+ * "vamix.cpuSlots" system property, so several edits can run at once without
+ * oversubscribing the machine. Queued jobs are started in priority order so
+ * that previews jump ahead of exports and batch jobs. Downloads and imports
+ * run on a separate I/O lane so they never hold up or wait for an encode.
+ *
+ * Listeners registered with {@link #addPropertyChangeListener} are told on the
+ * EDT whenever the queue changes, so the GUI can show the queue depth and
+ * wait times.
+ *
+ * @author Harry She
+ *
+ */
+public class JobScheduler {
+
+	/**
+	 * Job priorities, highest first.
+	 */
+	public enum Priority {
+		PREVIEW, EXPORT, BATCH
+	}
+
+	// Singleton - one scheduler for the whole application
+	private static JobScheduler theInstance = null;
+
+	// Number of downloads/imports that may run at the same time
+	private static final int IO_SLOTS = 3;
+
+	private final ThreadPoolExecutor _cpuLane;
+	private final ThreadPoolExecutor _ioLane;
+	private final AtomicLong _sequence = new AtomicLong();
+	private final AtomicInteger _running = new AtomicInteger();
+	private final AtomicLong _started = new AtomicLong();
+	private final AtomicLong _totalWaitMillis = new AtomicLong();
+	private volatile long _lastWaitMillis;
+	private final PropertyChangeSupport _pcs = new PropertyChangeSupport(this);
+
+	/**
+	 * A SwingWorker waiting for a slot, ordered by priority and then by the
+	 * order it was submitted in.
+	 */
+	private class Job implements Runnable, Comparable<Job> {
+		private final SwingWorker<?, ?> _worker;
+		private final Priority _priority;
+		private final long _seq;
+		private final long _submitted;
+
+		Job(SwingWorker<?, ?> worker, Priority priority) {
+			_worker = worker;
+			_priority = priority;
+			_seq = _sequence.getAndIncrement();
+			_submitted = System.currentTimeMillis();
+		}
+
+		@Override
+		public void run() {
+			// Cancelled while still queued, nothing to do
+			if (_worker.isDone()) {
+				fireQueueChanged();
+				return;
+			}
+			long wait = System.currentTimeMillis() - _submitted;
+			_lastWaitMillis = wait;
+			_totalWaitMillis.addAndGet(wait);
+			_started.incrementAndGet();
+			_running.incrementAndGet();
+			fireQueueChanged();
+			try {
+				_worker.run();
+			} finally {
+				_running.decrementAndGet();
+				fireQueueChanged();
+			}
+		}
+
+		@Override
+		public int compareTo(Job other) {
+			int c = _priority.compareTo(other._priority);
+			if (c != 0) {
+				return c;
+			}
+			return _seq < other._seq ? -1 : (_seq == other._seq ? 0 : 1);
+		}
+	}
+
+	private JobScheduler() {
+		int slots = Runtime.getRuntime().availableProcessors();
+		try {
+			slots = Integer.parseInt(System.getProperty("vamix.cpuSlots", Integer.toString(slots)));
+		} catch (NumberFormatException e) {
+			// Keep the core count
+		}
+		_cpuLane = newLane(Math.max(1, slots), "vamix-cpu-");
+		_ioLane = newLane(IO_SLOTS, "vamix-io-");
+	}
+
+	private static ThreadPoolExecutor newLane(int slots, final String name) {
+		ThreadPoolExecutor lane = new ThreadPoolExecutor(slots, slots, 30, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger _count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, name + _count.incrementAndGet());
+						t.setDaemon(true);
+						t.setPriority(Thread.NORM_PRIORITY - 1);
+						return t;
+					}
+				});
+		lane.allowCoreThreadTimeOut(true);
+		return lane;
+	}
+
+	/**
+	 * Grab the singleton instance of this class.
+	 *
+	 * @return
+	 */
+	public static synchronized JobScheduler getInstance() {
+		if (theInstance == null) {
+			theInstance = new JobScheduler();
+		}
+		return theInstance;
+	}
+
+	/**
+	 * Queues a CPU bound task, e.g. an avconv encode.
+	 *
+	 * @param worker
+	 * @param priority
+	 */
+	public void submit(SwingWorker<?, ?> worker, Priority priority) {
+		_cpuLane.execute(new Job(worker, priority));
+		fireQueueChanged();
+	}
+
+	/**
+	 * Queues an I/O bound task such as a download or an import.
+	 *
+	 * @param worker
+	 */
+	public void submitIO(SwingWorker<?, ?> worker) {
+		_ioLane.execute(new Job(worker, Priority.EXPORT));
+		fireQueueChanged();
+	}
+
+	/**
+	 * Cancels a task whether it is still queued or already running. A queued
+	 * task is removed from the queue straight away.
+	 *
+	 * @param worker
+	 */
+	public void cancel(SwingWorker<?, ?> worker) {
+		worker.cancel(true);
+		removeQueued(_cpuLane, worker);
+		removeQueued(_ioLane, worker);
+		fireQueueChanged();
+	}
+
+	private static void removeQueued(ThreadPoolExecutor lane, SwingWorker<?, ?> worker) {
+		for (Runnable r : lane.getQueue()) {
+			if (((Job) r)._worker == worker) {
+				lane.remove(r);
+			}
+		}
+	}
+
+	/**
+	 * Changes the number of CPU slots, e.g. from a preferences dialog.
+	 *
+	 * @param slots
+	 */
+	public void setCpuSlots(int slots) {
+		slots = Math.max(1, slots);
+		if (slots > _cpuLane.getMaximumPoolSize()) {
+			_cpuLane.setMaximumPoolSize(slots);
+			_cpuLane.setCorePoolSize(slots);
+		} else {
+			_cpuLane.setCorePoolSize(slots);
+			_cpuLane.setMaximumPoolSize(slots);
+		}
+		fireQueueChanged();
+	}
+
+	public int getCpuSlots() {
+		return _cpuLane.getCorePoolSize();
+	}
+
+	/**
+	 * Returns the number of tasks that are waiting for a slot.
+	 */
+	public int getQueueDepth() {
+		return _cpuLane.getQueue().size() + _ioLane.getQueue().size();
+	}
+
+	/**
+	 * Returns the number of tasks currently running.
+	 */
+	public int getRunning() {
+		return _running.get();
+	}
+
+	/**
+	 * Returns the average time tasks have waited for a slot, in milliseconds.
+	 */
+	public long getAverageWaitMillis() {
+		long started = _started.get();
+		return started == 0 ? 0 : _totalWaitMillis.get() / started;
+	}
+
+	/**
+	 * Returns how long the most recently started task waited for a slot, in
+	 * milliseconds.
+	 */
+	public long getLastWaitMillis() {
+		return _lastWaitMillis;
+	}
+
+	/**
+	 * Returns a short human readable summary of the queue for the status bar.
+	 */
+	public String getStatus() {
+		return String.format("Jobs: %d running, %d queued (%d CPU slots) - wait avg %.1fs, last %.1fs",
+				getRunning(), getQueueDepth(), getCpuSlots(), getAverageWaitMillis() / 1000.0,
+				getLastWaitMillis() / 1000.0);
+	}
+
+	public void addPropertyChangeListener(PropertyChangeListener listener) {
+		_pcs.addPropertyChangeListener(listener);
+	}
+
+	public void removePropertyChangeListener(PropertyChangeListener listener) {
+		_pcs.removePropertyChangeListener(listener);
+	}
+
+	/**
+	 * Tells listeners on the EDT that the queue has changed.
+	 */
+	private void fireQueueChanged() {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				_pcs.firePropertyChange("queue", null, getStatus());
+			}
+		});
+	}
+}
@@ -0,0 +1,151 @@
+package processes;
+
+/**
+ * Parses the status lines avconv prints while encoding, e.g.
+ * 
+ * <pre>
+ * frame=  250 fps= 87 q=31.0 size=    1024kB time=10.00 bitrate= 838.9kbits/s
+ * </pre>
+ * 
+ * The values are read straight out of the line with indexOf rather than a
+ * regular expression, as avconv prints several of these lines a second.
+ * Percentages and time left are worked out against the duration of the
+ * output, which is usually the probed duration of the input.
+ * 
+ * Snapshots are throttled so a task only publishes a few updates a second no
+ * matter how often avconv prints.
+ * 
+ * @author Harry She
+ *
+ */
+public class ProgressParser {
+	// Minimum time between published snapshots
+	private static final long THROTTLE_NANOS = 250 * 1000 * 1000L;
+
+	private final double _duration;
+	private final long _startNanos;
+	private long _lastPublished;
+
+	private long _frame;
+	private double _fps;
+	private double _time;
+	private double _bitrate;
+
+	/**
+	 * @param duration
+	 *            expected length of the output in seconds, or 0 if unknown
+	 */
+	public ProgressParser(double duration) {
+		_duration = duration;
+		_startNanos = System.nanoTime();
+		_lastPublished = _startNanos - THROTTLE_NANOS;
+	}
+
+	/**
+	 * Reads one line of avconv output.
+	 * 
+	 * @param line
+	 * @return a snapshot to publish, or null if the line held no progress or
+	 *         the last snapshot was published too recently
+	 */
+	public EncodeProgress parse(String line) {
+		int time = line.indexOf("time=");
+		if (time < 0) {
+			return null;
+		}
+		_time = parseTime(line, time + 5);
+		int i = line.indexOf("frame=");
+		if (i >= 0) {
+			_frame = (long) parseNumber(line, i + 6);
+		}
+		i = line.indexOf("fps=");
+		if (i >= 0) {
+			_fps = parseNumber(line, i + 4);
+		}
+		i = line.indexOf("bitrate=");
+		if (i >= 0) {
+			_bitrate = parseNumber(line, i + 8);
+		}
+		long now = System.nanoTime();
+		if (now - _lastPublished < THROTTLE_NANOS) {
+			return null;
+		}
+		_lastPublished = now;
+		return snapshot();
+	}
+
+	/**
+	 * Returns the latest progress regardless of throttling.
+	 */
+	public EncodeProgress snapshot() {
+		double elapsed = (System.nanoTime() - _startNanos) / 1e9;
+		double speed = elapsed > 0 ? _time / elapsed : 0;
+		int percent = -1;
+		double eta = -1;
+		if (_duration > 0) {
+			percent = (int) Math.min(100, Math.max(0, _time * 100 / _duration));
+			if (speed > 0) {
+				eta = Math.max(0, (_duration - _time) / speed);
+			}
+		}
+		return new EncodeProgress(percent, _frame, _fps, _time, _bitrate, speed, eta);
+	}
+
+	/**
+	 * Parses either plain seconds ("10.00") or HH:MM:SS.ss starting at the
+	 * given index.
+	 */
+	private static double parseTime(String line, int start) {
+		double total = 0;
+		int i = skipSpaces(line, start);
+		while (true) {
+			int end = numberEnd(line, i);
+			total += parseDouble(line, i, end);
+			if (end < line.length() && line.charAt(end) == ':') {
+				total *= 60;
+				i = end + 1;
+			} else {
+				return total;
+			}
+		}
+	}
+
+	private static double parseNumber(String line, int start) {
+		int i = skipSpaces(line, start);
+		return parseDouble(line, i, numberEnd(line, i));
+	}
+
+	private static int skipSpaces(String line, int i) {
+		while (i < line.length() && line.charAt(i) == ' ') {
+			i++;
+		}
+		return i;
+	}
+
+	private static int numberEnd(String line, int i) {
+		while (i < line.length() && (Character.isDigit(line.charAt(i)) || line.charAt(i) == '.')) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Parses a decimal number in place without creating a substring.
+	 */
+	private static double parseDouble(String line, int start, int end) {
+		double value = 0;
+		double scale = 0;
+		for (int i = start; i < end; i++) {
+			char c = line.charAt(i);
+			if (c == '.') {
+				scale = 1;
+			} else if (scale == 0) {
+				value = value * 10 + (c - '0');
+			} else {
+				scale /= 10;
+				value += (c - '0') * scale;
+			}
+		}
+		return value;
+	}
+}
@@ -0,0 +1,274 @@
+package processes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A private scratch directory for a single job, so that title, filter and
+ * bounce jobs running at the same time never overwrite each other's temporary
+ * files.
+ *
+ * Workspaces live in a directory for the current session under ~/vamix/temp.
+ * A workspace is reference counted: the job that creates it holds the first
+ * reference and anything that keeps using the files afterwards, such as a
+ * preview or the bounce animation, takes its own with {@link #retain()}. The
+ * directory is deleted when the last reference is released. The session
+ * directory is deleted on exit and holds a lock file while VAMIX is running,
+ * so that {@link #recover()} can clean up after sessions that crashed.
+ *
+ * The total size of the temp directory is capped at 2GB by default, or the
+ * number of megabytes given by the "vamix.tempCapMB" system property. No new
+ * workspaces are handed out while the cap is exceeded. The directory is only
+ * measured when a workspace is created, which happens off the EDT, and the
+ * space freed by released workspaces is taken off that total, so the status
+ * can be shown without walking the directory.
+ *
+ * @author Harry She
+ *
+ */
+public class TempWorkspace {
+	final public static String tempDir = System.getProperty("user.home") + File.separator + "vamix" + File.separator
+			+ "temp";
+
+	private static final long DEFAULT_CAP_MB = 2048;
+	private static final String LOCK_FILE = ".lock";
+	private static final String SESSION_PREFIX = "session-";
+
+	private static File theSessionDir = null;
+	// Held for the lifetime of the session so other instances see it as live
+	private static FileLock theSessionLock = null;
+	private static final AtomicInteger theCount = new AtomicInteger();
+	// Bytes in the temp directory as last measured, less what has been freed
+	private static final AtomicLong theUsedBytes = new AtomicLong();
+
+	private final File _dir;
+	private int _refs = 1;
+
+	private TempWorkspace(File dir) {
+		_dir = dir;
+	}
+
+	/**
+	 * Creates a new empty workspace for a job, holding one reference to it.
+	 *
+	 * @param name
+	 *            short name of the kind of job, used in the directory name
+	 * @return
+	 * @throws IOException
+	 *             if the workspace cannot be created or the temp space cap has
+	 *             been reached
+	 */
+	public static TempWorkspace create(String name) throws IOException {
+		long used = measureUsedBytes();
+		long cap = getCapBytes();
+		if (used >= cap) {
+			throw new IOException(String.format(
+					"Not enough temporary space: %d MB of the %d MB limit is in use. Please wait for other tasks to finish.",
+					used / (1024 * 1024), cap / (1024 * 1024)));
+		}
+		File dir = new File(sessionDir(), name + "-" + theCount.incrementAndGet());
+		if (!dir.mkdirs()) {
+			throw new IOException("Could not create temporary directory " + dir);
+		}
+		return new TempWorkspace(dir);
+	}
+
+	public File getDir() {
+		return _dir;
+	}
+
+	/**
+	 * Returns the path of a file with the given name inside this workspace.
+	 */
+	public String file(String name) {
+		return _dir.getPath() + File.separator + name;
+	}
+
+	/**
+	 * Moves a finished file out of this workspace, replacing the destination if
+	 * it exists. Outputs are only moved into the libraries once complete, so a
+	 * failed or cancelled job never leaves a partial file behind.
+	 *
+	 * @param name
+	 *            name of the file in this workspace
+	 * @param destination
+	 * @throws IOException
+	 */
+	public void moveOut(String name, String destination) throws IOException {
+		Files.move(new File(_dir, name).toPath(), new File(destination).toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Takes another reference to this workspace.
+	 *
+	 * @return this workspace
+	 */
+	public synchronized TempWorkspace retain() {
+		if (_refs == 0) {
+			throw new IllegalStateException("Workspace " + _dir + " has already been deleted");
+		}
+		_refs++;
+		return this;
+	}
+
+	/**
+	 * Gives up a reference to this workspace, deleting it if that was the last
+	 * one.
+	 */
+	public void release() {
+		synchronized (this) {
+			if (_refs == 0 || --_refs > 0) {
+				return;
+			}
+		}
+		theUsedBytes.addAndGet(-delete(_dir));
+	}
+
+	/**
+	 * Deletes everything in the temp directory that does not belong to a
+	 * running session: workspaces of sessions that crashed or were killed and
+	 * loose files left by older versions of VAMIX. To be called on start up.
+	 */
+	public static void recover() {
+		File[] entries = new File(tempDir).listFiles();
+		if (entries == null) {
+			return;
+		}
+		for (File entry : entries) {
+			if (entry.equals(theSessionDir)) {
+				continue;
+			}
+			if (entry.isDirectory() && entry.getName().startsWith(SESSION_PREFIX) && isLive(entry)) {
+				continue;
+			}
+			delete(entry);
+		}
+		measureUsedBytes();
+	}
+
+	/**
+	 * Checks whether another running VAMIX holds the lock of a session
+	 * directory.
+	 */
+	private static boolean isLive(File session) {
+		File lock = new File(session, LOCK_FILE);
+		if (!lock.exists()) {
+			return false;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(lock, "rw")) {
+			FileLock l = raf.getChannel().tryLock();
+			if (l == null) {
+				return true;
+			}
+			l.release();
+			return false;
+		} catch (OverlappingFileLockException e) {
+			return true;
+		} catch (IOException e) {
+			// Cannot tell, so leave it alone
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the directory for this session's workspaces, creating and
+	 * locking it the first time it is needed.
+	 */
+	private static synchronized File sessionDir() throws IOException {
+		if (theSessionDir == null) {
+			final File dir = new File(tempDir, SESSION_PREFIX + Long.toString(System.currentTimeMillis(), 36));
+			if (!dir.mkdirs()) {
+				throw new IOException("Could not create temporary directory " + dir);
+			}
+			@SuppressWarnings("resource")
+			FileChannel channel = new RandomAccessFile(new File(dir, LOCK_FILE), "rw").getChannel();
+			theSessionLock = channel.tryLock();
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					delete(dir);
+				}
+			});
+			theSessionDir = dir;
+		}
+		return theSessionDir;
+	}
+
+	/**
+	 * Returns the number of bytes used by the temp directory as of the last
+	 * time a workspace was created, less what has been released since.
+	 */
+	public static long getUsedBytes() {
+		return Math.max(0, theUsedBytes.get());
+	}
+
+	/**
+	 * Walks the temp directory to find how many bytes it uses, and makes that
+	 * the running total.
+	 */
+	private static long measureUsedBytes() {
+		long used = sizeOf(new File(tempDir));
+		theUsedBytes.set(used);
+		return used;
+	}
+
+	/**
+	 * Returns the maximum number of bytes the temp directory may use.
+	 */
+	public static long getCapBytes() {
+		long cap = DEFAULT_CAP_MB;
+		try {
+			cap = Long.parseLong(System.getProperty("vamix.tempCapMB", Long.toString(DEFAULT_CAP_MB)));
+		} catch (NumberFormatException e) {
+			// Keep the default
+		}
+		return Math.max(1, cap) * 1024 * 1024;
+	}
+
+	/**
+	 * Returns a short human readable summary of the temp space for the status
+	 * bar.
+	 */
+	public static String getStatus() {
+		return String.format("Temp space: %.1f of %d MB", getUsedBytes() / (1024.0 * 1024.0), getCapBytes()
+				/ (1024 * 1024));
+	}
+
+	private static long sizeOf(File file) {
+		File[] files = file.listFiles();
+		if (files == null) {
+			return file.length();
+		}
+		long size = 0;
+		for (File f : files) {
+			size += sizeOf(f);
+		}
+		return size;
+	}
+
+	/**
+	 * Deletes a file or directory tree.
+	 *
+	 * @return the number of bytes freed
+	 */
+	private static long delete(File file) {
+		long freed = 0;
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				freed += delete(f);
+			}
+		} else {
+			freed = file.length();
+		}
+		return file.delete() ? freed : 0;
+	}
+}
@@ -5,7 +5,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 
@@ -13,25 +13,27 @@ import javax.print.attribute.standard.OutputDeviceAssigned;
 import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
 
+import processes.EncodeProgress;
+import processes.ProgressParser;
 import processes.file.FileChecker;
+import processes.file.MediaProbe;
 import ui.filesystem.Library;
 
-import com.sun.xml.internal.bind.v2.schemagen.xmlschema.List;
-
 /**
  * This class represents a done in the background audio task that can either
  * strip, replace or overlay audio onto a selected input video file.
  * 
  * It utilizes an overloaded constructor for different functions and a
- * case/switch conditional block to assign the correct avconv command to the
- * process builder.
+ * {@link StreamPlan} to choose the avconv command, copying the streams that
+ * fit the output container and transcoding only the ones that do not. The plan
+ * is sent to the EDT as a "plan" property change before avconv starts.
  * 
  * Any errors or warnings are relayed back to the EDT to display as a dialog
  * box.
  * 
  * @author Harry She
  */
-public class AudioTask extends SwingWorker<Void, Void> {
+public class AudioTask extends SwingWorker<Void, EncodeProgress> {
 
 	private String _inputFile;
 	private String _outputFile;
@@ -40,6 +42,8 @@ public class AudioTask extends SwingWorker<Void, Void> {
 	private String _replaceOrMergeFile;
 	private String _noAudioWarning = "Error current input file contains no audio streams!";
 	private FileChecker fc;
+	private StreamPlan _plan;
+	private volatile String _failure;
 
 	// Replace and Overlay constructor
 	public AudioTask(String inputFile, String outputFile, String replaceFile, String cmd) {
@@ -56,6 +60,31 @@ public class AudioTask extends SwingWorker<Void, Void> {
 		_cmd = cmd;
 	}
 
+	/**
+	 * Uses a plan made earlier, e.g. to show it to the user first, instead of
+	 * planning the task when it starts.
+	 */
+	public void setPlan(StreamPlan plan) {
+		_plan = plan;
+	}
+
+	/**
+	 * Returns the file the output is written to, which the plan may have
+	 * given a different extension.
+	 */
+	public String getOutputFile() {
+		return _plan != null ? _plan.getOutputFile() : _outputFile;
+	}
+
+	/**
+	 * Returns why the task failed, or null if it has not. Unlike the
+	 * "failure" property change this can be read from any thread as soon as
+	 * the task is done.
+	 */
+	public String getFailure() {
+		return _failure;
+	}
+
 	/**
 	 * Calls avconv command to perform a specific audio task.
 	 * 
@@ -66,39 +95,28 @@ public class AudioTask extends SwingWorker<Void, Void> {
 	 */
 	@Override
 	protected Void doInBackground() throws Exception {
-		ProcessBuilder builder = null;
 		errorState = false;
 		switch (_cmd) {
 		case "STRIP-audio":
-			builder = new ProcessBuilder("/bin/bash", "-c", "avconv -i " + _inputFile + " -vn " + _outputFile);
-			fc = new FileChecker(_inputFile);
-			if (!fc.checkAVFile("Audio")) {
-				firePropertyChange("failure", null, _noAudioWarning);
-				errorState = true;
-				return null;
-			}
-			break;
 		case "STRIP-video":
-			builder = new ProcessBuilder("/bin/bash", "-c", "avconv -i " + _inputFile + " -c copy -map 0:v "
-					+ _outputFile);
 			fc = new FileChecker(_inputFile);
 			if (!fc.checkAVFile("Audio")) {
-				firePropertyChange("failure", null, _noAudioWarning);
-				errorState = true;
+				fail(_noAudioWarning);
 				return null;
 			}
 			break;
-		case "MERGE":
-			builder = new ProcessBuilder("/bin/bash", "-c", "avconv -i " + _inputFile + " -i " + _replaceOrMergeFile
-					+ " -filter_complex amix=duration=longest -vcodec copy -shortest -y -strict experimental "
-					+ _outputFile);
-			break;
-		case "REPLACE":
-			String outNoExtensions = _outputFile.substring(0, _outputFile.lastIndexOf('.'));
-			builder = new ProcessBuilder("/bin/bash", "-c", "avconv -i " + _inputFile + " -i " + _replaceOrMergeFile
-					+ " -c copy -map 0:v -map 1:a " + outNoExtensions + ".mp4");
-			break;
 		}
+		if (_plan == null) {
+			_plan = StreamPlan.plan(_cmd, _inputFile, _replaceOrMergeFile, _outputFile);
+		}
+		_outputFile = _plan.getOutputFile();
+		firePropertyChange("plan", null, _plan);
+		String inputs = "-i \"" + _inputFile + "\"";
+		if (_replaceOrMergeFile != null) {
+			inputs += " -i \"" + _replaceOrMergeFile + "\"";
+		}
+		ProcessBuilder builder = new ProcessBuilder("/bin/bash", "-c", "avconv -y " + inputs + " "
+				+ _plan.getOptions() + " \"" + _outputFile + "\"");
 		startProcess(builder);
 		return null;
 	}
@@ -117,7 +135,7 @@ public class AudioTask extends SwingWorker<Void, Void> {
 			}
 		} catch (CancellationException e) {
 			firePropertyChange("cancelled", null, "The audio task was stopped!");
-			File toDelete = new File(_outputFile);
+			File toDelete = new File(getOutputFile());
 			toDelete.delete();
 			Library.getInstance().refreshTree();
 			return;
@@ -130,9 +148,11 @@ public class AudioTask extends SwingWorker<Void, Void> {
 
 	/**
 	 * Start the process required and also keep track of the output in case
-	 * errors occur in which case these can be reflected back to the user.
+	 * errors occur in which case these can be reflected back to the user. The
+	 * avconv status lines are parsed as they arrive and published as progress.
 	 */
 	private void startProcess(ProcessBuilder builder) {
+		ProgressParser parser = new ProgressParser(MediaProbe.getInstance().probe(_inputFile).getDuration());
 		Process process = null;
 		builder.redirectErrorStream(true);
 		try {
@@ -148,6 +168,10 @@ public class AudioTask extends SwingWorker<Void, Void> {
 		try {
 			while ((line = stdoutBuffered.readLine()) != null) {
 				last = line;
+				EncodeProgress progress = parser.parse(line);
+				if (progress != null) {
+					publish(progress);
+				}
 				if (isCancelled()) {
 					process.destroy();
 					return;
@@ -158,11 +182,28 @@ public class AudioTask extends SwingWorker<Void, Void> {
 		}
 		try {
 			if (process.waitFor() != 0) {
-				firePropertyChange("failure", null, last);
-				errorState = true;
+				fail(last);
 			}
 		} catch (InterruptedException e1) {
 			e1.printStackTrace();
 		}
 	}
+
+	private void fail(String message) {
+		_failure = message;
+		errorState = true;
+		firePropertyChange("failure", null, message);
+	}
+
+	/**
+	 * Pass the latest encoding progress on to the EDT.
+	 */
+	@Override
+	protected void process(List<EncodeProgress> chunks) {
+		EncodeProgress latest = chunks.get(chunks.size() - 1);
+		if (latest.getPercent() >= 0) {
+			setProgress(latest.getPercent());
+		}
+		firePropertyChange("encodeProgress", null, latest);
+	}
 }
@@ -0,0 +1,407 @@
+package processes.audio;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import javax.swing.SwingWorker;
+
+import processes.JobScheduler;
+import ui.filesystem.Library;
+
+/**
+ * Applies one {@link AudioTask} operation to many files in one job, writing
+ * each output to the output library under a name made from a template.
+ *
+ * Every file is planned first by a batch job on the {@link JobScheduler}, as
+ * planning may have to probe the file. Each file then gets its own AudioTask,
+ * also submitted as a batch job, so they run on as many cores as the scheduler
+ * has slots while previews and single exports still go first. This task only
+ * waits for them, so it is meant to run on a thread of its own rather than
+ * take a slot. Cancelling it, while planning or after, cancels every file that
+ * has not finished.
+ *
+ * Progress is published to listeners as "batchProgress" property changes
+ * whose new value is a {@link Progress}. When the task finishes "success" is
+ * fired with a summary that lists the files that failed or were skipped,
+ * instead of an error for each of them, or "failure" if the batch could not
+ * run at all.
+ *
+ * @author Harry She
+ *
+ */
+public class BatchAudioTask extends SwingWorker<Void, BatchAudioTask.Progress> {
+	// Least time between progress updates
+	private static final long PROGRESS_MILLIS = 250;
+
+	/**
+	 * Snapshot of how far a batch has got.
+	 */
+	public static final class Progress {
+		private final int _files;
+		private final int _planned;
+		private final int _done;
+		private final int _failed;
+		private final int _permille;
+
+		Progress(int files, int planned, int done, int failed, int permille) {
+			_files = files;
+			_planned = planned;
+			_done = done;
+			_failed = failed;
+			_permille = permille;
+		}
+
+		/**
+		 * Returns the number of files in the batch.
+		 */
+		public int getFiles() {
+			return _files;
+		}
+
+		/**
+		 * Returns the number of files planned so far. No file is started until
+		 * all of them have been planned.
+		 */
+		public int getPlanned() {
+			return _planned;
+		}
+
+		/**
+		 * Returns the number of files finished, failed or skipped so far.
+		 */
+		public int getDone() {
+			return _done;
+		}
+
+		public int getFailed() {
+			return _failed;
+		}
+
+		/**
+		 * Returns how far the whole batch has got out of 1000.
+		 */
+		public int getPermille() {
+			return _permille;
+		}
+
+		/**
+		 * Short description for progress dialogs, e.g.
+		 * "12 of 200 files - 2 failed - 8%", or "Planned 40 of 200 files".
+		 */
+		@Override
+		public String toString() {
+			if (_planned < _files) {
+				return String.format("Planned %d of %d files", _planned, _files);
+			}
+			return String.format("%d of %d files%s - %d%%", _done, _files, _failed > 0 ? " - " + _failed
+					+ " failed" : "", _permille / 10);
+		}
+	}
+
+	private final List<String> _inputs;
+	private final String _cmd;
+	private final String _otherFile;
+	private final String _template;
+	private final boolean _overwrite;
+
+	/**
+	 * Plans one file of the batch.
+	 */
+	private class PlanJob extends SwingWorker<StreamPlan, Void> {
+		private final String _input;
+		private final String _output;
+
+		PlanJob(String input, String output) {
+			_input = input;
+			_output = output;
+		}
+
+		@Override
+		protected StreamPlan doInBackground() {
+			return StreamPlan.plan(_cmd, _input, _otherFile, _output);
+		}
+	}
+
+	private final List<AudioTask> _tasks = new ArrayList<AudioTask>();
+	private AtomicIntegerArray _percents;
+	private final List<String> _written = new ArrayList<String>();
+	private final List<String> _failed = new ArrayList<String>();
+	private final List<String> _skipped = new ArrayList<String>();
+
+	/**
+	 * @param inputs
+	 *            the files to apply the operation to
+	 * @param cmd
+	 *            the {@link AudioTask} command, e.g. "STRIP-audio"
+	 * @param otherFile
+	 *            the audio to replace or merge with, or null for a strip
+	 * @param template
+	 *            the output name, see {@link #outputName}
+	 * @param overwrite
+	 *            whether outputs that already exist are overwritten or the
+	 *            files skipped
+	 * @throws IllegalArgumentException
+	 *             if the template would give every file the same name
+	 */
+	public BatchAudioTask(List<String> inputs, String cmd, String otherFile, String template, boolean overwrite) {
+		if (inputs.size() > 1 && !template.contains("{name}") && !template.contains("{n}")) {
+			throw new IllegalArgumentException("The name template must contain {name} or {n}");
+		}
+		if (template.contains(File.separator)) {
+			throw new IllegalArgumentException("The name template must not contain " + File.separator);
+		}
+		_inputs = new ArrayList<String>(inputs);
+		_cmd = cmd;
+		_otherFile = otherFile;
+		_template = template;
+		_overwrite = overwrite;
+	}
+
+	/**
+	 * Returns the name template that gives the same names as the audio
+	 * editor does for a single file.
+	 */
+	public static String defaultTemplate(String cmd) {
+		switch (cmd) {
+		case "STRIP-audio":
+			return "{name}[STRIPPED-VAMIX].mp3";
+		case "STRIP-video":
+			return "{name}[STRIPPED-VAMIX].{ext}";
+		case "MERGE":
+			return "{name}[MERGED_AUDIO-VAMIX].{ext}";
+		default:
+			return "{name}[REPLACED_AUDIO-VAMIX].{ext}";
+		}
+	}
+
+	/**
+	 * Makes the output name of a file from a template, in which {name} is
+	 * the name of the input without its extension, {ext} its extension and
+	 * {n} its number in the batch counting from 1.
+	 */
+	public static String outputName(String template, String inputFile, int n) {
+		String basename = new File(inputFile).getName();
+		int dot = basename.lastIndexOf('.');
+		String name = dot > 0 ? basename.substring(0, dot) : basename;
+		String ext = dot > 0 ? basename.substring(dot + 1) : "";
+		return template.replace("{name}", name).replace("{ext}", ext).replace("{n}", Integer.toString(n));
+	}
+
+	@Override
+	protected Void doInBackground() throws Exception {
+		List<StreamPlan> plans = planAll();
+		_percents = new AtomicIntegerArray(_inputs.size());
+		Set<String> outputs = new HashSet<String>();
+		List<Integer> indexes = new ArrayList<Integer>();
+		for (int i = 0; i < _inputs.size(); i++) {
+			String input = _inputs.get(i);
+			StreamPlan plan = plans.get(i);
+			if (plan == null) {
+				// Planning failed and said why
+				_percents.set(i, 100);
+				continue;
+			}
+			String output = plan.getOutputFile();
+			if (!outputs.add(output)) {
+				_failed.add(new File(input).getName() + ": has the same output name as another file");
+				_percents.set(i, 100);
+			} else if (new File(output).exists() && !_overwrite) {
+				_skipped.add(new File(output).getName());
+				_percents.set(i, 100);
+			} else {
+				AudioTask task = _otherFile == null ? new AudioTask(input, output, _cmd) : new AudioTask(input,
+						output, _otherFile, _cmd);
+				task.setPlan(plan);
+				_tasks.add(task);
+				indexes.add(i);
+			}
+		}
+
+		for (int t = 0; t < _tasks.size(); t++) {
+			final int index = indexes.get(t);
+			AudioTask task = _tasks.get(t);
+			task.addPropertyChangeListener(new PropertyChangeListener() {
+				@Override
+				public void propertyChange(PropertyChangeEvent evt) {
+					// Arrives late on the EDT, never undo a file being finished
+					if (!"progress".equals(evt.getPropertyName())) {
+						return;
+					}
+					int percent = (Integer) evt.getNewValue();
+					while (true) {
+						int current = _percents.get(index);
+						if (current == 100 || _percents.compareAndSet(index, current, percent)) {
+							break;
+						}
+					}
+				}
+			});
+			JobScheduler.getInstance().submit(task, JobScheduler.Priority.BATCH);
+		}
+		try {
+			waitFor(indexes);
+		} catch (InterruptedException e) {
+			// Cancelled, stop every file that is still queued or running
+			for (AudioTask task : _tasks) {
+				JobScheduler.getInstance().cancel(task);
+			}
+			throw e;
+		}
+		publish(progress());
+		return null;
+	}
+
+	/**
+	 * Plans every file as batch jobs on the {@link JobScheduler}, publishing
+	 * the progress as each is planned. A file that cannot be planned, e.g. as
+	 * it has no audio to strip, is counted as failed and has no plan.
+	 */
+	private List<StreamPlan> planAll() throws InterruptedException {
+		List<PlanJob> jobs = new ArrayList<PlanJob>();
+		for (int i = 0; i < _inputs.size(); i++) {
+			String input = _inputs.get(i);
+			PlanJob job = new PlanJob(input, Library.outputDir + File.separator + outputName(_template, input, i + 1));
+			jobs.add(job);
+			JobScheduler.getInstance().submit(job, JobScheduler.Priority.BATCH);
+		}
+		try {
+			while (true) {
+				int planned = 0;
+				for (PlanJob job : jobs) {
+					if (job.isDone()) {
+						planned++;
+					}
+				}
+				publish(new Progress(_inputs.size(), planned, 0, 0, 0));
+				if (planned == jobs.size()) {
+					break;
+				}
+				Thread.sleep(PROGRESS_MILLIS);
+			}
+		} catch (InterruptedException e) {
+			// Cancelled, stop planning the files that are left
+			for (PlanJob job : jobs) {
+				JobScheduler.getInstance().cancel(job);
+			}
+			throw e;
+		}
+		List<StreamPlan> plans = new ArrayList<StreamPlan>();
+		for (int i = 0; i < jobs.size(); i++) {
+			try {
+				plans.add(jobs.get(i).get());
+			} catch (ExecutionException | CancellationException e) {
+				_failed.add(new File(_inputs.get(i)).getName() + ": could not be read");
+				plans.add(null);
+			}
+		}
+		return plans;
+	}
+
+	/**
+	 * Waits for every file's task to finish, recording how each one ended and
+	 * publishing the progress as it goes. The tasks are polled rather than
+	 * followed through their property changes so that one that ends without
+	 * saying how can never hold up the batch.
+	 */
+	private void waitFor(List<Integer> indexes) throws InterruptedException {
+		boolean[] finished = new boolean[_tasks.size()];
+		int remaining = _tasks.size();
+		while (remaining > 0) {
+			for (int t = 0; t < _tasks.size(); t++) {
+				AudioTask task = _tasks.get(t);
+				if (finished[t] || !task.isDone()) {
+					continue;
+				}
+				finished[t] = true;
+				remaining--;
+				int index = indexes.get(t);
+				_percents.set(index, 100);
+				String name = new File(_inputs.get(index)).getName();
+				try {
+					task.get();
+					if (task.getFailure() != null) {
+						_failed.add(name + ": " + task.getFailure());
+					} else {
+						_written.add(new File(task.getOutputFile()).getName());
+					}
+				} catch (ExecutionException e) {
+					_failed.add(name + ": " + e.getCause());
+				} catch (CancellationException e) {
+					_failed.add(name + ": was stopped");
+				}
+			}
+			publish(progress());
+			if (remaining > 0) {
+				Thread.sleep(PROGRESS_MILLIS);
+			}
+		}
+	}
+
+	private Progress progress() {
+		int files = _inputs.size();
+		int done = 0;
+		int total = 0;
+		for (int i = 0; i < files; i++) {
+			int percent = _percents.get(i);
+			total += percent;
+			if (percent == 100) {
+				done++;
+			}
+		}
+		return new Progress(files, files, done, _failed.size(), files == 0 ? 1000 : total * 10 / files);
+	}
+
+	/**
+	 * Pass the latest progress on to the listeners.
+	 */
+	@Override
+	protected void process(List<Progress> chunks) {
+		firePropertyChange("batchProgress", null, chunks.get(chunks.size() - 1));
+	}
+
+	/**
+	 * Send the summary, or why the batch could not run, to the EDT.
+	 */
+	@Override
+	protected void done() {
+		Library.getInstance().refreshTree();
+		if (isCancelled()) {
+			firePropertyChange("cancelled", null, "The batch was stopped!");
+			return;
+		}
+		try {
+			get();
+		} catch (InterruptedException | ExecutionException e) {
+			firePropertyChange("failure", null, e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+			return;
+		}
+		String nl = System.getProperty("line.separator");
+		StringBuilder summary = new StringBuilder();
+		summary.append(String.format("Wrote %d of %d files to the output library.", _written.size(),
+				_inputs.size()));
+		appendList(summary, "Skipped as the output already exists:", _skipped, nl);
+		appendList(summary, "Failed:", _failed, nl);
+		firePropertyChange("success", null, summary.toString());
+	}
+
+	private static void appendList(StringBuilder sb, String title, List<String> items, String nl) {
+		if (items.isEmpty()) {
+			return;
+		}
+		sb.append(nl).append(nl).append(title);
+		for (int i = 0; i < items.size() && i < 10; i++) {
+			sb.append(nl).append(items.get(i));
+		}
+		if (items.size() > 10) {
+			sb.append(nl).append("and ").append(items.size() - 10).append(" more");
+		}
+	}
+}
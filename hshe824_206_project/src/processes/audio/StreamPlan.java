@@ -0,0 +1,308 @@
+package processes.audio;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import model.MediaInfo;
+import processes.file.MediaProbe;
+
+/**
+ * Plans how an {@link AudioTask} builds its output. Every stream that goes
+ * into the output is checked against what the output container can hold, and
+ * is copied as it is if it fits, so only the streams that have to be are
+ * transcoded. Copying streams runs at about the speed of the disk, while
+ * transcoding runs at the speed of the encoder.
+ *
+ * Audio that is stripped from a video is written to a container that fits
+ * its codec, e.g. AAC audio to .m4a rather than .mp3, so that it never has to
+ * be transcoded. Mixing audio layers always transcodes the audio, but the
+ * video is still copied.
+ *
+ * The plan describes what it is going to do and how long that should take, so
+ * it can be shown to the user before and while it runs.
+ *
+ * @author Harry She
+ *
+ */
+public final class StreamPlan {
+	// Rough throughputs used for the estimates
+	private static final double COPY_BYTES_PER_SECOND = 80 * 1024 * 1024;
+	private static final double AUDIO_ENCODE_SPEED = 40;
+	private static final double VIDEO_ENCODE_SPEED = 1.5;
+
+	// Codecs each container can hold, containers without an entry take any
+	private static final Map<String, Set<String>> AUDIO_FITS = new HashMap<String, Set<String>>();
+	private static final Map<String, Set<String>> VIDEO_FITS = new HashMap<String, Set<String>>();
+	// Encoder used when a stream has to be transcoded for a container
+	private static final Map<String, String> AUDIO_ENCODERS = new HashMap<String, String>();
+	private static final Map<String, String> VIDEO_ENCODERS = new HashMap<String, String>();
+	// Container that audio of a codec is stripped into
+	private static final Map<String, String> AUDIO_CONTAINERS = new HashMap<String, String>();
+
+	static {
+		allow(AUDIO_FITS, "mp3", "mp3");
+		allow(AUDIO_FITS, "m4a aac", "aac", "alac");
+		allow(AUDIO_FITS, "mp4 m4v m4p mov qt 3gp", "aac", "mp3", "alac");
+		allow(AUDIO_FITS, "avi", "mp3", "mp2", "ac3", "pcm_s16le", "pcm_u8");
+		allow(AUDIO_FITS, "flv", "mp3", "aac");
+		allow(AUDIO_FITS, "ogg ogv", "vorbis", "opus", "flac");
+		allow(AUDIO_FITS, "webm", "vorbis", "opus");
+		allow(AUDIO_FITS, "wav", "pcm_s16le", "pcm_s24le", "pcm_s32le", "pcm_u8", "pcm_f32le");
+		allow(AUDIO_FITS, "mpg mpeg mp2", "mp2", "mp3", "ac3");
+		allow(AUDIO_FITS, "wmv wma", "wmav1", "wmav2");
+
+		allow(VIDEO_FITS, "mp4 m4v m4p 3gp", "h264", "hevc", "mpeg4", "h263");
+		allow(VIDEO_FITS, "mov qt", "h264", "hevc", "mpeg4", "mjpeg", "prores");
+		allow(VIDEO_FITS, "avi", "mpeg4", "msmpeg4v2", "msmpeg4v3", "h264", "mjpeg", "mpeg2video");
+		allow(VIDEO_FITS, "flv", "flv1", "h264", "vp6f");
+		allow(VIDEO_FITS, "webm", "vp8", "vp9");
+		allow(VIDEO_FITS, "ogg ogv", "theora");
+		allow(VIDEO_FITS, "mpg mpeg", "mpeg1video", "mpeg2video");
+		allow(VIDEO_FITS, "wmv", "wmv1", "wmv2", "wmv3");
+
+		encoder(AUDIO_ENCODERS, "mp3 avi flv mpg mpeg", "libmp3lame");
+		encoder(AUDIO_ENCODERS, "m4a aac mp4 m4v m4p mov qt 3gp", "aac -strict experimental");
+		encoder(AUDIO_ENCODERS, "ogg ogv webm mkv", "libvorbis");
+		encoder(AUDIO_ENCODERS, "wav", "pcm_s16le");
+		encoder(AUDIO_ENCODERS, "mp2", "mp2");
+		encoder(AUDIO_ENCODERS, "wmv wma", "wmav2");
+
+		encoder(VIDEO_ENCODERS, "mp4 m4v m4p mov qt 3gp avi flv mkv", "libx264");
+		encoder(VIDEO_ENCODERS, "webm", "libvpx");
+		encoder(VIDEO_ENCODERS, "ogg ogv", "libtheora");
+		encoder(VIDEO_ENCODERS, "mpg mpeg", "mpeg2video");
+		encoder(VIDEO_ENCODERS, "wmv", "wmv2");
+
+		encoder(AUDIO_CONTAINERS, "mp3", "mp3");
+		encoder(AUDIO_CONTAINERS, "aac alac", "m4a");
+		encoder(AUDIO_CONTAINERS, "vorbis opus", "ogg");
+		encoder(AUDIO_CONTAINERS, "mp2", "mp2");
+		encoder(AUDIO_CONTAINERS, "wmav1 wmav2", "wma");
+		encoder(AUDIO_CONTAINERS, "pcm_s16le pcm_s24le pcm_s32le pcm_u8 pcm_f32le", "wav");
+		encoder(AUDIO_CONTAINERS, "flac ac3 dts", "mkv");
+	}
+
+	private final String _outputFile;
+	private final String _options;
+	private final String _strategy;
+	private final double _seconds;
+
+	private StreamPlan(String outputFile, String options, String strategy, double seconds) {
+		_outputFile = outputFile;
+		_options = options;
+		_strategy = strategy;
+		_seconds = seconds;
+	}
+
+	/**
+	 * Plans an audio task.
+	 *
+	 * @param cmd
+	 *            the {@link AudioTask} command, e.g. "STRIP-audio"
+	 * @param inputFile
+	 * @param otherFile
+	 *            the audio to replace or merge with, or null for a strip
+	 * @param outputFile
+	 *            the output asked for, stripped audio may be written to a
+	 *            different extension
+	 * @return
+	 */
+	public static StreamPlan plan(String cmd, String inputFile, String otherFile, String outputFile) {
+		MediaProbe probe = MediaProbe.getInstance();
+		MediaInfo input = probe.probe(inputFile);
+		MediaInfo other = otherFile == null ? null : probe.probe(otherFile);
+		String audio = input.getCodec("Audio");
+		String video = input.getCodec("Video");
+		String ext = extension(outputFile);
+		double duration = input.getDuration();
+
+		switch (cmd) {
+		case "STRIP-audio": {
+			if (!fits(AUDIO_FITS, ext, audio) && AUDIO_CONTAINERS.containsKey(audio)) {
+				// Move to a container the audio fits rather than transcode it
+				ext = AUDIO_CONTAINERS.get(audio);
+				outputFile = outputFile.substring(0, outputFile.lastIndexOf('.') + 1) + ext;
+			}
+			Builder b = new Builder(ext, duration);
+			b.options.append("-map 0:a");
+			b.audio(audio, input.getSize(), 1);
+			return b.build(outputFile);
+		}
+		case "STRIP-video": {
+			Builder b = new Builder(ext, duration);
+			b.options.append("-map 0:v");
+			b.video(video, input.getSize());
+			return b.build(outputFile);
+		}
+		case "REPLACE": {
+			Builder b = new Builder(ext, duration);
+			b.options.append("-map 0:v -map 1:a");
+			b.video(video, input.getSize());
+			b.audio(other.getCodec("Audio"), other.getSize(), other.getDuration() / Math.max(duration, 1e-3));
+			return b.build(outputFile);
+		}
+		case "MERGE": {
+			Builder b = new Builder(ext, duration);
+			if (!other.hasAudio() || audio == null) {
+				// Only one of them has audio so there is nothing to mix
+				MediaInfo source = audio == null ? other : input;
+				// An audio only input has no video to map
+				if (video != null) {
+					b.options.append("-map 0:v ");
+				}
+				b.options.append("-map " + (audio == null ? "1:a" : "0:a") + " -shortest");
+				b.video(video, input.getSize());
+				b.audio(source.getCodec("Audio"), source.getSize(), 1);
+			} else {
+				b.options.append("-filter_complex amix=duration=longest -shortest");
+				b.video(video, input.getSize());
+				b.mix(audio, other.getCodec("Audio"));
+			}
+			return b.build(outputFile);
+		}
+		default:
+			throw new IllegalArgumentException("Unknown audio task: " + cmd);
+		}
+	}
+
+	/**
+	 * Returns the file the output is written to.
+	 */
+	public String getOutputFile() {
+		return _outputFile;
+	}
+
+	/**
+	 * Returns the avconv options that go between the inputs and the output.
+	 */
+	public String getOptions() {
+		return _options;
+	}
+
+	/**
+	 * Returns what is done to each stream, e.g.
+	 * "copy h264 video, transcode vorbis audio to aac into .mp4".
+	 */
+	public String getStrategy() {
+		return _strategy;
+	}
+
+	/**
+	 * Returns roughly how many seconds the task should take.
+	 */
+	public double getEstimatedSeconds() {
+		return _seconds;
+	}
+
+	/**
+	 * Short description for progress bars and dialogs, e.g.
+	 * "copy aac audio into .m4a - about 2s".
+	 */
+	@Override
+	public String toString() {
+		long seconds = Math.max(1, Math.round(_seconds));
+		String time = seconds < 60 ? seconds + "s" : String.format("%d:%02d", seconds / 60, seconds % 60);
+		return _strategy + " - about " + time;
+	}
+
+	/**
+	 * Collects the options, strategy and cost stream by stream.
+	 */
+	private static final class Builder {
+		private final String _ext;
+		private final double _duration;
+		private final StringBuilder options = new StringBuilder();
+		private final StringBuilder _strategy = new StringBuilder();
+		private double _seconds;
+
+		private Builder(String ext, double duration) {
+			_ext = ext;
+			_duration = duration;
+		}
+
+		private void video(String codec, long size) {
+			if (codec == null) {
+				return;
+			}
+			if (fits(VIDEO_FITS, _ext, codec) || !VIDEO_ENCODERS.containsKey(_ext)) {
+				options.append(" -c:v copy");
+				describe("copy " + codec + " video");
+				_seconds += size / COPY_BYTES_PER_SECOND;
+			} else {
+				options.append(" -c:v " + VIDEO_ENCODERS.get(_ext));
+				describe("transcode " + codec + " video to " + VIDEO_ENCODERS.get(_ext));
+				_seconds += _duration / VIDEO_ENCODE_SPEED;
+			}
+		}
+
+		/**
+		 * @param share
+		 *            how much of the file has to be read for the audio, as a
+		 *            fraction of the output duration
+		 */
+		private void audio(String codec, long size, double share) {
+			if (codec == null) {
+				return;
+			}
+			if (fits(AUDIO_FITS, _ext, codec) || !AUDIO_ENCODERS.containsKey(_ext)) {
+				options.append(" -c:a copy");
+				describe("copy " + codec + " audio");
+				// Even an audio only copy has to read through the whole file
+				_seconds += size / COPY_BYTES_PER_SECOND;
+			} else {
+				String encoder = AUDIO_ENCODERS.get(_ext);
+				options.append(" -c:a " + encoder);
+				describe("transcode " + codec + " audio to " + encoder.split(" ")[0]);
+				_seconds += size / COPY_BYTES_PER_SECOND + _duration * share / AUDIO_ENCODE_SPEED;
+			}
+		}
+
+		private void mix(String first, String second) {
+			String encoder = AUDIO_ENCODERS.containsKey(_ext) ? AUDIO_ENCODERS.get(_ext) : "libvorbis";
+			options.append(" -c:a " + encoder);
+			describe("mix " + first + " and " + second + " audio as " + encoder.split(" ")[0]);
+			_seconds += _duration / AUDIO_ENCODE_SPEED;
+		}
+
+		private void describe(String step) {
+			if (_strategy.length() > 0) {
+				_strategy.append(", ");
+			}
+			_strategy.append(step);
+		}
+
+		private StreamPlan build(String outputFile) {
+			if (_strategy.length() == 0) {
+				describe("nothing to copy");
+			}
+			_strategy.append(" into .").append(_ext);
+			return new StreamPlan(outputFile, options.toString().trim(), _strategy.toString(), _seconds);
+		}
+	}
+
+	private static String extension(String file) {
+		String name = new File(file).getName();
+		return name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+	}
+
+	private static boolean fits(Map<String, Set<String>> table, String ext, String codec) {
+		Set<String> codecs = table.get(ext);
+		return codecs == null || codecs.contains(codec);
+	}
+
+	private static void allow(Map<String, Set<String>> table, String exts, String... codecs) {
+		for (String ext : exts.split(" ")) {
+			table.put(ext, new HashSet<String>(Arrays.asList(codecs)));
+		}
+	}
+
+	private static void encoder(Map<String, String> table, String keys, String value) {
+		for (String key : keys.split(" ")) {
+			table.put(key, value);
+		}
+	}
+}
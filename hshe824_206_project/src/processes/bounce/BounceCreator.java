@@ -1,12 +1,15 @@
 package processes.bounce;
 
-import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 
 import javax.swing.SwingWorker;
 
-import processes.video.VideoTask;
+import processes.JobScheduler;
+import processes.TempWorkspace;
 import bounce.AnimationViewer;
 
 /**
@@ -15,17 +18,54 @@ import bounce.AnimationViewer;
  * different scenes from the video file that are randomly generated from
  * different times.
  * 
+ * Each clip is extracted by a task of its own submitted to the
+ * {@link JobScheduler} as a batch job, so the clips run at once on whatever CPU
+ * slots are free. This task works through the clips that are still waiting for
+ * a slot itself, so a bounce never waits on its own clips when every slot is
+ * busy. The number of each GIF is published as a "clip" property change as soon
+ * as it is ready, so the animation can start with the first clip rather than
+ * waiting for all of them.
+ * 
+ * The GIFs are written to a workspace of their own, which whoever displays
+ * them must retain as it is deleted when this task finishes. When the task is
+ * cancelled every avconv process is stopped before the workspace goes.
  * 
  * @author Harry She
  *
  */
-public class BounceCreator extends SwingWorker<Void, Void> {
+public class BounceCreator extends SwingWorker<Void, Integer> {
 
 	private String _inputFile;
 	private boolean errorState;
 	private int _numShapes;
 	protected AnimationViewer animationViewer;
 	private int _duration;
+	private volatile TempWorkspace _workspace = null;
+	private final List<Process> _processes = new ArrayList<Process>();
+	// Set once the processes have been stopped, no more may be started
+	private boolean _stopped = false;
+
+	/**
+	 * Extracts one clip, see {@link BounceCreator#extractClip}.
+	 */
+	private class ClipExtractor extends SwingWorker<Integer, Void> {
+		private final int _clip;
+		private final int _startTime;
+
+		ClipExtractor(int clip, int startTime) {
+			_clip = clip;
+			_startTime = startTime;
+		}
+
+		@Override
+		protected Integer doInBackground() throws Exception {
+			int clip = extractClip(_clip, _startTime);
+			if (clip > 0 && !BounceCreator.this.isCancelled()) {
+				BounceCreator.this.publish(clip);
+			}
+			return clip;
+		}
+	}
 
 	public BounceCreator(String inputFile, int numShapes, int duration) {
 		_inputFile = inputFile;
@@ -43,27 +83,126 @@ public class BounceCreator extends SwingWorker<Void, Void> {
 	 */
 	@Override
 	protected Void doInBackground() throws Exception {
-
-		ProcessBuilder builder = null;
-		Process process = null;
 		if (_numShapes == 42) {
 			return null;
 		} else if (_numShapes > 20) {
 			firePropertyChange("failure", null, "failure");
 			errorState = true;
 			return null;
-		} else {
+		}
+		try {
+			// One reference for done() and one kept until the avconv processes
+			// are gone, as a cancel calls done() straight away
+			_workspace = TempWorkspace.create("bounce").retain();
+		} catch (IOException e) {
+			firePropertyChange("failure", null, e.getMessage());
+			errorState = true;
+			return null;
+		}
+
+		List<ClipExtractor> extractors = new ArrayList<ClipExtractor>();
+		try {
 			for (int i = 1; i <= _numShapes; i++) {
-				int _startTimeRnd = (int) (Math.random() * ((_duration) + 1));
-				builder = new ProcessBuilder("/bin/bash", "-c", "avconv -ss " + _startTimeRnd + " -i " + _inputFile
-						+ " -vf scale=320:-1,format=rgb8,format=rgb24 -t 10 -r 10 -y " + VideoTask.tempDir
-						+ File.separator + i + ".gif");
-				process = builder.start();
-				process.waitFor();
+				int startTimeRnd = (int) (Math.random() * ((_duration) + 1));
+				ClipExtractor extractor = new ClipExtractor(i, startTimeRnd);
+				extractors.add(extractor);
+				JobScheduler.getInstance().submit(extractor, JobScheduler.Priority.BATCH);
+			}
+			// Does nothing for clips that a slot has already taken
+			for (ClipExtractor extractor : extractors) {
+				if (isCancelled()) {
+					break;
+				}
+				extractor.run();
+			}
+			for (ClipExtractor extractor : extractors) {
+				if (isCancelled()) {
+					break;
+				}
+				try {
+					extractor.get();
+				} catch (ExecutionException e) {
+					e.printStackTrace();
+				}
 			}
+		} catch (InterruptedException e) {
+			// Cancelled while waiting for the clips
+		} finally {
+			if (isCancelled()) {
+				for (ClipExtractor extractor : extractors) {
+					JobScheduler.getInstance().cancel(extractor);
+				}
+				stopProcesses();
+			}
+			_workspace.release();
 		}
 		return null;
+	}
+
+	/**
+	 * Extracts a single 10 second clip starting at the given time.
+	 * 
+	 * @return the number of the clip, or -1 if it could not be created
+	 */
+	private int extractClip(int clip, int startTime) throws IOException, InterruptedException {
+		if (isCancelled()) {
+			return -1;
+		}
+		// No output is read, so waiting for avconv can be interrupted
+		ProcessBuilder builder = new ProcessBuilder("/bin/bash", "-c", "avconv -ss " + startTime + " -i "
+				+ _inputFile + " -vf scale=320:-1,format=rgb8,format=rgb24 -t 10 -r 10 -y "
+				+ _workspace.file(clip + ".gif") + " > /dev/null 2>&1");
+		Process process;
+		synchronized (_processes) {
+			if (_stopped) {
+				return -1;
+			}
+			process = builder.start();
+			_processes.add(process);
+		}
+		try {
+			return process.waitFor() == 0 ? clip : -1;
+		} catch (InterruptedException e) {
+			process.destroy();
+			throw e;
+		}
+	}
+
+	/**
+	 * Destroys every avconv process and waits for them to exit, so that none
+	 * is still writing when the workspace is deleted.
+	 */
+	private void stopProcesses() {
+		List<Process> processes;
+		synchronized (_processes) {
+			_stopped = true;
+			processes = new ArrayList<Process>(_processes);
+		}
+		boolean interrupted = false;
+		for (Process process : processes) {
+			process.destroy();
+			while (true) {
+				try {
+					process.waitFor();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
 
+	/**
+	 * Tells the EDT about each clip as soon as it is ready.
+	 */
+	@Override
+	protected void process(List<Integer> chunks) {
+		for (Integer clip : chunks) {
+			firePropertyChange("clip", null, clip);
+		}
 	}
 
 	/**
@@ -83,7 +222,21 @@ public class BounceCreator extends SwingWorker<Void, Void> {
 			e.printStackTrace();
 		} catch (ExecutionException e) {
 			e.printStackTrace();
+		} finally {
+			if (_workspace != null) {
+				_workspace.release();
+			}
 		}
 	}
 
+	/**
+	 * Returns the workspace holding the generated GIFs, or null if none were
+	 * generated.
+	 * 
+	 * @return
+	 */
+	public TempWorkspace getWorkspace() {
+		return _workspace;
+	}
+
 }
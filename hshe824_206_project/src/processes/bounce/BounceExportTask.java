@@ -0,0 +1,288 @@
+package processes.bounce;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingWorker;
+
+import processes.EncodeProgress;
+import processes.TempWorkspace;
+import ui.filesystem.Library;
+import bounce.BounceNorm;
+import bounce.Bouncemania;
+import bounce.OffscreenRenderer;
+import bounce.Shape;
+
+/**
+ * Class responsible for exporting a bounce animation to a video file. The
+ * animation is drawn off screen by an {@link OffscreenRenderer} and the raw
+ * frames are piped straight into the standard input of avconv, so no image
+ * files are written and no display is needed. The frames are drawn as fast as
+ * avconv takes them, which is usually many times faster than real time.
+ *
+ * The GIFs come from the workspace of a finished {@link BounceCreator}, which
+ * this task retains until it is done. Both workspaces are released by the
+ * background work itself, as done() runs as soon as the task is cancelled.
+ *
+ * @author Harry She
+ *
+ */
+public class BounceExportTask extends SwingWorker<Void, EncodeProgress> {
+	// Frame rate of the exported video
+	private static final int FRAME_RATE = 25;
+	// Minimum time between published progress updates
+	private static final long PROGRESS_NANOS = 250 * 1000 * 1000L;
+
+	private final TempWorkspace _gifs;
+	private final int _numShapes;
+	private final boolean _bouncemania;
+	private final int _width;
+	private final int _height;
+	private final int _seconds;
+	private final boolean _collisions;
+	private final String _outputFile;
+	private boolean errorState;
+	private TempWorkspace _workspace = null;
+	// Set by whichever of doInBackground and a cancelled done() comes first,
+	// the one that sets it is responsible for releasing the GIFs
+	private final AtomicBoolean _started = new AtomicBoolean(false);
+
+	/**
+	 * @param gifs
+	 *            workspace of the BounceCreator that generated the GIFs
+	 * @param numShapes
+	 *            number of GIFs that were generated
+	 * @param bouncemania
+	 *            whether every GIF bounces on its own or they take turns in a
+	 *            single shape
+	 * @param width
+	 *            width of the video, rounded down to an even number
+	 * @param height
+	 *            height of the video, rounded down to an even number
+	 * @param seconds
+	 *            length of the video
+	 * @param collisions
+	 *            whether the GIFs bounce off each other
+	 * @param outputFile
+	 */
+	public BounceExportTask(TempWorkspace gifs, int numShapes, boolean bouncemania, int width, int height,
+			int seconds, boolean collisions, String outputFile) {
+		_gifs = gifs.retain();
+		_numShapes = numShapes;
+		_bouncemania = bouncemania;
+		_width = Math.max(2, width & ~1);
+		_height = Math.max(2, height & ~1);
+		_seconds = seconds;
+		_collisions = collisions;
+		_outputFile = outputFile;
+	}
+
+	/**
+	 * Draws every frame of the animation and encodes it with avconv.
+	 *
+	 * Relays success or errors back to EDT to deal with.
+	 */
+	@Override
+	protected Void doInBackground() throws Exception {
+		if (!_started.compareAndSet(false, true)) {
+			// Cancelled before it began, done() has released the GIFs
+			return null;
+		}
+		errorState = false;
+		try {
+			_workspace = TempWorkspace.create("export");
+			export();
+		} catch (IOException e) {
+			if (!isCancelled()) {
+				firePropertyChange("failure", null, e.getMessage());
+				errorState = true;
+			}
+		} finally {
+			if (_workspace != null) {
+				_workspace.release();
+			}
+			_gifs.release();
+		}
+		return null;
+	}
+
+	/**
+	 * Pipes the frames into avconv and moves the video to the library once it
+	 * has been encoded.
+	 */
+	private void export() throws IOException, InterruptedException {
+		OffscreenRenderer renderer = new OffscreenRenderer(createShapes(), _width, _height, FRAME_RATE);
+		renderer.setCollisions(_collisions);
+		if (!renderer.awaitReady()) {
+			throw new IOException("The bounce GIFs could not be loaded!");
+		}
+		if (isCancelled()) {
+			return;
+		}
+
+		String name = new File(_outputFile).getName();
+		ProcessBuilder builder = new ProcessBuilder("/bin/bash", "-c", "avconv -f rawvideo -pix_fmt bgr24 -s "
+				+ _width + "x" + _height + " -r " + FRAME_RATE + " -i - -c:v libx264 -pix_fmt yuv420p -y \""
+				+ _workspace.file(name) + "\"");
+		builder.redirectErrorStream(true);
+		final Process process = builder.start();
+		try {
+			encode(process, renderer, name);
+		} finally {
+			// Make sure avconv is gone before its workspace is released
+			stopProcess(process);
+		}
+	}
+
+	/**
+	 * Writes every frame to avconv and waits for it to finish encoding.
+	 */
+	private void encode(final Process process, OffscreenRenderer renderer, String name) throws IOException,
+			InterruptedException {
+		final String[] last = new String[1];
+		// Drain the output so that avconv never blocks on a full pipe while
+		// this thread is blocked writing frames to it
+		Thread drain = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+					String line;
+					while ((line = out.readLine()) != null) {
+						synchronized (last) {
+							last[0] = line;
+						}
+					}
+				} catch (IOException e) {
+					// The process has gone
+				}
+			}
+		}, "vamix-export-output");
+		drain.setDaemon(true);
+		drain.start();
+
+		long frames = (long) _seconds * FRAME_RATE;
+		long start = System.nanoTime();
+		long published = start - PROGRESS_NANOS;
+		try (OutputStream stdin = new BufferedOutputStream(process.getOutputStream(), 1 << 20)) {
+			for (long i = 0; i < frames; i++) {
+				if (isCancelled()) {
+					process.destroy();
+					return;
+				}
+				renderer.nextFrame();
+				stdin.write(renderer.getPixels());
+
+				long now = System.nanoTime();
+				if (now - published >= PROGRESS_NANOS) {
+					published = now;
+					double elapsed = (now - start) / 1e9;
+					double fps = (i + 1) / elapsed;
+					publish(new EncodeProgress((int) ((i + 1) * 100 / frames), i + 1, fps, (double) (i + 1)
+							/ FRAME_RATE, 0, fps / FRAME_RATE, (frames - i - 1) / fps));
+				}
+			}
+		} catch (IOException e) {
+			// avconv stopped taking frames, its output says why
+		}
+
+		int exitValue = process.waitFor();
+		drain.join();
+		if (exitValue != 0) {
+			synchronized (last) {
+				firePropertyChange("failure", null, last[0]);
+			}
+			errorState = true;
+		} else if (!isCancelled()) {
+			_workspace.moveOut(name, _outputFile);
+		}
+	}
+
+	/**
+	 * Kills avconv if it is still running and waits for it to exit, even if
+	 * this thread has been interrupted by a cancel.
+	 */
+	private static void stopProcess(Process process) {
+		process.destroy();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				process.waitFor();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Creates the same shapes as the animation viewer shows for the GIFs.
+	 */
+	private List<Shape> createShapes() {
+		List<Shape> shapes = new ArrayList<Shape>();
+		BounceNorm bounceNorm = null;
+		if (!_bouncemania) {
+			bounceNorm = new BounceNorm(0, 0, 1, 1, 320, 240);
+			shapes.add(bounceNorm);
+		}
+		for (int clip = 1; clip <= _numShapes; clip++) {
+			File gif = new File(_gifs.getDir(), clip + ".gif");
+			if (!gif.exists()) {
+				continue;
+			}
+			if (bounceNorm != null) {
+				bounceNorm.addImage(gif);
+			} else {
+				shapes.add(Bouncemania.random(clip, _numShapes, _gifs.getDir(), _width, _height));
+			}
+		}
+		return shapes;
+	}
+
+	/**
+	 * Send appropriate messages to the EDT to update when completed
+	 * successfully or ungracefully.
+	 */
+	@Override
+	protected void done() {
+		try {
+			if (errorState == false) {
+				Library.getInstance().refreshTree();
+				this.get();
+				firePropertyChange("success", null, "success");
+			}
+		} catch (CancellationException e) {
+			if (_started.compareAndSet(false, true)) {
+				// The background work will never run to release them
+				_gifs.release();
+			}
+			firePropertyChange("cancelled", null, "The bounce export was stopped!");
+			return;
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Pass the latest progress on to the EDT.
+	 */
+	@Override
+	protected void process(List<EncodeProgress> chunks) {
+		EncodeProgress latest = chunks.get(chunks.size() - 1);
+		setProgress(latest.getPercent());
+		firePropertyChange("encodeProgress", null, latest);
+	}
+}
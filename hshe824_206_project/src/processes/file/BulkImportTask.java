@@ -0,0 +1,478 @@
+package processes.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.swing.SwingWorker;
+
+import processes.JobScheduler;
+import ui.Pane;
+import ui.filesystem.Library;
+
+/**
+ * Imports many files, or whole directory trees such as a camera card, into the
+ * input library in one task.
+ *
+ * The files are checked for audio and video streams by batch jobs on the
+ * {@link JobScheduler} while the files already checked are being imported, so
+ * checking never holds up the disk. Only a few checks are queued ahead of the
+ * import at a time, so a large card does not flood the queue.
+ *
+ * Files on the same file system as the library are hard linked, which takes
+ * no time or space. Others are copied with {@link FileChannel#transferTo},
+ * letting the kernel move the data without it passing through Java, into a
+ * staging directory from which each finished file is moved into the library.
+ * Copies run one at a time as they compete for the same disk.
+ *
+ * Files whose content is already in the library, including files earlier in
+ * the same import, are skipped, as a card is often imported more than once.
+ *
+ * Progress is published to listeners as "importProgress" property changes
+ * whose new value is a {@link Progress}, also while the directories are being
+ * walked and while the import waits for a check, and the task stops soon after
+ * it is cancelled at any point. When the task finishes "success" is
+ * fired with a summary of what was imported and skipped, or "failure" with
+ * the error if the import could not go on.
+ *
+ * @author Harry She
+ *
+ */
+public class BulkImportTask extends SwingWorker<Void, BulkImportTask.Progress> {
+	// Largest piece copied at a time, so progress and cancelling stay lively
+	private static final long CHUNK_BYTES = 8 * 1024 * 1024;
+	// Least time between progress updates
+	private static final long PROGRESS_MILLIS = 200;
+	// Checks queued ahead of the import for each CPU slot
+	private static final int CHECKS_PER_SLOT = 2;
+
+	/**
+	 * Snapshot of how far an import has got.
+	 */
+	public static final class Progress {
+		private final int _files;
+		private final int _done;
+		private final long _bytes;
+		private final long _bytesDone;
+		private final double _rate;
+		private final String _current;
+
+		Progress(int files, int done, long bytes, long bytesDone, double rate, String current) {
+			_files = files;
+			_done = done;
+			_bytes = bytes;
+			_bytesDone = bytesDone;
+			_rate = rate;
+			_current = current;
+		}
+
+		/**
+		 * Returns the number of files found to import.
+		 */
+		public int getFiles() {
+			return _files;
+		}
+
+		/**
+		 * Returns the number of files imported or skipped so far.
+		 */
+		public int getDone() {
+			return _done;
+		}
+
+		public long getBytes() {
+			return _bytes;
+		}
+
+		public long getBytesDone() {
+			return _bytesDone;
+		}
+
+		/**
+		 * Returns the average rate data has been copied at, in bytes per
+		 * second. Hard linked files are not counted.
+		 */
+		public double getRate() {
+			return _rate;
+		}
+
+		/**
+		 * Returns the name of the file being imported.
+		 */
+		public String getCurrent() {
+			return _current;
+		}
+
+		/**
+		 * Returns how far the import has got out of 1000, by size.
+		 */
+		public int getPermille() {
+			return _bytes == 0 ? 0 : (int) (_bytesDone * 1000 / _bytes);
+		}
+
+		/**
+		 * Short description for progress dialogs, e.g.
+		 * "12 of 50 files - 3.2 of 48.0 GB - 85.3 MB/s".
+		 */
+		@Override
+		public String toString() {
+			return String.format("%d of %d files - %s of %s - %.1f MB/s", _done, _files, size(_bytesDone),
+					size(_bytes), _rate / (1024 * 1024));
+		}
+	}
+
+	private final List<Path> _inputs;
+	private final Path _library;
+	private Path _staging;
+
+	private int _files;
+	private int _done;
+	private long _bytes;
+	private long _bytesDone;
+	private long _bytesCopied;
+	private long _copyNanos;
+	private long _lastProgress;
+	private int _linked;
+	private final List<String> _invalid = new ArrayList<String>();
+	private final List<String> _failed = new ArrayList<String>();
+	private final List<String> _duplicates = new ArrayList<String>();
+
+	/**
+	 * @param inputs
+	 *            files and directories to import, directories are imported
+	 *            with everything below them
+	 */
+	public BulkImportTask(List<Path> inputs) {
+		_inputs = new ArrayList<Path>(inputs);
+		_library = Paths.get(Library.inputDir);
+	}
+
+	/**
+	 * Checks whether a file has an audio or video stream.
+	 */
+	private static class FileCheck extends SwingWorker<Boolean, Void> {
+		private final Path _file;
+
+		FileCheck(Path file) {
+			_file = file;
+		}
+
+		@Override
+		protected Boolean doInBackground() {
+			FileChecker fc = new FileChecker(_file.toString());
+			return fc.checkAVFile("Audio") || fc.checkAVFile("Video");
+		}
+	}
+
+	@Override
+	protected Void doInBackground() throws Exception {
+		final List<Path> files = findMedia();
+		if (isCancelled()) {
+			return null;
+		}
+		_files = files.size();
+		long[] sizes = new long[_files];
+		for (int i = 0; i < _files; i++) {
+			sizes[i] = files.get(i).toFile().length();
+			_bytes += sizes[i];
+		}
+		// Next to the library so finished files can be moved in atomically
+		_staging = Files.createTempDirectory(_library.getParent(), ".import-");
+
+		int ahead = JobScheduler.getInstance().getCpuSlots() * CHECKS_PER_SLOT;
+		List<FileCheck> checks = new ArrayList<FileCheck>();
+		try {
+			for (int i = 0; i < files.size() && !isCancelled(); i++) {
+				while (checks.size() < files.size() && checks.size() <= i + ahead) {
+					FileCheck check = new FileCheck(files.get(checks.size()));
+					checks.add(check);
+					JobScheduler.getInstance().submit(check, JobScheduler.Priority.BATCH);
+				}
+				Path file = files.get(i);
+				long size = sizes[i];
+				boolean valid = waitForCheck(checks.get(i), file);
+				String existing = valid ? findDuplicate(file) : null;
+				if (!valid) {
+					_invalid.add(file.toString());
+					_bytes -= size;
+				} else if (existing != null) {
+					_duplicates.add(file + " (same as " + new File(existing).getName() + ")");
+					_bytes -= size;
+				} else {
+					long before = _bytesDone;
+					try {
+						importFile(file, size);
+					} catch (IOException e) {
+						_failed.add(file + ": " + e.getMessage());
+						_bytes -= size;
+						_bytesDone = before;
+					}
+				}
+				_done++;
+				report(file, true);
+			}
+		} finally {
+			for (FileCheck check : checks) {
+				if (!check.isDone()) {
+					JobScheduler.getInstance().cancel(check);
+				}
+			}
+			deleteStaging();
+		}
+		return null;
+	}
+
+	/**
+	 * Waits for a file to be checked, publishing the progress while it waits.
+	 *
+	 * @return whether the file has audio or video
+	 * @throws InterruptedException
+	 *             if this task is cancelled
+	 */
+	private boolean waitForCheck(FileCheck check, Path file) throws InterruptedException {
+		while (true) {
+			try {
+				return check.get(PROGRESS_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				report(file, true);
+			} catch (ExecutionException | CancellationException e) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Lists the media files among the inputs, in the order they were given
+	 * and by name within each directory. Hidden files and files without a
+	 * media extension are left out.
+	 */
+	private List<Path> findMedia() throws IOException {
+		final Set<String> extensions = new HashSet<String>(Arrays.asList(Pane._validExtensions));
+		final List<Path> files = new ArrayList<Path>();
+		for (final Path input : _inputs) {
+			if (isCancelled()) {
+				break;
+			}
+			if (!Files.isDirectory(input)) {
+				files.add(input);
+				_files++;
+				continue;
+			}
+			final List<Path> found = new ArrayList<Path>();
+			Files.walkFileTree(input, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+					if (isCancelled()) {
+						return FileVisitResult.TERMINATE;
+					}
+					report(dir, false);
+					// Never import the library into itself, nor hidden directories
+					// such as the staging directories of other imports
+					if (dir.startsWith(_library)
+							|| (dir.getNameCount() > input.getNameCount() && dir.getFileName().toString().startsWith("."))) {
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					String name = file.getFileName().toString();
+					int dot = name.lastIndexOf('.');
+					if (attrs.isRegularFile() && !name.startsWith(".") && dot > 0
+							&& extensions.contains(name.substring(dot + 1).toLowerCase())) {
+						found.add(file);
+						_files++;
+					}
+					return isCancelled() ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					_failed.add(file + ": " + e.getMessage());
+					return FileVisitResult.CONTINUE;
+				}
+			});
+			Collections.sort(found);
+			files.addAll(found);
+		}
+		return files;
+	}
+
+	/**
+	 * Puts one file into the library, under a new name if the library already
+	 * has a file of the same name.
+	 */
+	private void importFile(Path file, long size) throws IOException {
+		Path target = freeName(file.getFileName().toString());
+		if (Files.getFileStore(file).equals(Files.getFileStore(_library))) {
+			try {
+				Files.createLink(target, file);
+				_linked++;
+				_bytesDone += size;
+				return;
+			} catch (IOException | UnsupportedOperationException e) {
+				// The file system cannot link, copy instead
+			}
+		}
+
+		Path part = _staging.resolve(target.getFileName());
+		try {
+			try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+					FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+							StandardOpenOption.TRUNCATE_EXISTING)) {
+				long position = 0;
+				while (position < size) {
+					if (isCancelled()) {
+						return;
+					}
+					long start = System.nanoTime();
+					long copied = in.transferTo(position, Math.min(CHUNK_BYTES, size - position), out);
+					if (copied <= 0) {
+						throw new IOException("File shrank while being imported");
+					}
+					_copyNanos += System.nanoTime() - start;
+					_bytesCopied += copied;
+					_bytesDone += copied;
+					position += copied;
+					report(file, false);
+				}
+			}
+			Files.setLastModifiedTime(part, Files.getLastModifiedTime(file));
+			Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(part);
+		}
+	}
+
+	/**
+	 * Returns the library file with the same content as a file, which may have
+	 * been imported earlier in this task, or null if there is none.
+	 */
+	private String findDuplicate(Path file) {
+		try {
+			return ContentIndex.getInstance().findDuplicate(file.toFile());
+		} catch (IOException e) {
+			// Found out when the file is imported
+			return null;
+		}
+	}
+
+	/**
+	 * Returns a path in the library for a file of the given name that is not
+	 * taken, adding a number to the name if need be, e.g. "clip (2).mp4".
+	 */
+	private Path freeName(String name) {
+		Path target = _library.resolve(name);
+		int dot = name.lastIndexOf('.');
+		String base = dot > 0 ? name.substring(0, dot) : name;
+		String extension = dot > 0 ? name.substring(dot) : "";
+		for (int n = 2; Files.exists(target); n++) {
+			target = _library.resolve(base + " (" + n + ")" + extension);
+		}
+		return target;
+	}
+
+	/**
+	 * Publishes the progress, at most every PROGRESS_MILLIS unless forced.
+	 */
+	private void report(Path current, boolean force) {
+		long now = System.currentTimeMillis();
+		if (!force && now - _lastProgress < PROGRESS_MILLIS) {
+			return;
+		}
+		_lastProgress = now;
+		double rate = _copyNanos == 0 ? 0 : _bytesCopied * 1e9 / _copyNanos;
+		Path name = current.getFileName();
+		publish(new Progress(_files, _done, _bytes, _bytesDone, rate, (name != null ? name : current).toString()));
+	}
+
+	private void deleteStaging() {
+		if (_staging == null) {
+			return;
+		}
+		File[] left = _staging.toFile().listFiles();
+		if (left != null) {
+			for (File f : left) {
+				f.delete();
+			}
+		}
+		_staging.toFile().delete();
+	}
+
+	@Override
+	protected void process(List<Progress> chunks) {
+		firePropertyChange("importProgress", null, chunks.get(chunks.size() - 1));
+	}
+
+	/**
+	 * Tells the EDT what was imported and what was skipped.
+	 */
+	@Override
+	protected void done() {
+		Library.getInstance().refreshTree();
+		if (isCancelled()) {
+			firePropertyChange("cancelled", null, null);
+			return;
+		}
+		try {
+			get();
+		} catch (InterruptedException | ExecutionException e) {
+			firePropertyChange("failure", null, e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+			return;
+		}
+		String nl = System.getProperty("line.separator");
+		StringBuilder summary = new StringBuilder();
+		int imported = _done - _invalid.size() - _failed.size() - _duplicates.size();
+		summary.append(String.format("Imported %d of %d files (%s)", imported, _files, size(_bytesDone)));
+		if (_bytesCopied > 0) {
+			summary.append(String.format(", copied at %.1f MB/s", _bytesCopied * 1e9 / _copyNanos / (1024 * 1024)));
+		}
+		if (_linked > 0) {
+			summary.append(", ").append(_linked).append(" linked without copying");
+		}
+		summary.append(".");
+		appendList(summary, "Skipped as they have no audio or video:", _invalid, nl);
+		appendList(summary, "Skipped as they are already in the library:", _duplicates, nl);
+		appendList(summary, "Could not be imported:", _failed, nl);
+		firePropertyChange("success", null, summary.toString());
+	}
+
+	private static void appendList(StringBuilder sb, String title, List<String> items, String nl) {
+		if (items.isEmpty()) {
+			return;
+		}
+		sb.append(nl).append(nl).append(title);
+		for (int i = 0; i < items.size() && i < 10; i++) {
+			sb.append(nl).append(items.get(i));
+		}
+		if (items.size() > 10) {
+			sb.append(nl).append("and ").append(items.size() - 10).append(" more");
+		}
+	}
+
+	private static String size(long bytes) {
+		if (bytes >= 1024L * 1024 * 1024) {
+			return String.format("%.1f GB", bytes / (1024.0 * 1024 * 1024));
+		}
+		return String.format("%.1f MB", bytes / (1024.0 * 1024));
+	}
+}
@@ -0,0 +1,390 @@
+package processes.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Works out which kinds of stream a media file has by reading the header of
+ * its container, without starting avprobe. Only the first HEADER_BYTES of the
+ * file are read, apart from MP4/MOV files whose boxes are walked by seeking
+ * over them, so the answer takes microseconds instead of the hundred or so
+ * milliseconds avprobe needs to start.
+ *
+ * MP4/MOV, Matroska/WebM, AVI, WAV, FLV, MPEG program streams, Ogg, FLAC, MP3
+ * and AAC are recognised. For anything else, or a header that does not say
+ * clearly which streams there are, null is returned and the caller should
+ * fall back to {@link MediaProbe}.
+ *
+ * @author Harry She
+ *
+ */
+public class ContainerSniffer {
+	public static final String AUDIO = "audio";
+	public static final String VIDEO = "video";
+
+	// Most of the file read for the formats whose header is at the start
+	private static final int HEADER_BYTES = 64 * 1024;
+	// Deepest MP4 boxes are nested: moov, trak, mdia, hdlr
+	private static final int MAX_BOX_DEPTH = 3;
+
+	// Matroska element ids
+	private static final int EBML_HEADER = 0x1A45DFA3;
+	private static final int MKV_SEGMENT = 0x18538067;
+	private static final int MKV_CLUSTER = 0x1F43B675;
+	private static final int MKV_TRACKS = 0x1654AE6B;
+	private static final int MKV_TRACK_ENTRY = 0xAE;
+	private static final int MKV_TRACK_TYPE = 0x83;
+
+	private ContainerSniffer() {
+	}
+
+	/**
+	 * Returns the kinds of stream in the given file, {@link #AUDIO} and/or
+	 * {@link #VIDEO}, or null if the container was not recognised. An empty
+	 * set means the container was recognised but holds no audio or video.
+	 */
+	public static Set<String> sniff(String file) {
+		try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate((int) Math.min(HEADER_BYTES, channel.size()));
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+			}
+			header.flip();
+			return sniff(channel, header);
+		} catch (IOException | RuntimeException e) {
+			// Unreadable or malformed, let avprobe have a look
+			return null;
+		}
+	}
+
+	private static Set<String> sniff(FileChannel channel, ByteBuffer b) throws IOException {
+		int n = b.limit();
+		if (n < 12) {
+			return null;
+		}
+		if (is(b, 4, "ftyp") || is(b, 4, "moov") || is(b, 4, "mdat") || is(b, 4, "wide") || is(b, 4, "free")) {
+			return sniffMp4(channel);
+		}
+		if (b.getInt(0) == EBML_HEADER) {
+			return sniffMatroska(b);
+		}
+		if (is(b, 0, "RIFF")) {
+			if (is(b, 8, "WAVE")) {
+				return streams(true, false);
+			}
+			if (is(b, 8, "AVI ")) {
+				return sniffAvi(b);
+			}
+			return null;
+		}
+		if (is(b, 0, "FLV") && n > 4) {
+			// Flags byte says whether audio and video tags follow
+			int flags = b.get(4);
+			return streams((flags & 0x04) != 0, (flags & 0x01) != 0);
+		}
+		if (b.getInt(0) == 0x000001BA) {
+			return sniffMpegPs(b);
+		}
+		if (is(b, 0, "OggS")) {
+			return sniffOgg(b);
+		}
+		if (is(b, 0, "fLaC")) {
+			return streams(true, false);
+		}
+		if (is(b, 0, "ID3")) {
+			// Audio frames follow the tag, whose size is stored 7 bits a byte
+			int size = ((b.get(6) & 0x7f) << 21) | ((b.get(7) & 0x7f) << 14) | ((b.get(8) & 0x7f) << 7)
+					| (b.get(9) & 0x7f);
+			int frame = 10 + size;
+			return frame + 1 < n && isAudioSync(b, frame) ? streams(true, false) : null;
+		}
+		if (isAudioSync(b, 0)) {
+			return streams(true, false);
+		}
+		return null;
+	}
+
+	/**
+	 * MP4 and QuickTime: each trak in the moov box has a handler saying what
+	 * kind of track it is. The moov box may be at the end of the file, after
+	 * the media data, so the boxes are walked by seeking rather than read.
+	 */
+	private static Set<String> sniffMp4(FileChannel channel) throws IOException {
+		boolean[] found = new boolean[2];
+		if (!walkBoxes(channel, 0, channel.size(), 0, found)) {
+			return null;
+		}
+		return streams(found[0], found[1]);
+	}
+
+	/**
+	 * Walks the boxes between start and end, recording the handler types of
+	 * the tracks found. Returns true if a moov box was found.
+	 */
+	private static boolean walkBoxes(FileChannel channel, long start, long end, int depth, boolean[] found)
+			throws IOException {
+		ByteBuffer box = ByteBuffer.allocate(16);
+		boolean moov = false;
+		long pos = start;
+		while (pos + 8 <= end) {
+			box.clear();
+			box.limit(16);
+			if (channel.read(box, pos) < 8) {
+				break;
+			}
+			long size = box.getInt(0) & 0xffffffffL;
+			int headerSize = 8;
+			if (size == 1) {
+				if (box.position() < 16) {
+					break;
+				}
+				size = box.getLong(8);
+				headerSize = 16;
+			} else if (size == 0) {
+				size = end - pos;
+			}
+			if (size < headerSize || pos + size > end) {
+				break;
+			}
+			if (is(box, 4, "hdlr")) {
+				// Version and flags, pre-defined, then the handler type
+				ByteBuffer hdlr = ByteBuffer.allocate(4);
+				if (size >= headerSize + 12 && channel.read(hdlr, pos + headerSize + 8) == 4) {
+					found[0] |= is(hdlr, 0, "soun");
+					found[1] |= is(hdlr, 0, "vide");
+				}
+			} else if (depth < MAX_BOX_DEPTH
+					&& (is(box, 4, "moov") || is(box, 4, "trak") || is(box, 4, "mdia"))) {
+				moov |= depth == 0 && is(box, 4, "moov");
+				walkBoxes(channel, pos + headerSize, pos + size, depth + 1, found);
+			}
+			pos += size;
+		}
+		return moov;
+	}
+
+	/**
+	 * Matroska and WebM: the Tracks element of the segment gives the type of
+	 * each track. It normally comes before the first cluster of media data;
+	 * if a cluster comes first, or the header is cut short, avprobe decides.
+	 */
+	private static Set<String> sniffMatroska(ByteBuffer b) {
+		int pos = 0;
+		int end = b.limit();
+		// Skip the EBML header and enter the segment
+		long[] element = readElement(b, pos);
+		if (element == null) {
+			return null;
+		}
+		pos = (int) (element[2] + element[1]);
+		element = readElement(b, pos);
+		if (element == null || element[0] != MKV_SEGMENT) {
+			return null;
+		}
+		pos = (int) element[2];
+		while (pos < end) {
+			element = readElement(b, pos);
+			if (element == null || element[0] == MKV_CLUSTER) {
+				return null;
+			}
+			if (element[0] == MKV_TRACKS) {
+				long tracksEnd = element[2] + element[1];
+				if (tracksEnd > end) {
+					return null;
+				}
+				return sniffMatroskaTracks(b, (int) element[2], (int) tracksEnd);
+			}
+			pos = (int) Math.min(Integer.MAX_VALUE, element[2] + element[1]);
+		}
+		return null;
+	}
+
+	private static Set<String> sniffMatroskaTracks(ByteBuffer b, int pos, int end) {
+		boolean audio = false;
+		boolean video = false;
+		while (pos < end) {
+			long[] entry = readElement(b, pos);
+			if (entry == null) {
+				return null;
+			}
+			int entryEnd = (int) (entry[2] + entry[1]);
+			if (entry[0] == MKV_TRACK_ENTRY) {
+				int p = (int) entry[2];
+				while (p < entryEnd) {
+					long[] child = readElement(b, p);
+					if (child == null) {
+						return null;
+					}
+					if (child[0] == MKV_TRACK_TYPE && child[1] == 1) {
+						int type = b.get((int) child[2]);
+						video |= type == 1;
+						audio |= type == 2;
+					}
+					p = (int) (child[2] + child[1]);
+				}
+			}
+			pos = entryEnd;
+		}
+		return streams(audio, video);
+	}
+
+	/**
+	 * Reads the id and size of the EBML element at pos. Returns the id, the
+	 * size of its data and where its data starts, or null if the element does
+	 * not fit in the buffer. Elements of unknown size are taken to run to the
+	 * end of the buffer.
+	 */
+	private static long[] readElement(ByteBuffer b, int pos) {
+		int end = b.limit();
+		if (pos >= end) {
+			return null;
+		}
+		int first = b.get(pos) & 0xff;
+		int idLength = Integer.numberOfLeadingZeros(first) - 23;
+		if (idLength < 1 || idLength > 4 || pos + idLength >= end) {
+			return null;
+		}
+		long id = 0;
+		for (int i = 0; i < idLength; i++) {
+			id = (id << 8) | (b.get(pos + i) & 0xff);
+		}
+		pos += idLength;
+		first = b.get(pos) & 0xff;
+		int sizeLength = Integer.numberOfLeadingZeros(first) - 23;
+		if (sizeLength < 1 || sizeLength > 8 || pos + sizeLength > end) {
+			return null;
+		}
+		long size = first & (0xff >> sizeLength);
+		boolean unknown = size == (0xff >> sizeLength);
+		for (int i = 1; i < sizeLength; i++) {
+			int next = b.get(pos + i) & 0xff;
+			size = (size << 8) | next;
+			unknown &= next == 0xff;
+		}
+		pos += sizeLength;
+		if (unknown) {
+			size = end - pos;
+		}
+		return new long[] { id, size, pos };
+	}
+
+	/**
+	 * AVI: the hdrl list starts with a strh header for each stream, whose
+	 * first field is the stream type.
+	 */
+	private static Set<String> sniffAvi(ByteBuffer b) {
+		boolean audio = false;
+		boolean video = false;
+		boolean seen = false;
+		for (int i = 12; i + 12 <= b.limit(); i++) {
+			if (is(b, i, "movi")) {
+				// The headers are over once the media data starts
+				return streams(audio, video);
+			}
+			if (is(b, i, "strh")) {
+				seen = true;
+				audio |= is(b, i + 8, "auds");
+				video |= is(b, i + 8, "vids");
+			}
+		}
+		return seen ? streams(audio, video) : null;
+	}
+
+	/**
+	 * MPEG program streams: packets are tagged with a stream id, E0 to EF for
+	 * video and C0 to DF, or BD for AC-3, for audio. Unless both kinds turn up
+	 * in the header avprobe decides, as the other may just start later.
+	 */
+	private static Set<String> sniffMpegPs(ByteBuffer b) {
+		boolean audio = false;
+		boolean video = false;
+		for (int i = 0; i + 4 <= b.limit() && !(audio && video); i++) {
+			if (b.get(i) == 0 && b.get(i + 1) == 0 && b.get(i + 2) == 1) {
+				int id = b.get(i + 3) & 0xff;
+				video |= id >= 0xE0 && id <= 0xEF;
+				audio |= (id >= 0xC0 && id <= 0xDF) || id == 0xBD;
+			}
+		}
+		return audio && video ? streams(true, true) : null;
+	}
+
+	/**
+	 * Ogg: every stream starts with a page flagged as the beginning of the
+	 * stream, and these all come first, each holding the codec's header.
+	 */
+	private static Set<String> sniffOgg(ByteBuffer b) {
+		boolean audio = false;
+		boolean video = false;
+		int pos = 0;
+		while (pos + 27 <= b.limit() && is(b, pos, "OggS") && (b.get(pos + 5) & 0x02) != 0) {
+			int segments = b.get(pos + 26) & 0xff;
+			int data = pos + 27 + segments;
+			if (data + 8 > b.limit()) {
+				return null;
+			}
+			int length = 0;
+			for (int i = 0; i < segments; i++) {
+				length += b.get(pos + 27 + i) & 0xff;
+			}
+			if (is(b, data + 1, "vorbis") || is(b, data, "OpusHead") || is(b, data, "Speex")
+					|| is(b, data + 1, "FLAC")) {
+				audio = true;
+			} else if (is(b, data + 1, "theora")) {
+				video = true;
+			} else {
+				return null;
+			}
+			pos = data + length;
+		}
+		return audio || video ? streams(audio, video) : null;
+	}
+
+	/**
+	 * Whether an MPEG audio or ADTS AAC frame starts at pos: eleven set sync
+	 * bits followed by a valid layer and, for MPEG audio, a valid bitrate and
+	 * sample rate.
+	 */
+	private static boolean isAudioSync(ByteBuffer b, int pos) {
+		if (pos + 3 > b.limit()) {
+			return false;
+		}
+		int b1 = b.get(pos + 1) & 0xff;
+		if ((b.get(pos) & 0xff) != 0xff || (b1 & 0xe0) != 0xe0) {
+			return false;
+		}
+		if ((b1 & 0xf6) == 0xf0) {
+			// ADTS, which has layer 0
+			return true;
+		}
+		int b2 = b.get(pos + 2) & 0xff;
+		return (b1 & 0x18) != 0x08 && (b1 & 0x06) != 0 && (b2 & 0xf0) != 0xf0 && (b2 & 0x0c) != 0x0c;
+	}
+
+	private static boolean is(ByteBuffer b, int pos, String magic) {
+		if (pos < 0 || pos + magic.length() > b.limit()) {
+			return false;
+		}
+		for (int i = 0; i < magic.length(); i++) {
+			if (b.get(pos + i) != magic.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Set<String> streams(boolean audio, boolean video) {
+		Set<String> streams = new HashSet<String>();
+		if (audio) {
+			streams.add(AUDIO);
+		}
+		if (video) {
+			streams.add(VIDEO);
+		}
+		return Collections.unmodifiableSet(streams);
+	}
+}
@@ -0,0 +1,105 @@
+package processes.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helper for computing content hashes of media files. The sampled hash only
+ * reads a few blocks from the start, middle and end of a file together with
+ * its length, so it is cheap enough to compute for every file in the library
+ * while still telling different clips apart. The full hash reads the whole
+ * file and is used to confirm that files with the same sampled hash really
+ * are identical.
+ *
+ * @author Harry She
+ *
+ */
+public class ContentHash {
+
+	// Size of each block read by the sampled hash
+	private static final int SAMPLE_SIZE = 64 * 1024;
+
+	private ContentHash() {
+	}
+
+	/**
+	 * Computes the sampled hash of a file.
+	 *
+	 * @param file
+	 * @return hex string of the hash, prefixed with "s:" to mark it as sampled
+	 * @throws IOException
+	 */
+	public static String sampled(File file) throws IOException {
+		MessageDigest md = newDigest("MD5");
+		try (FileInputStream in = new FileInputStream(file)) {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_SIZE);
+			buffer.putLong(size);
+			buffer.flip();
+			md.update(buffer);
+			long[] offsets = { 0, Math.max(0, size / 2 - SAMPLE_SIZE / 2), Math.max(0, size - SAMPLE_SIZE) };
+			for (long offset : offsets) {
+				buffer.clear();
+				long position = offset;
+				while (buffer.hasRemaining()) {
+					int read = channel.read(buffer, position);
+					if (read <= 0) {
+						break;
+					}
+					position += read;
+				}
+				buffer.flip();
+				md.update(buffer);
+			}
+		}
+		return "s:" + toHex(md.digest());
+	}
+
+	/**
+	 * Computes the hash of the whole of a file.
+	 *
+	 * @param file
+	 * @return hex string of the hash, prefixed with "f:" to mark it as full
+	 * @throws IOException
+	 */
+	public static String full(File file) throws IOException {
+		MessageDigest md = newDigest("MD5");
+		try (FileInputStream in = new FileInputStream(file)) {
+			FileChannel channel = in.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				md.update(buffer);
+				buffer.clear();
+			}
+		}
+		return "f:" + toHex(md.digest());
+	}
+
+	/**
+	 * Creates a message digest, converting the checked exception as every JRE
+	 * is required to support MD5 and SHA-256.
+	 */
+	static MessageDigest newDigest(String algorithm) {
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+}
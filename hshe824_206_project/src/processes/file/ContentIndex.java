@@ -0,0 +1,170 @@
+package processes.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import ui.filesystem.Library;
+
+/**
+ * Index of the content hashes of the files in the input library, used to spot
+ * a clip that is imported or downloaded a second time.
+ *
+ * A file can only be a duplicate of library files of the same length, so only
+ * those are ever hashed. Their sampled hashes ({@link ContentHash#sampled})
+ * are compared first, taken from the {@link MediaIndex} where it has them, and
+ * the full hashes are only computed, once per file, when the sampled hashes
+ * match. Hashes are remembered for as long as a file keeps its size and
+ * modification time.
+ *
+ * @author Harry She
+ *
+ */
+public class ContentIndex {
+	// Singleton - one index of the input library
+	private static ContentIndex theInstance = null;
+
+	/**
+	 * The hashes known for one version of a file.
+	 */
+	private static class Hashes {
+		long size;
+		long lastModified;
+		String sampled;
+		String full;
+	}
+
+	private final File _dir;
+	private final Map<String, Hashes> _hashes = new HashMap<String, Hashes>();
+
+	private ContentIndex(File dir) {
+		_dir = dir;
+	}
+
+	/**
+	 * Grab the singleton instance of this class.
+	 *
+	 * @return
+	 */
+	public static synchronized ContentIndex getInstance() {
+		if (theInstance == null) {
+			theInstance = new ContentIndex(new File(Library.inputDir));
+		}
+		return theInstance;
+	}
+
+	/**
+	 * Looks for a file in the input library with exactly the same content as
+	 * the given file.
+	 *
+	 * @param file
+	 * @return the path of the library file, or null if there is none
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public String findDuplicate(File file) throws IOException {
+		File[] candidates = _dir.listFiles();
+		if (candidates == null) {
+			return null;
+		}
+		long size = file.length();
+		String sampled = null;
+		String full = null;
+		for (File candidate : candidates) {
+			if (candidate.length() != size || !candidate.isFile()) {
+				continue;
+			}
+			if (Files.isSameFile(candidate.toPath(), file.toPath())) {
+				if (candidate.getPath().equals(file.getPath())) {
+					continue;
+				}
+				// Already a link to this library file
+				return candidate.getPath();
+			}
+			if (sampled == null) {
+				sampled = ContentHash.sampled(file);
+			}
+			try {
+				if (!sampled.equals(sampled(candidate))) {
+					continue;
+				}
+				// Same samples, make sure the rest of the files agree too
+				if (full == null) {
+					full = ContentHash.full(file);
+				}
+				if (full.equals(full(candidate))) {
+					return candidate.getPath();
+				}
+			} catch (IOException e) {
+				// A library file that cannot be read is no duplicate
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Stores a duplicate in the library as a hard link to the library file it
+	 * duplicates, replacing the target if it exists. Where links are not
+	 * supported the file is copied instead.
+	 *
+	 * @param existing
+	 *            the library file with the same content
+	 * @param target
+	 *            where the duplicate goes
+	 * @throws IOException
+	 */
+	public void link(String existing, Path target) throws IOException {
+		Path source = new File(existing).toPath();
+		Path tmp = target.resolveSibling("." + target.getFileName() + ".link");
+		Files.deleteIfExists(tmp);
+		try {
+			Files.createLink(tmp, source);
+		} catch (IOException | UnsupportedOperationException e) {
+			Files.copy(source, tmp, StandardCopyOption.COPY_ATTRIBUTES);
+		}
+		Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Returns the sampled hash of a library file.
+	 */
+	private String sampled(File file) throws IOException {
+		Hashes h = get(file);
+		if (h.sampled == null) {
+			String indexed = MediaIndex.getInstance().isCurrent(file) ? MediaIndex.getInstance().getHash(
+					file.getPath()) : null;
+			h.sampled = indexed != null ? indexed : ContentHash.sampled(file);
+		}
+		return h.sampled;
+	}
+
+	/**
+	 * Returns the full hash of a library file, computing it the first time it
+	 * is asked for.
+	 */
+	private String full(File file) throws IOException {
+		Hashes h = get(file);
+		if (h.full == null) {
+			h.full = ContentHash.full(file);
+		}
+		return h.full;
+	}
+
+	/**
+	 * Returns the remembered hashes for the current version of a file.
+	 */
+	private synchronized Hashes get(File file) {
+		Hashes h = _hashes.get(file.getPath());
+		if (h == null || h.size != file.length() || h.lastModified != file.lastModified()) {
+			h = new Hashes();
+			h.size = file.length();
+			h.lastModified = file.lastModified();
+			_hashes.put(file.getPath(), h);
+		}
+		return h;
+	}
+}
@@ -0,0 +1,262 @@
+package processes.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks {@link SegmentedDownloader} against an HTTP server embedded in the
+ * JVM, without needing a network. The server serves a file of random bytes and
+ * can be told to ignore byte ranges, to drop connections part way through the
+ * body, to change the file under a running download and to send the body
+ * slowly. Each case downloads the file and compares it byte for byte with what
+ * the server holds, e.g.
+ *
+ * <pre>
+ * java processes.file.DownloadHarness
+ * </pre>
+ *
+ * The partial files go under ~/vamix/downloads like any other download, and
+ * any left there by an earlier run of a case are thrown away first. Exits
+ * with a status of 1 if any case fails.
+ *
+ * @author Harry She
+ *
+ */
+public class DownloadHarness {
+	// Large enough to be split into every segment
+	private static final int FILE_SIZE = 6 * 1024 * 1024;
+	private static final int CHUNK = 16 * 1024;
+
+	private final HttpServer _server;
+	private final AtomicInteger _requests = new AtomicInteger();
+	private final AtomicInteger _ranged = new AtomicInteger();
+	private final AtomicInteger _dropped = new AtomicInteger();
+	private volatile byte[] _data;
+	private volatile String _etag = "\"v1\"";
+	private volatile boolean _ranges = true;
+	// Every this many requests is dropped part way through, 0 for none
+	private volatile int _dropEvery = 0;
+	private volatile long _chunkMillis = 0;
+
+	private DownloadHarness() throws IOException {
+		_data = randomBytes(1);
+		_server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+		_server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}
+		});
+		_server.setExecutor(Executors.newCachedThreadPool());
+		_server.start();
+	}
+
+	/**
+	 * Answers a GET or HEAD, honouring Range and If-Range the way a real
+	 * server does when ranges are turned on.
+	 */
+	private void serve(HttpExchange exchange) throws IOException {
+		int request = _requests.incrementAndGet();
+		byte[] data = _data;
+		long start = 0;
+		long end = data.length - 1;
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+		boolean partial = false;
+		if (_ranges && range != null && range.startsWith("bytes=") && (ifRange == null || ifRange.equals(_etag))) {
+			String[] bounds = range.substring(6).split("-", -1);
+			start = Long.parseLong(bounds[0]);
+			if (!bounds[1].isEmpty()) {
+				end = Math.min(end, Long.parseLong(bounds[1]));
+			}
+			partial = true;
+			_ranged.incrementAndGet();
+		}
+		long length = end - start + 1;
+		exchange.getResponseHeaders().set("ETag", _etag);
+		if (_ranges) {
+			exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+		}
+		if (partial) {
+			exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + data.length);
+		}
+		if (exchange.getRequestMethod().equals("HEAD")) {
+			exchange.getResponseHeaders().set("Content-Length", Long.toString(length));
+			exchange.sendResponseHeaders(partial ? 206 : 200, -1);
+			exchange.close();
+			return;
+		}
+		exchange.sendResponseHeaders(partial ? 206 : 200, length);
+		boolean drop = _dropEvery > 0 && request % _dropEvery == 0;
+		OutputStream out = exchange.getResponseBody();
+		try {
+			for (long pos = start; pos <= end; pos += CHUNK) {
+				if (drop && pos - start >= length / 2) {
+					// Closing short of the length cuts the connection
+					_dropped.incrementAndGet();
+					break;
+				}
+				out.write(data, (int) pos, (int) Math.min(CHUNK, end - pos + 1));
+				if (_chunkMillis > 0) {
+					out.flush();
+					Thread.sleep(_chunkMillis);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			// The client has gone
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private URL url(String name) throws IOException {
+		return new URL("http://127.0.0.1:" + _server.getAddress().getPort() + "/" + name);
+	}
+
+	private static byte[] randomBytes(long seed) {
+		byte[] data = new byte[FILE_SIZE];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+
+	private static String sha256(byte[] data) {
+		return ContentHash.toHex(ContentHash.newDigest("SHA-256").digest(data));
+	}
+
+	/**
+	 * Resets the server to serving a fresh file over ranges at full speed.
+	 */
+	private void reset() {
+		_data = randomBytes(1);
+		_etag = "\"v1\"";
+		_ranges = true;
+		_dropEvery = 0;
+		_chunkMillis = 0;
+		_requests.set(0);
+		_ranged.set(0);
+		_dropped.set(0);
+	}
+
+	/**
+	 * Downloads the file in one go and checks it arrived whole.
+	 */
+	private boolean fetch(String name, File dir, String check) throws IOException {
+		File target = new File(dir, name);
+		SegmentedDownloader downloader = new SegmentedDownloader(url(name), target);
+		downloader.discardPartial();
+		downloader.setChecksum("SHA-256", sha256(_data));
+		boolean complete = downloader.download();
+		return expect(check, complete && matches(target, _data));
+	}
+
+	private static boolean matches(File file, byte[] data) throws IOException {
+		return file.isFile() && Arrays.equals(Files.readAllBytes(file.toPath()), data);
+	}
+
+	private static boolean expect(String check, boolean passed) {
+		System.out.println((passed ? "PASS " : "FAIL ") + check);
+		return passed;
+	}
+
+	/**
+	 * The file is split over several ranged connections.
+	 */
+	private boolean testRanges(File dir) throws IOException {
+		reset();
+		boolean passed = fetch("ranges.bin", dir, "ranged download matches");
+		return expect("ranged download used several ranges (" + _ranged.get() + ")", _ranged.get() > 1) && passed;
+	}
+
+	/**
+	 * The server ignores Range and always sends the whole file.
+	 */
+	private boolean testNoRanges(File dir) throws IOException {
+		reset();
+		_ranges = false;
+		return fetch("noranges.bin", dir, "download without ranges matches");
+	}
+
+	/**
+	 * Connections are cut half way through their body and the segments have
+	 * to retry, with and without ranges.
+	 */
+	private boolean testDrops(File dir) throws IOException {
+		reset();
+		_dropEvery = 2;
+		boolean passed = fetch("drops.bin", dir, "ranged download with dropped connections matches");
+		passed = expect("connections were dropped (" + _dropped.get() + ")", _dropped.get() > 0) && passed;
+		reset();
+		_ranges = false;
+		_dropEvery = 2;
+		passed = fetch("dropsnoranges.bin", dir, "download without ranges and with dropped connections matches")
+				&& passed;
+		return passed;
+	}
+
+	/**
+	 * A download is stopped part way, the file changes on the server and the
+	 * download is resumed, which has to start again with the new file.
+	 */
+	private boolean testChanged(File dir) throws IOException {
+		reset();
+		_chunkMillis = 10;
+		String name = "changed.bin";
+		File target = new File(dir, name);
+		final SegmentedDownloader first = new SegmentedDownloader(url(name), target);
+		first.discardPartial();
+		first.setProgressListener(new SegmentedDownloader.ProgressListener() {
+			@Override
+			public void progress(long done, long total, double rate) {
+				if (done > 0) {
+					first.stop();
+				}
+			}
+		});
+		boolean stopped = !first.download() && first.hasPartial();
+		boolean passed = expect("first run stopped with a partial file", stopped);
+
+		_data = randomBytes(2);
+		_etag = "\"v2\"";
+		_chunkMillis = 0;
+		SegmentedDownloader second = new SegmentedDownloader(url(name), target);
+		second.setChecksum("SHA-256", sha256(_data));
+		boolean complete = second.download();
+		return expect("resumed download of a changed file matches the new file", complete && matches(target, _data))
+				&& passed;
+	}
+
+	public static void main(String[] args) throws Exception {
+		File dir = Files.createTempDirectory("vamix-download-harness").toFile();
+		DownloadHarness harness = new DownloadHarness();
+		boolean passed = true;
+		try {
+			passed &= harness.testRanges(dir);
+			passed &= harness.testNoRanges(dir);
+			passed &= harness.testDrops(dir);
+			passed &= harness.testChanged(dir);
+		} finally {
+			harness._server.stop(0);
+			for (File f : dir.listFiles()) {
+				f.delete();
+			}
+			dir.delete();
+		}
+		System.out.println(passed ? "All download checks passed" : "Some download checks failed");
+		System.exit(passed ? 0 : 1);
+	}
+}
@@ -0,0 +1,464 @@
+package processes.file;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import processes.JobScheduler;
+
+/**
+ * Queue of downloads that runs a configurable number of them at a time, with
+ * the combined bandwidth capped by a shared {@link TokenBucket}.
+ *
+ * Pausing a download stops it while keeping the segments downloaded so far,
+ * and resuming it carries on from there. The queue itself is saved to
+ * ~/vamix/downloads/queue.properties whenever it changes, so downloads that
+ * were queued or running when VAMIX exited start again where they left off
+ * the next time it runs, and paused ones stay paused.
+ *
+ * The downloads run on threads of the queue's own, as many as the queue runs
+ * at a time, so they never wait for or hold up the imports and batches on the
+ * I/O lane of the {@link JobScheduler}.
+ *
+ * The queue must only be used from the EDT. Listeners are told about every
+ * change, including progress, with a "queueChanged" property change.
+ *
+ * @author Harry She
+ *
+ */
+public class DownloadQueue {
+	// Singleton - one queue for the whole application
+	private static DownloadQueue theInstance = null;
+
+	private static final String QUEUE_FILE = "queue.properties";
+	private static final int DEFAULT_CONCURRENCY = 2;
+	// Most downloads that may run at the same time
+	public static final int MAX_CONCURRENCY = 8;
+
+	/**
+	 * Where a download is in its life.
+	 */
+	public enum State {
+		QUEUED("Queued"), DOWNLOADING("Downloading"), PAUSED("Paused"), DONE("Done"), FAILED("Failed");
+
+		private final String _label;
+
+		private State(String label) {
+			_label = label;
+		}
+
+		@Override
+		public String toString() {
+			return _label;
+		}
+	}
+
+	/**
+	 * A download in the queue.
+	 */
+	public static final class Item {
+		private final String _url;
+		private final File _target;
+		private final String _checksum;
+		private State _state;
+		private int _percent;
+		private String _status = "";
+		private DownloadTask _task;
+
+		private Item(String url, File target, String checksum, State state) {
+			_url = url;
+			_target = target;
+			_checksum = checksum;
+			_state = state;
+		}
+
+		public String getUrl() {
+			return _url;
+		}
+
+		public File getTarget() {
+			return _target;
+		}
+
+		/**
+		 * Returns the checksum the download is checked against, or null.
+		 */
+		public String getChecksum() {
+			return _checksum;
+		}
+
+		public State getState() {
+			return _state;
+		}
+
+		/**
+		 * Returns the percentage downloaded.
+		 */
+		public int getPercent() {
+			return _percent;
+		}
+
+		/**
+		 * Returns the latest progress or error message.
+		 */
+		public String getStatus() {
+			return _status;
+		}
+	}
+
+	private final File _file;
+	private final List<Item> _items = new ArrayList<Item>();
+	private final TokenBucket _bandwidth = new TokenBucket(0);
+	private int _concurrency = DEFAULT_CONCURRENCY;
+	private final ThreadPoolExecutor _downloaders;
+	private final PropertyChangeSupport _pcs = new PropertyChangeSupport(this);
+
+	private DownloadQueue(File file) {
+		_file = file;
+		load();
+		_downloaders = new ThreadPoolExecutor(_concurrency, _concurrency, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger _count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "vamix-download-" + _count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		_downloaders.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Grab the singleton instance of this class, loading the saved queue and
+	 * starting its downloads the first time.
+	 *
+	 * @return
+	 */
+	public static synchronized DownloadQueue getInstance() {
+		if (theInstance == null) {
+			theInstance = new DownloadQueue(new File(SegmentedDownloader.downloadDir, QUEUE_FILE));
+			theInstance.schedule();
+		}
+		return theInstance;
+	}
+
+	/**
+	 * Returns the downloads, in the order they were added.
+	 */
+	public List<Item> getItems() {
+		return Collections.unmodifiableList(new ArrayList<Item>(_items));
+	}
+
+	/**
+	 * Adds a download to the end of the queue.
+	 *
+	 * @param url
+	 * @return the new download
+	 * @throws IllegalArgumentException
+	 *             if the URL is invalid or a download to the same file is
+	 *             already in the queue
+	 */
+	public Item add(String url) {
+		return add(url, null);
+	}
+
+	/**
+	 * Adds a download to the end of the queue that is checked against a
+	 * checksum, see {@link DownloadTask#setChecksum(String)}.
+	 *
+	 * @param url
+	 * @param checksum
+	 *            the checksum, or null to not check one
+	 * @return the new download
+	 * @throws IllegalArgumentException
+	 *             if the URL or checksum is invalid or a download to the same
+	 *             file is already in the queue
+	 */
+	public Item add(String url, String checksum) {
+		try {
+			new URL(url);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Please enter a valid URL");
+		}
+		if (checksum != null) {
+			// Reject a bad checksum now rather than when the download starts
+			new DownloadTask(url).setChecksum(checksum);
+		}
+		File target = DownloadTask.targetFor(url);
+		for (Item item : _items) {
+			if (item._target.equals(target) && item._state != State.DONE) {
+				throw new IllegalArgumentException(target.getName() + " is already in the download queue");
+			}
+		}
+		Item item = new Item(url, target, checksum, State.QUEUED);
+		_items.add(item);
+		changed(true);
+		return item;
+	}
+
+	/**
+	 * Pauses a queued or running download, keeping what has been downloaded.
+	 */
+	public void pause(Item item) {
+		if (item._state != State.QUEUED && item._state != State.DOWNLOADING) {
+			return;
+		}
+		item._state = State.PAUSED;
+		item._status = "Paused";
+		if (item._task != null) {
+			item._task.cancel(true);
+			item._task = null;
+		}
+		changed(true);
+	}
+
+	/**
+	 * Puts a paused or failed download back in the queue.
+	 */
+	public void resume(Item item) {
+		if (item._state != State.PAUSED && item._state != State.FAILED) {
+			return;
+		}
+		item._state = State.QUEUED;
+		item._status = "";
+		changed(true);
+	}
+
+	/**
+	 * Removes a download from the queue, stopping it and throwing away any
+	 * partial download if it has not finished.
+	 */
+	public void remove(Item item) {
+		if (!_items.remove(item)) {
+			return;
+		}
+		if (item._task != null) {
+			item._task.cancel(true);
+			item._task = null;
+		}
+		if (item._state != State.DONE) {
+			try {
+				new SegmentedDownloader(new URL(item._url), item._target).discardPartial();
+			} catch (IOException e) {
+				// Nothing was downloaded for an invalid URL
+			}
+		}
+		changed(true);
+	}
+
+	/**
+	 * Removes the finished downloads from the queue.
+	 */
+	public void clearFinished() {
+		for (Item item : getItems()) {
+			if (item._state == State.DONE) {
+				_items.remove(item);
+			}
+		}
+		changed(true);
+	}
+
+	/**
+	 * Sets how many downloads run at the same time, between 1 and
+	 * MAX_CONCURRENCY.
+	 */
+	public void setConcurrency(int concurrency) {
+		_concurrency = Math.max(1, Math.min(MAX_CONCURRENCY, concurrency));
+		if (_concurrency > _downloaders.getMaximumPoolSize()) {
+			_downloaders.setMaximumPoolSize(_concurrency);
+			_downloaders.setCorePoolSize(_concurrency);
+		} else {
+			_downloaders.setCorePoolSize(_concurrency);
+			_downloaders.setMaximumPoolSize(_concurrency);
+		}
+		changed(true);
+	}
+
+	public int getConcurrency() {
+		return _concurrency;
+	}
+
+	/**
+	 * Caps the combined rate of all downloads.
+	 *
+	 * @param rate
+	 *            bytes per second, or 0 for no limit
+	 */
+	public void setBandwidth(long rate) {
+		_bandwidth.setRate(rate);
+		changed(true);
+	}
+
+	public long getBandwidth() {
+		return _bandwidth.getRate();
+	}
+
+	public void addPropertyChangeListener(PropertyChangeListener listener) {
+		_pcs.addPropertyChangeListener(listener);
+	}
+
+	public void removePropertyChangeListener(PropertyChangeListener listener) {
+		_pcs.removePropertyChangeListener(listener);
+	}
+
+	/**
+	 * Starts queued downloads, in order, until as many are running as are
+	 * allowed.
+	 */
+	private void schedule() {
+		int running = 0;
+		for (Item item : _items) {
+			if (item._state == State.DOWNLOADING) {
+				running++;
+			}
+		}
+		for (Item item : _items) {
+			if (running >= _concurrency) {
+				break;
+			}
+			if (item._state == State.QUEUED) {
+				start(item);
+				running++;
+			}
+		}
+	}
+
+	private void start(final Item item) {
+		final DownloadTask task = new DownloadTask(item._url);
+		task.setBandwidth(_bandwidth);
+		if (item._checksum != null) {
+			task.setChecksum(item._checksum);
+		}
+		task.addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				if (item._task != task) {
+					// Paused or removed, whatever it says now is stale
+					return;
+				}
+				if ("progress".equals(evt.getPropertyName())) {
+					item._percent = (Integer) evt.getNewValue();
+					changed(false);
+				} else if ("_progressLabel".equals(evt.getPropertyName())) {
+					item._status = (String) evt.getNewValue();
+					changed(false);
+				} else if ("failure".equals(evt.getPropertyName())) {
+					item._state = State.FAILED;
+					item._status = (String) evt.getNewValue();
+					item._task = null;
+					changed(true);
+				} else if ("success".equals(evt.getPropertyName())) {
+					item._state = State.DONE;
+					item._percent = 100;
+					item._task = null;
+					changed(true);
+				} else if ("reenableDownload".equals(evt.getPropertyName()) && item._state == State.DOWNLOADING) {
+					// Finished without saying how, e.g. stopped from elsewhere
+					item._state = State.PAUSED;
+					item._task = null;
+					changed(true);
+				}
+			}
+		});
+		item._task = task;
+		item._state = State.DOWNLOADING;
+		item._status = "Starting...";
+		_downloaders.execute(task);
+	}
+
+	/**
+	 * Tells the listeners about a change, first saving the queue and starting
+	 * more downloads if the change was more than progress.
+	 */
+	private void changed(boolean structural) {
+		if (structural) {
+			schedule();
+			save();
+		}
+		_pcs.firePropertyChange("queueChanged", null, this);
+	}
+
+	/**
+	 * Reads the queue saved by the last session. Downloads that were running
+	 * are queued again.
+	 */
+	private void load() {
+		Properties p = new Properties();
+		if (_file.exists()) {
+			try (InputStream in = new FileInputStream(_file)) {
+				p.load(in);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		try {
+			_concurrency = Math.max(1, Math.min(MAX_CONCURRENCY, Integer.parseInt(p.getProperty("concurrency",
+					System.getProperty("vamix.downloads", Integer.toString(DEFAULT_CONCURRENCY))))));
+			_bandwidth.setRate(Long.parseLong(p.getProperty("bandwidth", "0")));
+			int count = Integer.parseInt(p.getProperty("items", "0"));
+			for (int i = 0; i < count; i++) {
+				String url = p.getProperty("item." + i + ".url");
+				State state = State.valueOf(p.getProperty("item." + i + ".state"));
+				if (state == State.DOWNLOADING) {
+					state = State.QUEUED;
+				}
+				Item item = new Item(url, DownloadTask.targetFor(url), p.getProperty("item." + i + ".checksum"), state);
+				item._status = state == State.PAUSED ? "Paused" : "";
+				item._percent = state == State.DONE ? 100 : 0;
+				_items.add(item);
+			}
+		} catch (RuntimeException e) {
+			// A damaged queue file loses the rest of the queue, not the session
+			e.printStackTrace();
+		}
+	}
+
+	private void save() {
+		Properties p = new Properties();
+		p.setProperty("concurrency", Integer.toString(_concurrency));
+		p.setProperty("bandwidth", Long.toString(_bandwidth.getRate()));
+		p.setProperty("items", Integer.toString(_items.size()));
+		for (int i = 0; i < _items.size(); i++) {
+			Item item = _items.get(i);
+			p.setProperty("item." + i + ".url", item._url);
+			p.setProperty("item." + i + ".state", item._state.name());
+			if (item._checksum != null) {
+				p.setProperty("item." + i + ".checksum", item._checksum);
+			}
+		}
+		_file.getParentFile().mkdirs();
+		File tmp = new File(_file.getPath() + ".tmp");
+		try (OutputStream out = new FileOutputStream(tmp)) {
+			p.store(out, "VAMIX download queue");
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		try {
+			Files.move(tmp.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -1,26 +1,30 @@
 package processes.file;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.net.URL;
 import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
 
+import model.MediaInfo;
 import ui.filesystem.Library;
 
 /**
  * This task represents the download operation run by the Downloader in response
- * to a user executing a download. This uses a call to wget to download and uses
- * the Java pattern method to obtain percentage progress from wget output to ask
- * the EDT to intermediate to a progress bar in the DownloadPane.
+ * to a user executing a download. The file is fetched by a
+ * {@link SegmentedDownloader} over several connections at once, and the
+ * percentage done and download rate are sent to the EDT to update a progress
+ * bar in the DownloadPane. A download that is cancelled or paused keeps what
+ * it has downloaded so far, and carries on from there when it is started
+ * again.
+ * 
+ * The download can be checked against an MD5 or SHA-256 checksum as it
+ * arrives. Once it is complete it is probed, and marked in the
+ * {@link MediaIndex} as verified if it has playable streams, or broken if it
+ * is truncated or not media at all.
  * 
  * @author Harry She
  * 
@@ -29,96 +33,129 @@ public class DownloadTask extends SwingWorker<Void, String> {
 	private String _URL;
 
 	private boolean errorState = false;
+	// Library file the download turned out to be the same as
+	private String _duplicateOf = null;
+
+	// Where the file is downloaded to
+	private String inputDir;
+
+	private TokenBucket _bandwidth = null;
 
-	private String inputDir = System.getProperty("user.home") + File.separator + "vamix" + File.separator
-			+ "InputLibrary" + File.separator;
+	// Checksum to check the download against, e.g. "sha256:ab12..."
+	private String _checksum = null;
+	// Why the download is broken, if it is
+	private String _broken = null;
 
 	public DownloadTask(String URL) {
 		_URL = URL;
 	}
 
 	/**
-	 * Uses wget with progress dots and continue options to download the input
-	 * URL. Uses Java's pattern class to find the percentages such as "25%" and
-	 * send these to the EDT to update the GUI.
+	 * Returns where in the input library a URL is downloaded to.
+	 */
+	public static File targetFor(String URL) {
+		return new File(Library.inputDir + URL.substring(URL.lastIndexOf(File.separator), URL.length()));
+	}
+
+	/**
+	 * Caps the download rate with a bucket that may be shared with other
+	 * downloads.
+	 */
+	public void setBandwidth(TokenBucket bandwidth) {
+		_bandwidth = bandwidth;
+	}
+
+	/**
+	 * Makes the download check the file against a checksum. The checksum is
+	 * given as "md5:hex" or "sha256:hex", or as just the hex in which case
+	 * the algorithm is chosen by its length.
 	 * 
+	 * @throws IllegalArgumentException
+	 *             if the checksum is not in one of those forms
+	 */
+	public void setChecksum(String checksum) {
+		parseChecksum(checksum);
+		_checksum = checksum;
+	}
+
+	/**
+	 * Splits a checksum into its algorithm and hex digest.
+	 */
+	private static String[] parseChecksum(String checksum) {
+		String hex = checksum.trim().toLowerCase();
+		String algorithm = null;
+		int colon = hex.indexOf(':');
+		if (colon >= 0) {
+			String name = hex.substring(0, colon).replace("-", "");
+			hex = hex.substring(colon + 1).trim();
+			if (name.equals("md5")) {
+				algorithm = "MD5";
+			} else if (name.equals("sha256")) {
+				algorithm = "SHA-256";
+			} else {
+				throw new IllegalArgumentException("Only MD5 and SHA-256 checksums are supported");
+			}
+		}
+		if (!hex.matches("[0-9a-f]+")) {
+			throw new IllegalArgumentException("The checksum must be in hex");
+		}
+		if (algorithm == null) {
+			algorithm = hex.length() == 32 ? "MD5" : hex.length() == 64 ? "SHA-256" : null;
+		}
+		if (algorithm == null || hex.length() != (algorithm.equals("MD5") ? 32 : 64)) {
+			throw new IllegalArgumentException("The checksum must be 32 (MD5) or 64 (SHA-256) hex digits");
+		}
+		return new String[] { algorithm, hex };
+	}
+
+	/**
+	 * Downloads the input URL into the input library, resuming an earlier
+	 * attempt if there is one, and publishes the progress as it goes.
 	 */
 	@Override
 	protected Void doInBackground() throws Exception {
-		String _basename = _URL.substring(_URL.lastIndexOf(File.separator), _URL.length());
-		inputDir += _basename;
 		errorState = false;
-		ProcessBuilder builder = new ProcessBuilder("/bin/bash", "-c", "wget -A --progress=dot --continue " + "\""
-				+ _URL + "\"" + " -O " + "\"" + inputDir + "\"" + " 2>&1");
-		Process process = null;
-		builder.redirectErrorStream(true);
+		SegmentedDownloader downloader;
 		try {
-			process = builder.start();
-		} catch (IOException e1) {
-			e1.printStackTrace();
+			inputDir = targetFor(_URL).getPath();
+			downloader = new SegmentedDownloader(new URL(_URL), new File(inputDir));
+		} catch (IOException | RuntimeException e) {
+			firePropertyChange("failure", null, "Invalid URL: " + e.getMessage());
+			errorState = true;
+			return null;
 		}
-		InputStream stdout = process.getInputStream();
-		BufferedReader stdoutBuffered = new BufferedReader(new InputStreamReader(stdout));
-		String line = null;
-		String error = null;
-		Pattern p = Pattern.compile("\\d+%");
-		try {
-			while ((line = stdoutBuffered.readLine()) != null) {
-				if (!line.isEmpty()) {
-					error = line;
-				}
-				if (isCancelled()) {
-					process.destroy();
-					return null;
+		downloader.setBandwidth(_bandwidth);
+		if (_checksum != null) {
+			String[] checksum = parseChecksum(_checksum);
+			downloader.setChecksum(checksum[0], checksum[1]);
+		}
+		downloader.setProgressListener(new SegmentedDownloader.ProgressListener() {
+			private int _lastPercent = -1;
+
+			@Override
+			public void progress(long done, long total, double rate) {
+				int percent = total > 0 ? (int) (done * 100 / total) : -1;
+				if (percent != _lastPercent) {
+					_lastPercent = percent;
+					setProgress(Math.max(0, percent));
 				}
-				Matcher m = p.matcher(line);
-				while (m.find()) {
-					String s = m.group();
-					s = s.substring(0, s.length() - 1);
-					publish(s);
+				String speed = String.format("%.1f MB/s", rate / (1024 * 1024));
+				if (percent >= 0) {
+					publish(percent + "% - " + speed);
+				} else {
+					publish(String.format("%.1f MB - %s", done / (1024.0 * 1024), speed));
 				}
 			}
-		} catch (IOException e1) {
-			e1.printStackTrace();
-		}
+		});
 		try {
-			switch (process.waitFor()) {
-			case 1:
-				firePropertyChange("failure", null, "Generic error code");
-				errorState = true;
-				return null;
-			case 2:
-				firePropertyChange("failure", null, "Parse error");
-				errorState = true;
-				break;
-			case 3:
-				firePropertyChange("failure", null, "File I/O error");
-				errorState = true;
-				break;
-			case 4:
-				firePropertyChange("failure", null, "Network failure");
-				errorState = true;
-				break;
-			case 5:
-				firePropertyChange("failure", null, "SSL verification failure");
-				errorState = true;
-				break;
-			case 6:
-				firePropertyChange("failure", null, "Username/password authentication failure");
-				errorState = true;
-				break;
-			case 7:
-				firePropertyChange("failure", null, "Protocol errors");
-				errorState = true;
-				break;
-			case 8:
-				firePropertyChange("failure", null, "Server issued an error response");
-				errorState = true;
-				break;
+			if (downloader.download()) {
+				storeDuplicateAsLink();
+				publish("Checking download...");
+				verify();
 			}
-			return null;
-		} catch (InterruptedException e1) {
-			e1.printStackTrace();
+		} catch (IOException e) {
+			firePropertyChange("failure", null, e.getMessage());
+			errorState = true;
 		}
 		return null;
 	}
@@ -132,7 +169,15 @@ public class DownloadTask extends SwingWorker<Void, String> {
 		try {
 			if (errorState == false) {
 				this.get();
-				firePropertyChange("_progressLabel", null, "Download Complete!");
+				if (_broken != null) {
+					firePropertyChange("_progressLabel", null, "Download Complete! Broken: " + _broken);
+				} else if (_duplicateOf != null) {
+					firePropertyChange("_progressLabel", null, "Download Complete! Same as "
+							+ new File(_duplicateOf).getName() + ", stored as a link.");
+				} else {
+					firePropertyChange("_progressLabel", null, "Download Complete! Verified.");
+				}
+				firePropertyChange("success", null, inputDir);
 			}
 		} catch (CancellationException e) {
 			firePropertyChange("cancelled", null, "Download Stopped!");
@@ -145,14 +190,50 @@ public class DownloadTask extends SwingWorker<Void, String> {
 		return;
 	}
 
+	/**
+	 * Probes the finished download and records in the library index whether
+	 * it is playable. A file avprobe cannot read, with no streams, or that
+	 * avprobe says is cut short is broken.
+	 */
+	private void verify() {
+		MediaProbe probe = MediaProbe.getInstance();
+		probe.invalidate(inputDir);
+		MediaInfo info = probe.probe(inputDir);
+		String details = info.getDetails();
+		if (details.contains("Invalid data found") || details.contains("moov atom not found")) {
+			_broken = "not a readable media file";
+		} else if (details.toLowerCase().contains("truncat")) {
+			_broken = "the file is truncated";
+		} else if (!info.hasAudio() && !info.hasVideo()) {
+			_broken = "no audio or video streams found";
+		}
+		MediaIndex.getInstance().setIntegrity(inputDir,
+				_broken == null ? MediaIndex.Integrity.VERIFIED : MediaIndex.Integrity.BROKEN);
+	}
+
+	/**
+	 * If the library already has a file with the same content as the one just
+	 * downloaded, replaces the download with a hard link to it so the clip is
+	 * only stored once.
+	 */
+	private void storeDuplicateAsLink() {
+		try {
+			ContentIndex index = ContentIndex.getInstance();
+			String existing = index.findDuplicate(new File(inputDir));
+			if (existing != null) {
+				index.link(existing, new File(inputDir).toPath());
+				_duplicateOf = existing;
+			}
+		} catch (IOException e) {
+			// Keep the downloaded copy
+		}
+	}
+
 	/**
 	 * Update progress
 	 */
 	@Override
 	protected void process(List<String> chunks) {
-		for (String s : chunks) {
-			setProgress(Integer.parseInt(s));
-			firePropertyChange("_progressLabel", null, s + "%");
-		}
+		firePropertyChange("_progressLabel", null, chunks.get(chunks.size() - 1));
 	}
 }
@@ -1,12 +1,7 @@
 package processes.file;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-
-import javax.swing.SwingWorker;
+import java.util.Set;
 
 /**
  * This class can check information about a given file useful for the
@@ -36,33 +31,21 @@ public class FileChecker {
 	}
 
 	/**
-	 * Method to check that a file is truly an audio file by calling file on it
-	 * and checking whether it contains the word "audio" in it.
+	 * Method to check that a file is truly an audio or video file by checking
+	 * whether it has a stream of the given type. A probe result already shared
+	 * through {@link MediaProbe} is used if there is one, otherwise the
+	 * container header is read by {@link ContainerSniffer}, and avprobe is only
+	 * started for containers the sniffer does not know.
 	 */
 	public boolean checkAVFile(String type) {
-		ProcessBuilder builder = new ProcessBuilder("/bin/bash", "-c", "avprobe " + _file + " 2>&1  | grep -wi '"
-				+ type + "'");
-		Process process = null;
-		builder.redirectErrorStream(true);
-		try {
-			process = builder.start();
-
-		} catch (IOException e1) {
-			e1.printStackTrace();
-		}
-		InputStream stdout = process.getInputStream();
-		BufferedReader stdoutBuffered = new BufferedReader(new InputStreamReader(stdout));
-		try {
-			if (stdoutBuffered.readLine() != null) {
-				return true;
-			} else {
-				return false;
+		MediaProbe probe = MediaProbe.getInstance();
+		if (probe.getCached(_file) == null) {
+			Set<String> streams = ContainerSniffer.sniff(_file);
+			if (streams != null) {
+				return streams.contains(type.toLowerCase());
 			}
-		} catch (IOException e1) {
-			e1.printStackTrace();
 		}
-		return false;
-
+		return probe.probe(_file).hasStream(type);
 	}
 
 }
@@ -20,12 +20,22 @@ public class ImportTask extends SwingWorker<Void, Void> {
 	private Path _input;
 	private Path _importPath;
 	private boolean errorState = false;
+	private boolean _allowDuplicate = false;
 
 	public ImportTask(Path input, Path importPath) {
 		_input = input;
 		_importPath = importPath;
 	}
 
+	/**
+	 * Sets whether the file is copied even if the input library already holds
+	 * a file with the same content. If not, "duplicate" is fired with the path
+	 * of that file instead of copying.
+	 */
+	public void setAllowDuplicate(boolean allow) {
+		_allowDuplicate = allow;
+	}
+
 	@Override
 	protected Void doInBackground() throws Exception {
 		FileChecker fc = new FileChecker(_input.toString());
@@ -36,6 +46,16 @@ public class ImportTask extends SwingWorker<Void, Void> {
 			errorState = true;
 			return null;
 		}
+		if (!_allowDuplicate) {
+			// Let the user decide what to do with a clip that is already in the
+			// library
+			String existing = ContentIndex.getInstance().findDuplicate(_input.toFile());
+			if (existing != null) {
+				firePropertyChange("duplicate", null, existing);
+				errorState = true;
+				return null;
+			}
+		}
 
 		try {
 			Files.copy(_input, _importPath);
@@ -0,0 +1,95 @@
+package processes.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.swing.SwingWorker;
+
+import processes.JobScheduler;
+
+/**
+ * This task brings the persistent media index up to date with the library
+ * directories when VAMIX starts. Only files that are new or have changed since
+ * the last session are probed, and entries for files that no longer exist are
+ * dropped. This is done in the background so the library can be shown
+ * straight away.
+ *
+ * The directories are listed on the I/O lane, and each stale file is probed
+ * in its own batch job so the pass never holds a CPU slot for long.
+ *
+ * @author Harry She
+ */
+public class IndexTask extends SwingWorker<Void, Void> {
+
+	private String[] _dirs;
+	// Probes handed to the scheduler, cancelled along with this task
+	private final List<Probe> _probes = new ArrayList<Probe>();
+
+	public IndexTask(String... dirs) {
+		_dirs = dirs;
+	}
+
+	@Override
+	protected Void doInBackground() throws Exception {
+		MediaIndex index = MediaIndex.getInstance();
+		Set<String> paths = new HashSet<String>();
+		for (String dir : _dirs) {
+			File[] files = new File(dir).listFiles();
+			if (files == null) {
+				continue;
+			}
+			for (File f : files) {
+				if (!f.isFile()) {
+					continue;
+				}
+				paths.add(f.getPath());
+			}
+		}
+		index.retainOnly(paths);
+		for (String path : paths) {
+			if (!index.isCurrent(new File(path))) {
+				Probe probe = new Probe(path);
+				synchronized (_probes) {
+					if (isCancelled()) {
+						return null;
+					}
+					_probes.add(probe);
+				}
+				JobScheduler.getInstance().submit(probe, JobScheduler.Priority.BATCH);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	protected void done() {
+		if (isCancelled()) {
+			synchronized (_probes) {
+				for (Probe probe : _probes) {
+					JobScheduler.getInstance().cancel(probe);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Probes one file, which records it in the index.
+	 */
+	private static class Probe extends SwingWorker<Void, Void> {
+		private final String _path;
+
+		Probe(String path) {
+			_path = path;
+		}
+
+		@Override
+		protected Void doInBackground() {
+			MediaProbe.getInstance().probe(_path);
+			return null;
+		}
+	}
+
+}
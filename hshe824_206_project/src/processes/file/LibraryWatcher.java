@@ -0,0 +1,187 @@
+package processes.file;
+
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Watches the library directories for files being added, removed or changed,
+ * so the Library trees can be updated one node at a time instead of being
+ * rebuilt.
+ *
+ * Events are debounced: once something changes, events keep being collected
+ * until the directories have been quiet for DEBOUNCE_MILLIS, or at most
+ * MAX_DELAY_MILLIS, and are then coalesced into one batch per directory
+ * holding the names of the files that changed. A bulk import of hundreds of
+ * files therefore gives a single update. The batches are published on the EDT
+ * as "libraryChanged" property changes whose new value is a {@link Changes}.
+ *
+ * @author Harry She
+ *
+ */
+public class LibraryWatcher {
+	// Quiet time that ends a batch
+	private static final long DEBOUNCE_MILLIS = 200;
+	// Longest a batch is held back while changes keep coming
+	private static final long MAX_DELAY_MILLIS = 1000;
+
+	/**
+	 * The files of one directory that changed in some way. Whether each was
+	 * added, removed or modified is found by looking at the directory, as a
+	 * file may have been created and deleted again within the batch.
+	 */
+	public static final class Changes {
+		private final String _dir;
+		private final Set<String> _names;
+		private final boolean _rescan;
+
+		private Changes(String dir, Set<String> names, boolean rescan) {
+			_dir = dir;
+			_names = Collections.unmodifiableSet(names);
+			_rescan = rescan;
+		}
+
+		public String getDir() {
+			return _dir;
+		}
+
+		/**
+		 * Returns the names of the files that changed.
+		 */
+		public Set<String> getNames() {
+			return _names;
+		}
+
+		/**
+		 * Returns true if events were lost, in which case the whole directory
+		 * has to be compared with the tree.
+		 */
+		public boolean isRescan() {
+			return _rescan;
+		}
+	}
+
+	private final WatchService _watcher;
+	private final Map<WatchKey, String> _dirs = new HashMap<WatchKey, String>();
+	private final PropertyChangeSupport _pcs = new PropertyChangeSupport(this);
+
+	/**
+	 * Starts watching the given directories.
+	 *
+	 * @param dirs
+	 * @throws IOException
+	 *             if the directories cannot be watched
+	 */
+	public LibraryWatcher(String... dirs) throws IOException {
+		_watcher = FileSystems.getDefault().newWatchService();
+		for (String dir : dirs) {
+			WatchKey key = Paths.get(dir).register(_watcher, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+			_dirs.put(key, dir);
+		}
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "vamix-library-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Adds a listener that is told about each batch of changes on the EDT.
+	 */
+	public void addPropertyChangeListener(PropertyChangeListener listener) {
+		_pcs.addPropertyChangeListener(listener);
+	}
+
+	public void removePropertyChangeListener(PropertyChangeListener listener) {
+		_pcs.removePropertyChangeListener(listener);
+	}
+
+	/**
+	 * Body of the watching thread.
+	 */
+	private void watch() {
+		Map<String, Set<String>> names = new HashMap<String, Set<String>>();
+		Set<String> rescan = new HashSet<String>();
+		try {
+			while (true) {
+				// Wait for the first change, then collect until things go quiet
+				WatchKey key = _watcher.take();
+				long deadline = System.currentTimeMillis() + MAX_DELAY_MILLIS;
+				while (key != null) {
+					collect(key, names, rescan);
+					long wait = Math.min(DEBOUNCE_MILLIS, deadline - System.currentTimeMillis());
+					key = wait > 0 ? _watcher.poll(wait, TimeUnit.MILLISECONDS) : null;
+				}
+				publish(names, rescan);
+				names = new HashMap<String, Set<String>>();
+				rescan = new HashSet<String>();
+			}
+		} catch (InterruptedException e) {
+			// Stopped
+		}
+	}
+
+	/**
+	 * Adds the events of a key to the batch.
+	 */
+	private void collect(WatchKey key, Map<String, Set<String>> names, Set<String> rescan) {
+		String dir = _dirs.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (dir == null) {
+				continue;
+			}
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				rescan.add(dir);
+				continue;
+			}
+			Set<String> dirNames = names.get(dir);
+			if (dirNames == null) {
+				dirNames = new HashSet<String>();
+				names.put(dir, dirNames);
+			}
+			dirNames.add(((Path) event.context()).getFileName().toString());
+		}
+		if (!key.reset()) {
+			// The directory has gone, there is nothing more to watch in it
+			_dirs.remove(key);
+		}
+	}
+
+	/**
+	 * Hands a finished batch to the EDT.
+	 */
+	private void publish(Map<String, Set<String>> names, Set<String> rescan) {
+		Set<String> dirs = new HashSet<String>(names.keySet());
+		dirs.addAll(rescan);
+		for (String dir : dirs) {
+			Set<String> dirNames = names.get(dir);
+			final Changes changes = new Changes(dir, dirNames == null ? new HashSet<String>() : dirNames,
+					rescan.contains(dir));
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					_pcs.firePropertyChange("libraryChanged", null, changes);
+				}
+			});
+		}
+	}
+}
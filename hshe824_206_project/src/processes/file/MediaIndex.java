@@ -0,0 +1,441 @@
+package processes.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import model.MediaInfo;
+
+/**
+ * Persistent index of avprobe results for the files in the VAMIX libraries so
+ * that metadata survives between sessions. The index is an append-only file
+ * under ~/vamix: every probed file adds a record and removals add a tombstone,
+ * with the file being compacted once most of its records are superseded.
+ *
+ * Each record holds the path, size, last modified time, a sampled content hash,
+ * whether the file has been found to be intact or broken, and the raw avprobe
+ * output, which is parsed back into a {@link MediaInfo} when it is first
+ * needed. The index is only read from disk on first use.
+ *
+ * @author Harry She
+ *
+ */
+public class MediaIndex {
+	// Singleton - only one index file
+	private static MediaIndex theInstance = null;
+
+	final public static String indexFile = System.getProperty("user.home") + File.separator + "vamix"
+			+ File.separator + "media.index";
+
+	private static final int MAGIC = 0x564d4958;
+	// Version 1 records have no integrity
+	private static final int VERSION = 2;
+	private static final byte PUT = 'P';
+	private static final byte REMOVE = 'R';
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * What is known about whether a file is intact.
+	 */
+	public enum Integrity {
+		// Not checked
+		UNKNOWN,
+		// Checked after being downloaded and found to hold media
+		VERIFIED,
+		// Checked and found to be truncated or corrupt
+		BROKEN
+	}
+
+	/**
+	 * A single file's entry in the index.
+	 */
+	private static class Entry {
+		long size;
+		long lastModified;
+		String hash;
+		Integrity integrity = Integrity.UNKNOWN;
+		String details;
+		MediaInfo info;
+	}
+
+	private final File _file;
+	private Map<String, Entry> _entries = null;
+	private int _records;
+	private DataOutputStream _out;
+
+	private MediaIndex(File file) {
+		_file = file;
+	}
+
+	/**
+	 * Grab the singleton instance of this class.
+	 *
+	 * @return
+	 */
+	public static synchronized MediaIndex getInstance() {
+		if (theInstance == null) {
+			theInstance = new MediaIndex(new File(indexFile));
+		}
+		return theInstance;
+	}
+
+	/**
+	 * Returns the indexed information for a file if the file still has the
+	 * size and modification time it had when it was probed.
+	 *
+	 * @param path
+	 * @return the information or null if the file is unknown or has changed
+	 */
+	public synchronized MediaInfo lookup(String path) {
+		Entry e = load().get(path);
+		if (e == null) {
+			return null;
+		}
+		File f = new File(path);
+		if (f.length() != e.size || f.lastModified() != e.lastModified) {
+			remove(path);
+			return null;
+		}
+		if (e.info == null) {
+			e.info = MediaProbe.parse(path, e.size, e.lastModified, e.details);
+		}
+		return e.info;
+	}
+
+	/**
+	 * Returns the content hash recorded for a file or null if there is none.
+	 */
+	public synchronized String getHash(String path) {
+		Entry e = load().get(path);
+		return e == null ? null : e.hash;
+	}
+
+	/**
+	 * Returns whether a file is known to be intact or broken. Files that have
+	 * changed since they were checked are UNKNOWN.
+	 */
+	public synchronized Integrity getIntegrity(File file) {
+		Entry e = load().get(file.getPath());
+		if (e == null || e.size != file.length() || e.lastModified != file.lastModified()) {
+			return Integrity.UNKNOWN;
+		}
+		return e.integrity;
+	}
+
+	/**
+	 * Marks an indexed file as intact or broken. Files that are not in the
+	 * index, which has to happen by probing them first, are left alone.
+	 *
+	 * @return true if the file was marked
+	 */
+	public synchronized boolean setIntegrity(String path, Integrity integrity) {
+		Entry e = load().get(path);
+		if (e == null) {
+			return false;
+		}
+		e.integrity = integrity;
+		try {
+			DataOutputStream out = output();
+			writeEntry(out, path, e);
+			out.flush();
+			_records++;
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether the index holds an up to date entry for a file without
+	 * parsing it.
+	 */
+	public synchronized boolean isCurrent(File file) {
+		Entry e = load().get(file.getPath());
+		return e != null && e.size == file.length() && e.lastModified == file.lastModified();
+	}
+
+	/**
+	 * Records the result of probing a file. The sampled content hash is
+	 * computed here so every indexed file carries one.
+	 *
+	 * @param info
+	 */
+	public void record(MediaInfo info) {
+		String hash = null;
+		try {
+			hash = ContentHash.sampled(new File(info.getPath()));
+		} catch (IOException e) {
+			// Keep the probe result even if the file cannot be hashed
+		}
+		record(info, hash);
+	}
+
+	/**
+	 * Records the result of probing a file along with a known content hash.
+	 */
+	public synchronized void record(MediaInfo info, String hash) {
+		Entry e = new Entry();
+		e.size = info.getSize();
+		e.lastModified = info.getLastModified();
+		e.hash = hash;
+		e.details = info.getDetails();
+		e.info = info;
+		Entry old = load().get(info.getPath());
+		if (old != null && old.size == e.size && old.lastModified == e.lastModified) {
+			// Probed again but still the same file
+			e.integrity = old.integrity;
+		}
+		load().put(info.getPath(), e);
+		try {
+			DataOutputStream out = output();
+			writeEntry(out, info.getPath(), e);
+			out.flush();
+			_records++;
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * Removes a file from the index.
+	 */
+	public synchronized void remove(String path) {
+		if (load().remove(path) == null) {
+			return;
+		}
+		try {
+			DataOutputStream out = output();
+			out.writeByte(REMOVE);
+			out.writeUTF(path);
+			out.flush();
+			_records++;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Drops every entry whose path is not in the given set, i.e. files that
+	 * have been deleted or moved out of the libraries since the last session.
+	 *
+	 * @param paths
+	 *            the paths that currently exist
+	 */
+	public synchronized void retainOnly(Set<String> paths) {
+		List<String> stale = new ArrayList<String>();
+		for (String path : load().keySet()) {
+			if (!paths.contains(path)) {
+				stale.add(path);
+			}
+		}
+		for (String path : stale) {
+			remove(path);
+		}
+		compactIfNeeded();
+	}
+
+	/**
+	 * Rewrites the index file with only the live entries once more than half
+	 * of the records in it have been superseded.
+	 */
+	public synchronized void compactIfNeeded() {
+		if (_records > 64 && _records > 2 * load().size()) {
+			compact();
+		}
+	}
+
+	/**
+	 * Reads the index file the first time it is needed.
+	 */
+	private Map<String, Entry> load() {
+		if (_entries != null) {
+			return _entries;
+		}
+		_entries = new HashMap<String, Entry>();
+		_records = 0;
+		if (!_file.exists()) {
+			return _entries;
+		}
+		boolean truncated = false;
+		long length = _file.length();
+		CountingInputStream counter = null;
+		try (DataInputStream in = new DataInputStream(counter = new CountingInputStream(new BufferedInputStream(
+				new FileInputStream(_file))))) {
+			int version = 0;
+			if (in.readInt() != MAGIC || (version = in.readInt()) < 1 || version > VERSION) {
+				truncated = true;
+			} else {
+				// Older files are read and then rewritten in the current format
+				truncated = version < VERSION;
+				while (true) {
+					int type;
+					try {
+						type = in.readByte();
+					} catch (EOFException e) {
+						break;
+					}
+					String path = in.readUTF();
+					if (type == PUT) {
+						Entry e = new Entry();
+						e.size = in.readLong();
+						e.lastModified = in.readLong();
+						String hash = in.readUTF();
+						e.hash = hash.isEmpty() ? null : hash;
+						if (version >= 2) {
+							int integrity = in.readByte();
+							e.integrity = integrity >= 0 && integrity < Integrity.values().length ? Integrity
+									.values()[integrity] : Integrity.UNKNOWN;
+						}
+						int size = in.readInt();
+						if (size < 0 || size > length - counter.getCount()) {
+							// A damaged length, keep what was read before it
+							truncated = true;
+							break;
+						}
+						byte[] details = new byte[size];
+						in.readFully(details);
+						e.details = new String(details, UTF8);
+						_entries.put(path, e);
+					} else if (type == REMOVE) {
+						_entries.remove(path);
+					} else {
+						truncated = true;
+						break;
+					}
+					_records++;
+				}
+			}
+		} catch (EOFException e) {
+			// A record was only partly written when VAMIX last exited
+			truncated = true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			truncated = true;
+		}
+		if (truncated) {
+			compact();
+		}
+		return _entries;
+	}
+
+	/**
+	 * Writes all live entries to a fresh file and replaces the old one with it.
+	 */
+	private void compact() {
+		closeOutput();
+		File tmp = new File(_file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+				writeEntry(out, e.getKey(), e.getValue());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			tmp.delete();
+			return;
+		}
+		try {
+			// Never leave a moment without an index file
+			Files.move(tmp.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			_records = _entries.size();
+		} catch (IOException e) {
+			e.printStackTrace();
+			tmp.delete();
+		}
+	}
+
+	private DataOutputStream output() throws IOException {
+		if (_out == null) {
+			boolean isNew = !_file.exists() || _file.length() == 0;
+			_file.getParentFile().mkdirs();
+			_out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(_file, true)));
+			if (isNew) {
+				_out.writeInt(MAGIC);
+				_out.writeInt(VERSION);
+			}
+		}
+		return _out;
+	}
+
+	private void closeOutput() {
+		if (_out != null) {
+			try {
+				_out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			_out = null;
+		}
+	}
+
+	private static void writeEntry(DataOutputStream out, String path, Entry e) throws IOException {
+		out.writeByte(PUT);
+		out.writeUTF(path);
+		out.writeLong(e.size);
+		out.writeLong(e.lastModified);
+		out.writeUTF(e.hash == null ? "" : e.hash);
+		out.writeByte(e.integrity.ordinal());
+		byte[] details = e.details.getBytes(UTF8);
+		out.writeInt(details.length);
+		out.write(details);
+	}
+
+	/**
+	 * Counts the bytes read through it, so lengths read from the index can be
+	 * checked against what is left of the file.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private long _count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		long getCount() {
+			return _count;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				_count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				_count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			_count += skipped;
+			return skipped;
+		}
+	}
+}
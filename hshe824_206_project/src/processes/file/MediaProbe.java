@@ -0,0 +1,294 @@
+package processes.file;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import model.MediaInfo;
+import ui.filesystem.Library;
+
+/**
+ * Shared service that runs avprobe once per media file and parses its output
+ * into a {@link MediaInfo}. Results are kept in a least recently used cache
+ * keyed by the file path and are only reused while the size and last modified
+ * time of the file are unchanged, so the library tree, the file checker and
+ * the editing tasks no longer each fork their own avprobe for the same file.
+ *
+ * @author Harry She
+ *
+ */
+public class MediaProbe {
+	// Singleton - one cache shared by the whole application
+	private static MediaProbe theInstance = null;
+
+	// Maximum number of files kept in the cache
+	private static final int CACHE_SIZE = 512;
+
+	private static final Pattern RESOLUTION = Pattern.compile("\\b(\\d{2,5})x(\\d{2,5})\\b");
+
+	private final Map<String, MediaInfo> _cache;
+
+	private MediaProbe() {
+		_cache = new LinkedHashMap<String, MediaInfo>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, MediaInfo> eldest) {
+				return size() > CACHE_SIZE;
+			}
+		};
+	}
+
+	/**
+	 * Grab the singleton instance of this class.
+	 *
+	 * @return
+	 */
+	public static synchronized MediaProbe getInstance() {
+		if (theInstance == null) {
+			theInstance = new MediaProbe();
+		}
+		return theInstance;
+	}
+
+	/**
+	 * Returns the media information for the given file, running avprobe only if
+	 * the file has not been probed before or has changed since. Library files
+	 * are also looked up in, and recorded to, the persistent {@link MediaIndex}.
+	 *
+	 * @param file
+	 * @return
+	 */
+	public MediaInfo probe(String file) {
+		MediaInfo info = getCached(file);
+		if (info != null) {
+			return info;
+		}
+		File f = new File(file);
+		if (isLibraryFile(f)) {
+			info = MediaIndex.getInstance().lookup(file);
+			if (info != null) {
+				synchronized (_cache) {
+					_cache.put(file, info);
+				}
+				return info;
+			}
+		}
+		long size = f.length();
+		long lastModified = f.lastModified();
+		info = parse(file, size, lastModified, runProbe(file));
+		if (f.isFile()) {
+			synchronized (_cache) {
+				_cache.put(file, info);
+			}
+			if (isLibraryFile(f)) {
+				MediaIndex.getInstance().record(info);
+			}
+		}
+		return info;
+	}
+
+	/**
+	 * Only files in the input and output libraries are kept in the persistent
+	 * index, anything else is cached for this session only.
+	 */
+	private static boolean isLibraryFile(File f) {
+		String parent = f.getParent();
+		return parent != null && (parent.equals(Library.inputDir) || parent.equals(Library.outputDir));
+	}
+
+	/**
+	 * Returns the cached media information for the given file if it is still
+	 * valid, without ever starting avprobe.
+	 *
+	 * @param file
+	 * @return the cached information or null if the file needs probing
+	 */
+	public MediaInfo getCached(String file) {
+		MediaInfo info;
+		synchronized (_cache) {
+			info = _cache.get(file);
+		}
+		if (info == null) {
+			return null;
+		}
+		File f = new File(file);
+		if (f.length() != info.getSize() || f.lastModified() != info.getLastModified()) {
+			invalidate(file);
+			return null;
+		}
+		return info;
+	}
+
+	/**
+	 * Removes a file from the cache, e.g. after it has been deleted or
+	 * overwritten.
+	 *
+	 * @param file
+	 */
+	public void invalidate(String file) {
+		synchronized (_cache) {
+			_cache.remove(file);
+		}
+		MediaIndex.getInstance().remove(file);
+	}
+
+	/**
+	 * Runs avprobe on the file and returns everything it printed.
+	 */
+	private String runProbe(String file) {
+		ProcessBuilder builder = new ProcessBuilder("avprobe", file);
+		builder.redirectErrorStream(true);
+		StringBuilder sb = new StringBuilder();
+		try {
+			Process process = builder.start();
+			InputStream stdout = process.getInputStream();
+			BufferedReader stdoutBuffered = new BufferedReader(new InputStreamReader(stdout));
+			String line;
+			while ((line = stdoutBuffered.readLine()) != null) {
+				sb.append(line).append(System.getProperty("line.separator"));
+			}
+			process.waitFor();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Parses the human readable avprobe output. The lines of interest look
+	 * like:
+	 *
+	 * <pre>
+	 *   Duration: 00:01:02.03, start: 0.000000, bitrate: 1234 kb/s
+	 *     Stream #0:0(und): Video: h264 (High), yuv420p, 1280x720, 25 fps, 25 tbr
+	 *     Stream #0:1(und): Audio: aac, 44100 Hz, stereo, fltp, 128 kb/s
+	 * </pre>
+	 */
+	static MediaInfo parse(String file, long size, long lastModified, String output) {
+		double duration = 0;
+		int bitrate = 0;
+		int width = 0;
+		int height = 0;
+		double frameRate = 0;
+		int sampleRate = 0;
+		String channelLayout = null;
+		List<MediaInfo.Stream> streams = new ArrayList<MediaInfo.Stream>();
+
+		for (String line : output.split("\\r?\\n")) {
+			String trimmed = line.trim();
+			if (trimmed.startsWith("Duration:")) {
+				String[] parts = trimmed.substring("Duration:".length()).split(",");
+				duration = parseTime(parts[0].trim());
+				for (String part : parts) {
+					part = part.trim();
+					if (part.startsWith("bitrate:")) {
+						bitrate = parseLeadingInt(part.substring("bitrate:".length()).trim());
+					}
+				}
+			} else if (trimmed.startsWith("Stream #")) {
+				int typeStart = trimmed.indexOf(": ");
+				if (typeStart < 0) {
+					continue;
+				}
+				String rest = trimmed.substring(typeStart + 2);
+				int typeEnd = rest.indexOf(':');
+				if (typeEnd < 0) {
+					continue;
+				}
+				String type = rest.substring(0, typeEnd).trim();
+				String description = rest.substring(typeEnd + 1).trim();
+				String codec = description;
+				int codecEnd = codec.indexOf(',');
+				if (codecEnd >= 0) {
+					codec = codec.substring(0, codecEnd);
+				}
+				codecEnd = codec.indexOf(' ');
+				if (codecEnd >= 0) {
+					codec = codec.substring(0, codecEnd);
+				}
+				streams.add(new MediaInfo.Stream(type, codec, description));
+
+				// Only the first video stream determines the picture size
+				if (type.equalsIgnoreCase("Video") && width == 0) {
+					Matcher m = RESOLUTION.matcher(description);
+					if (m.find()) {
+						width = Integer.parseInt(m.group(1));
+						height = Integer.parseInt(m.group(2));
+					}
+					frameRate = parseFrameRate(description);
+				} else if (type.equalsIgnoreCase("Audio") && sampleRate == 0) {
+					// e.g. "aac, 44100 Hz, stereo, fltp, 128 kb/s"
+					String[] parts = description.split(",");
+					for (int i = 0; i < parts.length; i++) {
+						String part = parts[i].trim();
+						if (part.endsWith(" Hz")) {
+							sampleRate = parseLeadingInt(part);
+							if (i + 1 < parts.length) {
+								channelLayout = parts[i + 1].trim();
+							}
+							break;
+						}
+					}
+				}
+			}
+		}
+		return new MediaInfo(file, size, lastModified, duration, bitrate, width, height, frameRate, sampleRate,
+				channelLayout, streams, output);
+	}
+
+	/**
+	 * Converts a HH:MM:SS.ss time into seconds, returning 0 for "N/A" or
+	 * anything else that cannot be parsed.
+	 */
+	static double parseTime(String time) {
+		String[] hoursMinsSecs = time.split(":");
+		if (hoursMinsSecs.length != 3) {
+			return 0;
+		}
+		try {
+			return Integer.parseInt(hoursMinsSecs[0].trim()) * 3600 + Integer.parseInt(hoursMinsSecs[1].trim()) * 60
+					+ Double.parseDouble(hoursMinsSecs[2].trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Finds the "25 fps" (or failing that "25 tbr") entry of a video stream.
+	 */
+	private static double parseFrameRate(String description) {
+		double tbr = 0;
+		for (String part : description.split(",")) {
+			part = part.trim();
+			try {
+				if (part.endsWith(" fps")) {
+					return Double.parseDouble(part.substring(0, part.length() - 4).trim());
+				} else if (part.endsWith(" tbr") && tbr == 0) {
+					tbr = Double.parseDouble(part.substring(0, part.length() - 4).trim());
+				}
+			} catch (NumberFormatException e) {
+				// e.g. "25k tbr", ignore
+			}
+		}
+		return tbr;
+	}
+
+	private static int parseLeadingInt(String s) {
+		int value = 0;
+		for (int i = 0; i < s.length() && Character.isDigit(s.charAt(i)); i++) {
+			value = value * 10 + (s.charAt(i) - '0');
+		}
+		return value;
+	}
+}
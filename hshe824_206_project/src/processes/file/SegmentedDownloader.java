@@ -0,0 +1,733 @@
+package processes.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads a file over HTTP using several connections at once, each fetching
+ * its own byte range of the file, so a large download is not held back by the
+ * speed of a single connection.
+ *
+ * The file is preallocated as a ".part" file under ~/vamix/downloads and each
+ * segment writes straight to its place in it with positional writes. How far
+ * every segment has got is saved next to it in a ".state" file, so a download
+ * that is stopped, fails or is interrupted by VAMIX exiting carries on where
+ * it left off the next time. The state remembers the server's ETag or
+ * Last-Modified date and is thrown away if the file changes on the server.
+ * A segment whose connection drops is retried on its own, a few times, without
+ * disturbing the others.
+ *
+ * Servers that do not support byte ranges are downloaded over a single
+ * connection, from the start each time. The rate of a download can be capped
+ * with a {@link TokenBucket}.
+ *
+ * If a checksum is given the file is hashed while it downloads, and only moved
+ * to the target if it matches. Bytes are hashed straight from the network as
+ * they arrive in order. Bytes of later segments that arrive ahead of the hash
+ * are hashed from the part file, still in the page cache, as soon as the
+ * bytes before them are in, so no separate pass over the file is needed once
+ * it is complete. A resumed download hashes what it already had first.
+ *
+ * @author Harry She
+ *
+ */
+public class SegmentedDownloader {
+	final public static String downloadDir = System.getProperty("user.home") + File.separator + "vamix"
+			+ File.separator + "downloads";
+
+	// Number of connections used unless the "vamix.downloadSegments" system
+	// property says otherwise
+	private static final int DEFAULT_SEGMENTS = 4;
+	// Files are not split into segments smaller than this
+	private static final long MIN_SEGMENT = 1024 * 1024;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// Attempts at a segment that keeps failing without making progress
+	private static final int MAX_RETRIES = 5;
+	private static final long RETRY_MILLIS = 1000;
+	private static final int CONNECT_TIMEOUT = 15000;
+	private static final int READ_TIMEOUT = 30000;
+	private static final long PROGRESS_MILLIS = 200;
+	private static final long SAVE_MILLIS = 1000;
+
+	/**
+	 * Told how far the download has got, on the thread that called
+	 * {@link SegmentedDownloader#download()}.
+	 */
+	public interface ProgressListener {
+		/**
+		 * @param done
+		 *            bytes downloaded
+		 * @param total
+		 *            size of the file in bytes, or -1 if the server did not say
+		 * @param rate
+		 *            bytes per second over this run of the download
+		 */
+		void progress(long done, long total, double rate);
+	}
+
+	/**
+	 * A byte range of the file and how much of it has been written.
+	 */
+	private static class Segment {
+		final long start;
+		// Last byte of the range, or -1 for the rest of the file
+		final long end;
+		volatile long done;
+		volatile boolean finished;
+
+		Segment(long start, long end, long done) {
+			this.start = start;
+			this.end = end;
+			this.done = done;
+		}
+
+		boolean isComplete() {
+			return finished || (end >= 0 && done > end - start);
+		}
+	}
+
+	/**
+	 * Thrown when the server sends the whole file in answer to a range
+	 * request, meaning the file has changed since the download began.
+	 */
+	private static class ChangedException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		ChangedException() {
+			super("The file has changed on the server");
+		}
+	}
+
+	private final URL _url;
+	private final File _target;
+	private final File _part;
+	private final File _state;
+	private final int _maxSegments;
+	private ProgressListener _listener;
+	private TokenBucket _bandwidth;
+
+	private long _length = -1;
+	private String _validator;
+	private List<Segment> _segments;
+	private FileChannel _channel;
+
+	// Checksum of the whole file, hashed in order up to _hashed
+	private String _algorithm;
+	private String _expected;
+	private MessageDigest _digest;
+	private long _hashed;
+	private final Object _hashLock = new Object();
+
+	private volatile boolean _stopped;
+	private volatile IOException _error;
+	private final Set<HttpURLConnection> _connections = new HashSet<HttpURLConnection>();
+
+	/**
+	 * @param url
+	 * @param target
+	 *            where the finished file goes
+	 */
+	public SegmentedDownloader(URL url, File target) {
+		_url = url;
+		_target = target;
+		_part = new File(downloadDir, target.getName() + ".part");
+		_state = new File(downloadDir, target.getName() + ".state");
+		int segments = DEFAULT_SEGMENTS;
+		try {
+			segments = Integer.parseInt(System.getProperty("vamix.downloadSegments", Integer.toString(segments)));
+		} catch (NumberFormatException e) {
+			// Keep the default
+		}
+		_maxSegments = Math.max(1, segments);
+	}
+
+	public void setProgressListener(ProgressListener listener) {
+		_listener = listener;
+	}
+
+	/**
+	 * Limits the rate data is received at to what the bucket allows. The
+	 * bucket may be shared with other downloads.
+	 */
+	public void setBandwidth(TokenBucket bandwidth) {
+		_bandwidth = bandwidth;
+	}
+
+	/**
+	 * Makes the download check the file against a checksum before moving it
+	 * to the target.
+	 *
+	 * @param algorithm
+	 *            "MD5" or "SHA-256"
+	 * @param expected
+	 *            the checksum in hex
+	 */
+	public void setChecksum(String algorithm, String expected) {
+		_algorithm = algorithm;
+		_expected = expected.toLowerCase();
+	}
+
+	/**
+	 * Returns true if part of this download has been saved by an earlier run.
+	 */
+	public boolean hasPartial() {
+		return _state.exists() && _part.exists();
+	}
+
+	/**
+	 * Throws away anything saved by earlier runs of this download.
+	 */
+	public void discardPartial() {
+		_state.delete();
+		_part.delete();
+	}
+
+	/**
+	 * Downloads the file, carrying on from an earlier run if there is one, and
+	 * moves it to the target once complete. Blocks until the download is
+	 * complete, fails or is stopped by {@link #stop()} or an interrupt.
+	 *
+	 * @return true if the download completed, false if it was stopped, in
+	 *         which case it can be resumed later
+	 * @throws IOException
+	 *             if the download failed
+	 */
+	public boolean download() throws IOException {
+		try {
+			return run();
+		} catch (ChangedException e) {
+			// Start again with the new file
+			discardPartial();
+			_error = null;
+			return run();
+		}
+	}
+
+	/**
+	 * Stops the download, keeping what has been downloaded so far. May be
+	 * called from any thread.
+	 */
+	public void stop() {
+		_stopped = true;
+		synchronized (_connections) {
+			for (HttpURLConnection c : _connections) {
+				// Unblocks the read the segment is waiting in
+				c.disconnect();
+			}
+		}
+	}
+
+	private boolean run() throws IOException {
+		new File(downloadDir).mkdirs();
+		_stopped = false;
+		if (!loadState()) {
+			start();
+		}
+		_channel = FileChannel.open(_part.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if (_algorithm != null) {
+			_digest = ContentHash.newDigest(_algorithm);
+			_hashed = 0;
+		}
+		final long alreadyDone = getDone();
+		// What the part file held the last time it was forced to disk
+		long[] flushed = snapshotDone();
+		ExecutorService pool = Executors.newFixedThreadPool(_segments.size(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "vamix-download-segment");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (final Segment segment : _segments) {
+				if (!segment.isComplete()) {
+					futures.add(pool.submit(new Runnable() {
+						@Override
+						public void run() {
+							fetch(segment);
+						}
+					}));
+				}
+			}
+
+			long started = System.nanoTime();
+			long lastSave = System.currentTimeMillis();
+			while (!isDone(futures)) {
+				try {
+					Thread.sleep(PROGRESS_MILLIS);
+				} catch (InterruptedException e) {
+					stop();
+					Thread.currentThread().interrupt();
+					break;
+				}
+				try {
+					catchUpHash();
+				} catch (ClosedByInterruptException e) {
+					stop();
+					break;
+				}
+				if (_listener != null) {
+					double seconds = (System.nanoTime() - started) / 1e9;
+					_listener.progress(getDone(), _length, (getDone() - alreadyDone) / seconds);
+				}
+				if (System.currentTimeMillis() - lastSave >= SAVE_MILLIS) {
+					// The data has to be on disk before the state says it is, so
+					// only count what had been written before forcing it there
+					long[] done = snapshotDone();
+					try {
+						_channel.force(false);
+					} catch (ClosedByInterruptException e) {
+						stop();
+						break;
+					}
+					flushed = done;
+					saveState(flushed);
+					lastSave = System.currentTimeMillis();
+				}
+			}
+			if (_error == null && !_stopped) {
+				try {
+					catchUpHash();
+				} catch (ClosedByInterruptException e) {
+					stop();
+				}
+			}
+		} finally {
+			pool.shutdown();
+			try {
+				pool.awaitTermination(READ_TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			long[] done = snapshotDone();
+			try {
+				_channel.force(false);
+				flushed = done;
+			} catch (IOException e) {
+				// Closed by an interrupt, keep what was last flushed
+			}
+			_channel.close();
+		}
+
+		if (_error != null) {
+			saveState(flushed);
+			throw _error;
+		}
+		if (_stopped) {
+			// Keep what there is for next time, even if every segment is
+			// complete as the hash may not have caught up with them
+			saveState(flushed);
+			return false;
+		}
+		for (Segment segment : _segments) {
+			if (!segment.isComplete()) {
+				// Gave up when interrupted, carry on next time
+				saveState(flushed);
+				return false;
+			}
+		}
+		if (_length < 0) {
+			// Only found out how long the file was at the end
+			_length = getDone();
+		}
+		if (_digest != null) {
+			String actual = ContentHash.toHex(_digest.digest());
+			if (_hashed != _length || !actual.equals(_expected)) {
+				discardPartial();
+				throw new IOException("The download is corrupt: its " + _algorithm + " checksum is " + actual
+						+ " but should be " + _expected);
+			}
+		}
+		Files.move(_part.toPath(), _target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		_state.delete();
+		return true;
+	}
+
+	/**
+	 * Returns the number of bytes downloaded so far.
+	 */
+	public long getDone() {
+		long done = 0;
+		if (_segments != null) {
+			for (Segment segment : _segments) {
+				done += segment.done;
+			}
+		}
+		return done;
+	}
+
+	/**
+	 * Returns the size of the file, or -1 if it is not known yet.
+	 */
+	public long getLength() {
+		return _length;
+	}
+
+	private static boolean isDone(List<Future<?>> futures) {
+		for (Future<?> f : futures) {
+			if (!f.isDone()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Asks the server for the size of the file and whether it can send parts
+	 * of it, then splits it into segments and preallocates the part file.
+	 */
+	private void start() throws IOException {
+		HttpURLConnection c = open();
+		c.setRequestProperty("Range", "bytes=0-0");
+		boolean ranges = false;
+		try {
+			int code = c.getResponseCode();
+			if (code == HttpURLConnection.HTTP_PARTIAL) {
+				String range = c.getHeaderField("Content-Range");
+				int slash = range == null ? -1 : range.lastIndexOf('/');
+				if (slash >= 0 && !range.endsWith("*")) {
+					_length = Long.parseLong(range.substring(slash + 1).trim());
+					ranges = true;
+				}
+			} else if (code == HttpURLConnection.HTTP_OK) {
+				_length = c.getContentLengthLong();
+			} else {
+				throw new IOException("Server issued an error response: " + code + " " + c.getResponseMessage());
+			}
+			String etag = c.getHeaderField("ETag");
+			// Weak ETags cannot be used to resume
+			_validator = etag != null && !etag.startsWith("W/") ? etag : c.getHeaderField("Last-Modified");
+		} catch (NumberFormatException e) {
+			throw new IOException("Server sent an invalid Content-Range");
+		} finally {
+			c.disconnect();
+		}
+
+		_segments = new ArrayList<Segment>();
+		if (ranges && _length > 0) {
+			int count = (int) Math.max(1, Math.min(_maxSegments, _length / MIN_SEGMENT));
+			long size = _length / count;
+			for (int i = 0; i < count; i++) {
+				long end = i == count - 1 ? _length - 1 : (i + 1) * size - 1;
+				_segments.add(new Segment(i * size, end, 0));
+			}
+		} else {
+			_segments.add(new Segment(0, -1, 0));
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(_part, "rw")) {
+			raf.setLength(Math.max(0, _length));
+		}
+		saveState(snapshotDone());
+	}
+
+	/**
+	 * Downloads a segment, retrying while it keeps making progress.
+	 */
+	private void fetch(Segment segment) {
+		int failures = 0;
+		while (!_stopped && !segment.isComplete()) {
+			long before = segment.done;
+			try {
+				fetchOnce(segment);
+			} catch (ChangedException e) {
+				fail(e);
+			} catch (IOException e) {
+				if (_stopped) {
+					return;
+				}
+				failures = segment.done > before ? 1 : failures + 1;
+				if (failures > MAX_RETRIES) {
+					fail(e);
+					return;
+				}
+				try {
+					Thread.sleep(RETRY_MILLIS * failures);
+				} catch (InterruptedException ie) {
+					return;
+				}
+			}
+		}
+	}
+
+	private void fetchOnce(Segment segment) throws IOException {
+		if (segment.end < 0) {
+			// Without ranges every attempt starts from the beginning, and so
+			// does the hash
+			segment.done = 0;
+			synchronized (_hashLock) {
+				if (_digest != null) {
+					_digest.reset();
+					_hashed = 0;
+				}
+			}
+		}
+		HttpURLConnection c = open();
+		long position = segment.start + segment.done;
+		boolean ranged = segment.end >= 0;
+		if (ranged) {
+			c.setRequestProperty("Range", "bytes=" + position + "-" + (segment.end >= 0 ? segment.end : ""));
+			if (_validator != null) {
+				c.setRequestProperty("If-Range", _validator);
+			}
+		}
+		synchronized (_connections) {
+			if (_stopped) {
+				return;
+			}
+			_connections.add(c);
+		}
+		try {
+			int code = c.getResponseCode();
+			if (ranged && code == HttpURLConnection.HTTP_OK) {
+				throw new ChangedException();
+			}
+			if (code >= 400 && code < 500) {
+				// Will not get better by asking again
+				fail(new IOException("Server issued an error response: " + code + " " + c.getResponseMessage()));
+				return;
+			}
+			if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+				throw new IOException("Server issued an error response: " + code + " " + c.getResponseMessage());
+			}
+			byte[] buffer = new byte[BUFFER_SIZE];
+			try (InputStream in = c.getInputStream()) {
+				while (!_stopped && (segment.end < 0 || position <= segment.end)) {
+					int want = segment.end < 0 ? buffer.length : (int) Math.min(buffer.length, segment.end
+							- position + 1);
+					int read = in.read(buffer, 0, want);
+					if (read < 0) {
+						break;
+					}
+					ByteBuffer bb = ByteBuffer.wrap(buffer, 0, read);
+					long start = position;
+					while (bb.hasRemaining()) {
+						position += _channel.write(bb, position);
+					}
+					hashArrived(buffer, read, start);
+					segment.done += read;
+					throttle(read);
+				}
+			}
+			if (_stopped) {
+				return;
+			}
+			if (segment.end < 0) {
+				// Without ranges the end of the stream is the end of the file,
+				// unless the server said how long the file is
+				if (_length >= 0 && segment.done != _length) {
+					throw new IOException("Connection closed before the download was complete");
+				}
+				segment.finished = true;
+			} else if (position <= segment.end) {
+				throw new IOException("Connection closed before the download was complete");
+			}
+		} finally {
+			synchronized (_connections) {
+				_connections.remove(c);
+			}
+			c.disconnect();
+		}
+	}
+
+	/**
+	 * Hashes bytes that have just arrived if they are the next ones to hash.
+	 */
+	private void hashArrived(byte[] buffer, int length, long position) {
+		if (_digest == null) {
+			return;
+		}
+		synchronized (_hashLock) {
+			if (position == _hashed) {
+				_digest.update(buffer, 0, length);
+				_hashed += length;
+			}
+		}
+	}
+
+	/**
+	 * Hashes the bytes that arrived ahead of the hash and are now next, by
+	 * reading them back from the part file. The lock is only held for a
+	 * buffer at a time so the segments are not held up.
+	 */
+	private void catchUpHash() throws IOException {
+		if (_digest == null) {
+			return;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		while (true) {
+			synchronized (_hashLock) {
+				long available = contiguousDone() - _hashed;
+				if (available <= 0) {
+					return;
+				}
+				buffer.clear();
+				buffer.limit((int) Math.min(BUFFER_SIZE, available));
+				int read = _channel.read(buffer, _hashed);
+				if (read <= 0) {
+					return;
+				}
+				buffer.flip();
+				_digest.update(buffer);
+				_hashed += read;
+			}
+		}
+	}
+
+	/**
+	 * Returns how many bytes from the start of the file have all been written.
+	 */
+	private long contiguousDone() {
+		long end = 0;
+		for (Segment segment : _segments) {
+			if (segment.start != end) {
+				break;
+			}
+			end += segment.done;
+			if (!segment.isComplete()) {
+				break;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Waits for as long as the bandwidth cap asks after receiving some bytes,
+	 * giving up early if the download is stopped.
+	 */
+	private void throttle(int bytes) {
+		if (_bandwidth == null) {
+			return;
+		}
+		long wait = _bandwidth.take(bytes);
+		while (wait > 0 && !_stopped) {
+			long millis = Math.min(100, TimeUnit.NANOSECONDS.toMillis(wait) + 1);
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				return;
+			}
+			wait -= TimeUnit.MILLISECONDS.toNanos(millis);
+		}
+	}
+
+	private void fail(IOException e) {
+		if (_error == null) {
+			_error = e;
+		}
+		stop();
+	}
+
+	private HttpURLConnection open() throws IOException {
+		HttpURLConnection c = (HttpURLConnection) _url.openConnection();
+		c.setConnectTimeout(CONNECT_TIMEOUT);
+		c.setReadTimeout(READ_TIMEOUT);
+		c.setRequestProperty("User-Agent", "VAMIX");
+		// Byte offsets are of the file as stored, not of a decompressed copy
+		c.setRequestProperty("Accept-Encoding", "identity");
+		return c;
+	}
+
+	/**
+	 * Loads the state saved by an earlier run of this download.
+	 *
+	 * @return true if there was a usable state for the same URL
+	 */
+	private boolean loadState() {
+		if (!hasPartial()) {
+			return false;
+		}
+		Properties p = new Properties();
+		try (InputStream in = new FileInputStream(_state)) {
+			p.load(in);
+			if (!_url.toString().equals(p.getProperty("url"))) {
+				return false;
+			}
+			_length = Long.parseLong(p.getProperty("length"));
+			_validator = p.getProperty("validator");
+			int count = Integer.parseInt(p.getProperty("segments"));
+			List<Segment> segments = new ArrayList<Segment>();
+			for (int i = 0; i < count; i++) {
+				String[] s = p.getProperty("segment." + i).split(",");
+				long end = Long.parseLong(s[1]);
+				// Without ranges the file can only be fetched from the start
+				long done = end < 0 ? 0 : Long.parseLong(s[2]);
+				segments.add(new Segment(Long.parseLong(s[0]), end, done));
+			}
+			_segments = segments;
+			return true;
+		} catch (IOException | RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Copies how far each segment has got, in the order of the segments.
+	 */
+	private long[] snapshotDone() {
+		long[] done = new long[_segments.size()];
+		for (int i = 0; i < done.length; i++) {
+			done[i] = _segments.get(i).done;
+		}
+		return done;
+	}
+
+	/**
+	 * Saves how far each segment has got. The values given must already be
+	 * on disk, so the state never claims more than the part file holds.
+	 */
+	private void saveState(long[] done) {
+		if (_segments == null) {
+			return;
+		}
+		Properties p = new Properties();
+		p.setProperty("url", _url.toString());
+		p.setProperty("length", Long.toString(_length));
+		if (_validator != null) {
+			p.setProperty("validator", _validator);
+		}
+		p.setProperty("segments", Integer.toString(_segments.size()));
+		for (int i = 0; i < _segments.size(); i++) {
+			Segment s = _segments.get(i);
+			p.setProperty("segment." + i, s.start + "," + s.end + "," + done[i]);
+		}
+		File tmp = new File(_state.getPath() + ".tmp");
+		try (OutputStream out = new FileOutputStream(tmp)) {
+			p.store(out, "VAMIX download state");
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		try {
+			Files.move(tmp.toPath(), _state.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,463 @@
+package processes.file;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
+
+import model.MediaInfo;
+
+/**
+ * Cache of thumbnail strips for the media files in the libraries. A strip is a
+ * row of FRAMES small frames taken at even intervals through a video, the
+ * first of which serves as its poster frame.
+ *
+ * Strips are only made when they are requested, which the Library does as it
+ * draws each visible row. Requests are served in the order of the rows, top
+ * first, by a single background thread that extracts each frame with avconv.
+ * Each request is made for a view, i.e. the tree showing the file. When the
+ * user scrolls a view, {@link #retainOnly(Object, Collection)} drops the
+ * requests of that view for rows that are no longer visible, leaving those of
+ * other views alone, and stops avconv if it is working on one of them.
+ * Listeners are told on the EDT when a strip is ready. Files without video or
+ * whose frames could not be extracted are not tried again until they change.
+ *
+ * Finished strips are saved as PNGs under ~/vamix/thumbs, keyed by the path,
+ * size and modification time of the file, so they survive between sessions.
+ * The directory is kept under 32MB, or the number of megabytes given by the
+ * "vamix.thumbCacheMB" system property, by deleting the least recently used
+ * strips. The most recently used decoded strips are also kept in memory so
+ * that drawing the tree never touches the disk.
+ *
+ * @author Harry She
+ *
+ */
+public class ThumbnailCache {
+	// Singleton - one cache shared by both library trees
+	private static ThumbnailCache theInstance = null;
+
+	final public static String thumbDir = System.getProperty("user.home") + File.separator + "vamix"
+			+ File.separator + "thumbs";
+
+	// Frames in a strip and the size of each
+	public static final int FRAMES = 4;
+	public static final int FRAME_WIDTH = 48;
+	public static final int FRAME_HEIGHT = 27;
+
+	private static final long DEFAULT_CAP_MB = 32;
+	// Decoded strips kept in memory
+	private static final int MEMORY_ENTRIES = 256;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * A decoded strip and the modification time of the file it was made from.
+	 */
+	private static class Strip {
+		final long lastModified;
+		final BufferedImage strip;
+
+		Strip(long lastModified, BufferedImage strip) {
+			this.lastModified = lastModified;
+			this.strip = strip;
+		}
+	}
+
+	private final File _dir = new File(thumbDir);
+	private final long _capBytes;
+	private final PropertyChangeSupport _pcs = new PropertyChangeSupport(this);
+
+	// Guarded by this
+	private final Map<String, Strip> _memory = new LinkedHashMap<String, Strip>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Strip> eldest) {
+			return size() > MEMORY_ENTRIES;
+		}
+	};
+	// Files without a video stream or whose frames could not be extracted,
+	// with their size and modification time when they were tried
+	private final Map<String, String> _failed = new HashMap<String, String>();
+	// Requested files and the row they were requested for, by view
+	private final Map<Object, Map<String, Integer>> _pending = new HashMap<Object, Map<String, Integer>>();
+	private String _current = null;
+	private Object _currentView = null;
+	private boolean _cancelled = false;
+	private Process _process = null;
+
+	private ThumbnailCache() {
+		long cap = DEFAULT_CAP_MB;
+		try {
+			cap = Long.parseLong(System.getProperty("vamix.thumbCacheMB", Long.toString(DEFAULT_CAP_MB)));
+		} catch (NumberFormatException e) {
+			// Keep the default
+		}
+		_capBytes = cap << 20;
+		Thread worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				work();
+			}
+		}, "vamix-thumbnails");
+		worker.setDaemon(true);
+		worker.setPriority(Thread.MIN_PRIORITY);
+		worker.start();
+	}
+
+	/**
+	 * Grab the singleton instance of this class.
+	 *
+	 * @return
+	 */
+	public static synchronized ThumbnailCache getInstance() {
+		if (theInstance == null) {
+			theInstance = new ThumbnailCache();
+		}
+		return theInstance;
+	}
+
+	/**
+	 * Returns the strip for a file if it is in memory. Never blocks, so it can
+	 * be called while painting.
+	 *
+	 * @param path
+	 * @return the strip, or null if it is not ready or the file has no video
+	 */
+	public synchronized BufferedImage get(String path) {
+		Strip e = _memory.get(path);
+		if (e != null && e.lastModified == new File(path).lastModified()) {
+			return e.strip;
+		}
+		return null;
+	}
+
+	/**
+	 * Asks for the strip of a file to be loaded or made in the background, if
+	 * it is not in memory already.
+	 *
+	 * @param view
+	 *            the tree or other view the file is shown in
+	 * @param path
+	 * @param row
+	 *            the row the file is shown in, lower rows are served later
+	 */
+	public synchronized void request(Object view, String path, int row) {
+		File file = new File(path);
+		Strip e = _memory.get(path);
+		if (e != null && e.lastModified == file.lastModified()) {
+			return;
+		}
+		if (stamp(file).equals(_failed.get(path))) {
+			return;
+		}
+		if (!path.equals(_current)) {
+			Map<String, Integer> requests = _pending.get(view);
+			if (requests == null) {
+				requests = new HashMap<String, Integer>();
+				_pending.put(view, requests);
+			}
+			Integer previous = requests.get(path);
+			if (previous == null || previous != row) {
+				requests.put(path, row);
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Forgets the requests of a view for every file not in the given
+	 * collection, e.g. the files in the rows still visible after scrolling,
+	 * and stops making the strip being worked on for that view if it is not
+	 * one of them. The requests of other views are kept.
+	 *
+	 * @param view
+	 * @param paths
+	 */
+	public synchronized void retainOnly(Object view, Collection<String> paths) {
+		Set<String> keep = new HashSet<String>(paths);
+		Map<String, Integer> requests = _pending.get(view);
+		if (requests != null) {
+			requests.keySet().retainAll(keep);
+			if (requests.isEmpty()) {
+				_pending.remove(view);
+			}
+		}
+		if (_current != null && view == _currentView && !keep.contains(_current)) {
+			_cancelled = true;
+			if (_process != null) {
+				_process.destroy();
+			}
+		}
+	}
+
+	/**
+	 * Adds a listener that is told on the EDT with a "thumbnail" property
+	 * change, whose new value is the path, each time a strip becomes ready.
+	 */
+	public void addPropertyChangeListener(PropertyChangeListener listener) {
+		_pcs.addPropertyChangeListener(listener);
+	}
+
+	public void removePropertyChangeListener(PropertyChangeListener listener) {
+		_pcs.removePropertyChangeListener(listener);
+	}
+
+	/**
+	 * Body of the background thread: serves the request for the highest row
+	 * until there are none left, then waits for more.
+	 */
+	private void work() {
+		while (true) {
+			String path;
+			synchronized (this) {
+				while (_pending.isEmpty()) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				path = null;
+				Object view = null;
+				int best = Integer.MAX_VALUE;
+				for (Map.Entry<Object, Map<String, Integer>> requests : _pending.entrySet()) {
+					for (Map.Entry<String, Integer> request : requests.getValue().entrySet()) {
+						if (request.getValue() < best) {
+							best = request.getValue();
+							path = request.getKey();
+							view = requests.getKey();
+						}
+					}
+				}
+				// Every view that asked for it is served by this
+				for (Iterator<Map<String, Integer>> it = _pending.values().iterator(); it.hasNext();) {
+					Map<String, Integer> requests = it.next();
+					requests.remove(path);
+					if (requests.isEmpty()) {
+						it.remove();
+					}
+				}
+				_current = path;
+				_currentView = view;
+				_cancelled = false;
+			}
+			try {
+				load(path);
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				synchronized (this) {
+					_current = null;
+					_currentView = null;
+					_process = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a strip from the disk cache, or makes it, and puts it in memory.
+	 */
+	private void load(final String path) throws IOException {
+		File file = new File(path);
+		long lastModified = file.lastModified();
+		String stamp = stamp(file);
+		File cached = new File(_dir, key(file) + ".png");
+		BufferedImage strip = null;
+		if (cached.isFile()) {
+			strip = ImageIO.read(cached);
+			// Mark it as recently used
+			cached.setLastModified(System.currentTimeMillis());
+		}
+		if (strip == null) {
+			MediaInfo info = MediaProbe.getInstance().probe(path);
+			if (!info.hasVideo()) {
+				synchronized (this) {
+					_failed.put(path, stamp);
+				}
+				return;
+			}
+			strip = extract(path, info.getDuration());
+			if (strip == null) {
+				synchronized (this) {
+					// A cancelled strip is asked for again when shown, one that
+					// avconv could not make is not tried again until the file
+					// changes
+					if (!_cancelled) {
+						_failed.put(path, stamp);
+					}
+				}
+				return;
+			}
+			save(strip, cached);
+		}
+		synchronized (this) {
+			_memory.put(path, new Strip(lastModified, strip));
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				_pcs.firePropertyChange("thumbnail", null, path);
+			}
+		});
+	}
+
+	/**
+	 * Extracts the frames of a strip with avconv, seeking to each in turn.
+	 *
+	 * @return the strip or null if it was cancelled or a frame could not be
+	 *         extracted
+	 */
+	private BufferedImage extract(String path, double duration) throws IOException {
+		BufferedImage strip = new BufferedImage(FRAMES * FRAME_WIDTH, FRAME_HEIGHT, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = strip.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		try {
+			for (int i = 0; i < FRAMES; i++) {
+				double time = duration > 0 ? duration * (i + 0.5) / FRAMES : 0;
+				// The frame is piped back as a PNG, so nothing is written to
+				// disk
+				ProcessBuilder builder = new ProcessBuilder("/bin/bash", "-c", String.format(
+						"avconv -ss %.2f -i \"%s\" -frames:v 1 -vf scale=%d:-1 -f image2pipe -vcodec png - 2>/dev/null",
+						time, path, FRAME_WIDTH * 2));
+				Process process;
+				synchronized (this) {
+					if (_cancelled) {
+						return null;
+					}
+					process = builder.start();
+					_process = process;
+				}
+				BufferedImage frame = null;
+				try (InputStream in = process.getInputStream()) {
+					frame = ImageIO.read(in);
+					process.waitFor();
+				} catch (IOException e) {
+					// Stopped part way through by retainOnly()
+				} catch (InterruptedException e) {
+					return null;
+				}
+				synchronized (this) {
+					_process = null;
+					if (_cancelled) {
+						return null;
+					}
+				}
+				if (frame == null) {
+					return null;
+				}
+				drawFitted(g, frame, i * FRAME_WIDTH);
+			}
+		} finally {
+			g.dispose();
+		}
+		return strip;
+	}
+
+	/**
+	 * Draws a frame scaled to fit its tile without changing its shape.
+	 */
+	private static void drawFitted(Graphics2D g, BufferedImage frame, int x) {
+		double scale = Math.min((double) FRAME_WIDTH / frame.getWidth(), (double) FRAME_HEIGHT / frame.getHeight());
+		int width = (int) Math.round(frame.getWidth() * scale);
+		int height = (int) Math.round(frame.getHeight() * scale);
+		g.drawImage(frame, x + (FRAME_WIDTH - width) / 2, (FRAME_HEIGHT - height) / 2, width, height, null);
+	}
+
+	/**
+	 * Writes a strip to the disk cache and trims the cache to its cap.
+	 */
+	private void save(BufferedImage strip, File cached) throws IOException {
+		if (!_dir.isDirectory() && !_dir.mkdirs()) {
+			throw new IOException("Cannot create " + _dir);
+		}
+		// Written under another name first so a half written strip is never
+		// read back
+		File partial = new File(_dir, cached.getName() + ".part");
+		ImageIO.write(strip, "png", partial);
+		Files.move(partial.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		trim();
+	}
+
+	/**
+	 * Deletes the least recently used strips while the disk cache is over its
+	 * cap.
+	 */
+	private void trim() {
+		File[] strips = _dir.listFiles();
+		if (strips == null) {
+			return;
+		}
+		long total = 0;
+		for (File f : strips) {
+			total += f.length();
+		}
+		if (total <= _capBytes) {
+			return;
+		}
+		final Map<File, Long> used = new HashMap<File, Long>();
+		for (File f : strips) {
+			used.put(f, f.lastModified());
+		}
+		Arrays.sort(strips, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return Long.compare(used.get(a), used.get(b));
+			}
+		});
+		for (Iterator<File> it = Arrays.asList(strips).iterator(); it.hasNext() && total > _capBytes;) {
+			File f = it.next();
+			long length = f.length();
+			if (f.delete()) {
+				total -= length;
+			}
+		}
+	}
+
+	/**
+	 * Size and modification time of a file, which change whenever it does.
+	 */
+	private static String stamp(File file) {
+		return file.length() + "|" + file.lastModified();
+	}
+
+	/**
+	 * Name of a file's strip in the disk cache, which changes whenever the file
+	 * does.
+	 */
+	private static String key(File file) {
+		String id = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified() + "|" + FRAMES + "x"
+				+ FRAME_WIDTH;
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(id.getBytes(UTF8));
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest) {
+				sb.append(String.format("%02x", b & 0xff));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return Integer.toHexString(id.hashCode());
+		}
+	}
+}
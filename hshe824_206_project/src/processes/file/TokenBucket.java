@@ -0,0 +1,65 @@
+package processes.file;
+
+/**
+ * Token bucket used to cap the combined bandwidth of all downloads. Tokens,
+ * one per byte, flow in at the given rate up to a second's worth, and every
+ * byte received takes one. A download that takes more than there are has to
+ * wait until the debt is paid off, so the downloads sharing a bucket can burst
+ * briefly but never average more than the rate between them.
+ *
+ * @author Harry She
+ *
+ */
+public class TokenBucket {
+	private long _rate;
+	private double _tokens;
+	private long _last = System.nanoTime();
+
+	/**
+	 * @param rate
+	 *            bytes per second, or 0 for no limit
+	 */
+	public TokenBucket(long rate) {
+		setRate(rate);
+	}
+
+	/**
+	 * Changes the rate, taking effect straight away.
+	 *
+	 * @param rate
+	 *            bytes per second, or 0 for no limit
+	 */
+	public synchronized void setRate(long rate) {
+		refill();
+		_rate = Math.max(0, rate);
+		_tokens = Math.min(_tokens, _rate);
+	}
+
+	public synchronized long getRate() {
+		return _rate;
+	}
+
+	/**
+	 * Takes tokens for bytes that have been received.
+	 *
+	 * @param bytes
+	 * @return how long the caller should wait before receiving more, in
+	 *         nanoseconds, or 0 if it can carry on straight away
+	 */
+	public synchronized long take(long bytes) {
+		if (_rate == 0) {
+			return 0;
+		}
+		refill();
+		_tokens -= bytes;
+		return _tokens >= 0 ? 0 : (long) (-_tokens * 1e9 / _rate);
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		if (_rate > 0) {
+			_tokens = Math.min(_rate, _tokens + (now - _last) * _rate / 1e9);
+		}
+		_last = now;
+	}
+}
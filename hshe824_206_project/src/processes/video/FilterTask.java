@@ -7,13 +7,17 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.swing.SwingWorker;
 
+import model.MediaInfo;
+import processes.EncodeProgress;
+import processes.ProgressParser;
+import processes.TempWorkspace;
+import processes.file.MediaProbe;
 import ui.filesystem.Library;
 
 /**
@@ -25,7 +29,7 @@ import ui.filesystem.Library;
  * @author Harry She
  *
  */
-public class FilterTask extends SwingWorker<Void, Void> {
+public class FilterTask extends SwingWorker<Void, EncodeProgress> {
 	private String _inputFile;
 	private String _outputFile;
 	private String _cmd;
@@ -35,6 +39,7 @@ public class FilterTask extends SwingWorker<Void, Void> {
 	private Dimension _videoSize;
 	private Color _colourTint = Color.red;
 	private String _colour;
+	private volatile TempWorkspace _workspace = null;
 
 	public FilterTask(String inputFile, String outputFile, String cmd, boolean isPreview, Color colourTint) {
 		_inputFile = inputFile;
@@ -80,9 +85,27 @@ public class FilterTask extends SwingWorker<Void, Void> {
 					+ _filter);
 			startProcess(builder);
 		} else {
+			// Encode into a private workspace and only move the result into the
+			// output library once it is complete
+			try {
+				_workspace = TempWorkspace.create("filter");
+			} catch (IOException e) {
+				firePropertyChange("failure", null, e.getMessage());
+				errorState = true;
+				return null;
+			}
+			if (isCancelled()) {
+				// done() has already run, so clean up here
+				_workspace.release();
+				return null;
+			}
+			String name = new File(_outputFile).getName();
 			builder = new ProcessBuilder("/bin/bash", "-c", "avconv -i " + _inputFile + " -strict experimental -vf "
-					+ _filter + " -y " + _outputFile);
+					+ _filter + " -y \"" + _workspace.file(name) + "\"");
 			startProcess(builder);
+			if (!errorState && !isCancelled()) {
+				_workspace.moveOut(name, _outputFile);
+			}
 		}
 		return null;
 	}
@@ -101,22 +124,26 @@ public class FilterTask extends SwingWorker<Void, Void> {
 			}
 		} catch (CancellationException e) {
 			firePropertyChange("cancelled", null, "The filtering task was stopped!");
-			File toDelete = new File(_outputFile);
-			toDelete.delete();
 			Library.getInstance().refreshTree();
 			return;
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		} catch (ExecutionException e) {
 			e.printStackTrace();
+		} finally {
+			if (_workspace != null) {
+				_workspace.release();
+			}
 		}
 	}
 
 	/**
 	 * Start the process required and also keep track of the output in case
-	 * errors occur in which case these can be reflected back to the user.
+	 * errors occur in which case these can be reflected back to the user. The
+	 * avconv status lines are parsed as they arrive and published as progress.
 	 */
 	private void startProcess(ProcessBuilder builder) {
+		ProgressParser parser = new ProgressParser(MediaProbe.getInstance().probe(_inputFile).getDuration());
 		Process process = null;
 		builder.redirectErrorStream(true);
 		try {
@@ -132,6 +159,10 @@ public class FilterTask extends SwingWorker<Void, Void> {
 		try {
 			while ((line = stdoutBuffered.readLine()) != null) {
 				last = line;
+				EncodeProgress progress = parser.parse(line);
+				if (progress != null) {
+					publish(progress);
+				}
 				if (isCancelled()) {
 					process.destroy();
 					return;
@@ -151,33 +182,26 @@ public class FilterTask extends SwingWorker<Void, Void> {
 	}
 
 	/**
-	 * This method uses avprobe to obtain the dimensions of the video
+	 * This method obtains the dimensions of the video from the shared avprobe
+	 * cache.
 	 * 
 	 * @return Dimension of the video file
 	 */
 	private Dimension getDimensions() {
-		ProcessBuilder builder = new ProcessBuilder("/bin/bash", "-c", "avprobe " + _inputFile
-				+ " 2>&1 | grep -i video");
-		builder.redirectErrorStream(true);
+		MediaInfo info = MediaProbe.getInstance().probe(_inputFile);
+		_videoSize = new Dimension(info.getWidth(), info.getHeight());
+		return _videoSize;
+	}
 
-		Pattern progressValue = Pattern.compile("(\\d*)x(\\d*)");
-		StringBuffer output = new StringBuffer();
-		try {
-			Process process = builder.start();
-			InputStream stdout = process.getInputStream();
-			BufferedReader stdoutBuffered = new BufferedReader(new InputStreamReader(stdout));
-			String line;
-			while ((line = stdoutBuffered.readLine()) != null) {
-				output.append(line);
-				output.append(" ");
-			}
-			Matcher matcher = progressValue.matcher(output);
-			matcher.find();
-			_videoSize = new Dimension(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
-		} catch (IOException e) {
-			e.printStackTrace();
+	/**
+	 * Pass the latest encoding progress on to the EDT.
+	 */
+	@Override
+	protected void process(List<EncodeProgress> chunks) {
+		EncodeProgress latest = chunks.get(chunks.size() - 1);
+		if (latest.getPercent() >= 0) {
+			setProgress(latest.getPercent());
 		}
-
-		return null;
+		firePropertyChange("encodeProgress", null, latest);
 	}
 }
@@ -8,40 +8,46 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.swing.JTextArea;
 import javax.swing.SwingWorker;
 
 import ui.editors.VideoEditor;
+import model.MediaInfo;
+import processes.EncodeProgress;
+import processes.ProgressParser;
+import processes.TempWorkspace;
+import processes.file.MediaProbe;
 import ui.filesystem.Library;
 
 /**
  * This class does the bash commands for video editing in the background. This
- * includes the creation of temporary video files containing the title or
- * credits and then the concatenation of the input video with this generated
- * title video.
+ * includes the creation of a video containing the title or credits and then
+ * the concatenation of the input video with this generated title video,
+ * stream copying the input video whenever its codecs allow.
  * 
  * NB: Taken and adapted from assignment 3.
  * 
  * @author Greggory & Harry
  *
  */
-public class VideoTask extends SwingWorker<Void, Void> {
-	final public static String tempDir = System.getProperty("user.home") + File.separator + "vamix" + File.separator
-			+ "temp";
-
+public class VideoTask extends SwingWorker<Void, EncodeProgress> {
 	private String _inputFile;
-	private String _previewFile = null;
+	private String _tempName;
 	private String _tempLocation;
 	private String _editedLocation;
+	private String _outputExtension;
+	private volatile TempWorkspace _workspace = null;
 	private String _txt;
 	private Font _font;
 	private String _color;
 	private Dimension _videoSize;
+	private MediaInfo _info;
+	private String _videoCodec = null;
+	private String _audioCodec = null;
 	private JTextArea _textArea;
 	private int _size;
 	private int _positionY, _positionX;
@@ -68,28 +74,30 @@ public class VideoTask extends SwingWorker<Void, Void> {
 		_textArea = textArea;
 		getCentred();
 		setUpFileLocation();
-		new File(tempDir).mkdirs();
 	}
 
 	/**
 	 * This method is to be called during the construction of the class. It
-	 * provides the locations for the temporary files which are saved the a temp
-	 * folder. The final output will be saved in the output library folder
+	 * provides the names for the temporary files which are saved in the job's
+	 * own workspace. The final output will be saved in the output library
+	 * folder
 	 */
 	private void setUpFileLocation() {
 		String basename = _inputFile.substring(_inputFile.lastIndexOf(File.separator) + 1);
 		String filenameNoExtension = basename.substring(0, basename.lastIndexOf("."));
 		String videoExtension = basename.substring(basename.lastIndexOf("."), basename.length());
-		_tempLocation = tempDir + File.separator + filenameNoExtension + "[Temp]" + videoExtension;
-		_editedLocation = Library.outputDir + File.separator + filenameNoExtension + "[TEXT_EDITED-VAMIX].mpg";
-		_previewFile = tempDir + File.separator + filenameNoExtension + "[Preview]" + videoExtension;
+		_tempName = filenameNoExtension + "[Temp]" + videoExtension;
+		_outputExtension = planJoin(_info);
+		_editedLocation = Library.outputDir + File.separator + filenameNoExtension + "[TEXT_EDITED-VAMIX]"
+				+ _outputExtension;
 	}
 
 	/**
 	 * This is the main section where the video for the title or credits scene
-	 * is generated and saved (if save and not preview is selected) to be
-	 * subsequently concatenated to either the start or end of the video
-	 * depending if it is a title scene or credits scene.
+	 * is generated. A preview only renders the title clip itself. When saving,
+	 * the title clip is rendered straight into its final format and joined to
+	 * the input video without any intermediate transcode of the title, and
+	 * without re-encoding the input video at all if its codecs allow it.
 	 */
 	@Override
 	protected Void doInBackground() throws Exception {
@@ -100,89 +108,184 @@ public class VideoTask extends SwingWorker<Void, Void> {
 		finder.setUp();
 		String fontLocation = finder.getFontDirectory(_font.getName());
 
-		File temp = new File(_tempLocation);
-		if (temp.exists()) {
-			temp.delete();
+		try {
+			_workspace = TempWorkspace.create(_isPreview ? "preview" : "title");
+		} catch (IOException e) {
+			firePropertyChange("failure", null, e.getMessage());
+			errorState = true;
+			return null;
+		}
+		if (isCancelled()) {
+			// done() has already run, so clean up here
+			_workspace.release();
+			return null;
 		}
 
-		builder = new ProcessBuilder("/bin/bash", "-c", "avconv -filter_complex \"color=0x000000ff:"
-				+ (int) _videoSize.getWidth() + "x" + (int) _videoSize.getHeight() + " [in]; [in] drawtext=fontfile='"
-				+ fontLocation + "'" + ":text=" + _txt.toString() + ":fontsize=" + _size + ":fontcolor=" + _color
-				+ ":x=" + _positionX + ":y=" + _positionY + "\" -t " + _duration + " " + _tempLocation);
-		startProcess(builder);
+		// Preview Task
+		if (_isPreview) {
+			_tempLocation = _workspace.file(_tempName);
+			builder = new ProcessBuilder("/bin/bash", "-c", "avconv -filter_complex \"" + titleGraph(fontLocation, 25, false)
+					+ "\" -t " + _duration + " " + _tempLocation);
+			startProcess(builder, _duration);
+			return null;
+		}
 
 		// Saving Task
-		if (!_isPreview) {
-			ProcessBuilder pb1 = new ProcessBuilder("/bin/bash", "-c", "avconv -i " + _tempLocation + " -y " + tempDir
-					+ File.separator + "text.mpg");
-			pb1.redirectErrorStream(true);
-			Process p1 = pb1.start();
-			p1.waitFor();
-			mpgCreate();
-			return null;
+		if (_videoCodec != null) {
+			copyJoin(fontLocation);
+		} else {
+			reencodeJoin(fontLocation);
+		}
+		if (!errorState && !isCancelled()) {
+			_workspace.moveOut("output" + _outputExtension, _editedLocation);
 		}
 		return null;
 	}
 
 	/**
-	 * Helper method that converts the input file to an .mpg so that it can be
-	 * concatenated with the text video
+	 * Works out whether the input video can be stream copied. This is the case
+	 * when its codecs can be carried in an MPEG transport stream, which can be
+	 * joined byte for byte, and in the final container. The title is then
+	 * encoded with the same codecs, picture size, frame rate and audio format
+	 * as the input so that the two parts can be joined without re-encoding.
 	 * 
-	 * @throws InterruptedException
+	 * @return the extension of the final output file
 	 */
-	private void mpgCreate() throws InterruptedException {
-		ProcessBuilder pb2 = new ProcessBuilder("/bin/bash", "-c", "avconv -i " + _inputFile + " -y " + tempDir
-				+ File.separator + "input.mpg");
-		pb2.redirectErrorStream(true);
-		Process p2 = null;
-		try {
-			p2 = pb2.start();
-		} catch (IOException e) {
-			e.printStackTrace();
+	private String planJoin(MediaInfo info) {
+		String video = info.getCodec("Video");
+		String audio = info.getCodec("Audio");
+		String extension = null;
+		if ("h264".equals(video) || "mpeg4".equals(video)) {
+			if (audio == null || "aac".equals(audio) || "mp3".equals(audio)) {
+				extension = ".mp4";
+			}
+		} else if ("mpeg1video".equals(video) || "mpeg2video".equals(video)) {
+			if (audio == null || "mp2".equals(audio) || "mp3".equals(audio) || "ac3".equals(audio)) {
+				extension = ".mpg";
+			}
 		}
-		p2.waitFor();
-		catMPG();
+		if (extension == null || info.getWidth() == 0) {
+			return ".mpg";
+		}
+		if ("h264".equals(video)) {
+			_videoCodec = "libx264 -pix_fmt yuv420p";
+		} else {
+			_videoCodec = video;
+		}
+		if ("aac".equals(audio)) {
+			_audioCodec = "aac -strict experimental";
+		} else if ("mp3".equals(audio)) {
+			_audioCodec = "libmp3lame";
+		} else {
+			_audioCodec = audio;
+		}
+		return extension;
 	}
 
 	/**
-	 * This helper method concatenates the text video to the input video
+	 * Builds the filter graph that draws the text on a black background. The
+	 * video is labelled [v] and, if a silent audio track is wanted, the audio
+	 * is labelled [a].
 	 */
-	private void catMPG() {
-		if (_isTitle) {
-			ProcessBuilder pb3 = new ProcessBuilder("/bin/bash", "-c", "cat " + tempDir + File.separator + "text.mpg"
-					+ " " + tempDir + File.separator + "input.mpg" + " > " + _editedLocation);
-			pb3.redirectErrorStream(true);
-			Process p3 = null;
-			try {
-				p3 = pb3.start();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-			try {
-				p3.waitFor();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
+	private String titleGraph(String fontLocation, double frameRate, boolean withAudio) {
+		String graph = "color=0x000000ff:" + (int) _videoSize.getWidth() + "x" + (int) _videoSize.getHeight() + ":"
+				+ formatRate(frameRate) + " [in]; [in] drawtext=fontfile='" + fontLocation + "'" + ":text="
+				+ _txt.toString() + ":fontsize=" + _size + ":fontcolor=" + _color + ":x=" + _positionX + ":y="
+				+ _positionY;
+		if (withAudio) {
+			graph += " [v]; anullsrc=r=" + _info.getSampleRate() + ":cl=" + _info.getChannelLayout() + " [a]";
+		}
+		return graph;
+	}
 
-		} else {
-			ProcessBuilder pb3 = new ProcessBuilder("/bin/bash", "-c", "avconv -i concat:" + tempDir + File.separator
-					+ "input.mpg" + "\\|" + tempDir + File.separator + "text.mpg" + " -c copy -y " + _editedLocation);
-			pb3.redirectErrorStream(true);
-			startProcess(pb3);
+	private static String formatRate(double frameRate) {
+		if (frameRate <= 0) {
+			return "25";
+		} else if (frameRate == Math.rint(frameRate)) {
+			return Integer.toString((int) frameRate);
+		}
+		return Double.toString(frameRate);
+	}
 
+	/**
+	 * Encodes only the title with the codecs of the input video, remuxes the
+	 * input video into a transport stream and then joins the two with a stream
+	 * copy. Only the few seconds of title are actually encoded.
+	 */
+	private void copyJoin(String fontLocation) {
+		boolean hasAudio = _info.hasAudio();
+		String textFile = _workspace.file("text.ts");
+		String inputFile = _workspace.file("input.ts");
+
+		String title = "avconv -filter_complex \"" + titleGraph(fontLocation, _info.getFrameRate(), hasAudio)
+				+ "\" -c:v " + _videoCodec;
+		if (hasAudio) {
+			title += " -map \"[v]\" -map \"[a]\" -c:a " + _audioCodec;
 		}
+		title += " -t " + _duration + " -f mpegts -y \"" + textFile + "\"";
+		startProcess(new ProcessBuilder("/bin/bash", "-c", title), _duration);
+		if (errorState || isCancelled()) {
+			return;
+		}
+
+		String remux = "avconv -i \"" + _inputFile + "\" -map 0:v:0" + (hasAudio ? " -map 0:a:0" : "") + " -c copy";
+		if ("h264".equals(_info.getCodec("Video"))) {
+			remux += " -bsf:v h264_mp4toannexb";
+		}
+		remux += " -f mpegts -y \"" + inputFile + "\"";
+		startProcess(new ProcessBuilder("/bin/bash", "-c", remux), _info.getDuration());
+		if (errorState || isCancelled()) {
+			return;
+		}
+
+		String parts = _isTitle ? textFile + "|" + inputFile : inputFile + "|" + textFile;
+		String join = "avconv -i \"concat:" + parts + "\" -c copy";
+		if ("aac".equals(_info.getCodec("Audio"))) {
+			join += " -bsf:a aac_adtstoasc";
+		}
+		join += " -y \"" + _workspace.file("output" + _outputExtension) + "\"";
+		startProcess(new ProcessBuilder("/bin/bash", "-c", join), _info.getDuration() + _duration);
+	}
+
+	/**
+	 * Fallback for inputs whose codecs cannot be stream copied. The title is
+	 * rendered straight to MPEG and the input is encoded to MPEG directly onto
+	 * the end (or start) of the output file, so the only encode is the one
+	 * that cannot be avoided.
+	 */
+	private void reencodeJoin(String fontLocation) {
+		String textFile = _workspace.file("text.mpg");
+		String outputFile = _workspace.file("output" + _outputExtension);
+
+		ProcessBuilder builder = new ProcessBuilder("/bin/bash", "-c", "avconv -filter_complex \""
+				+ titleGraph(fontLocation, 25, false) + "\" -t " + _duration + " -f mpeg -y \"" + textFile + "\"");
+		startProcess(builder, _duration);
+		if (errorState || isCancelled()) {
+			return;
+		}
+
+		String encode = "avconv -i \"" + _inputFile + "\" -f mpeg -";
+		if (_isTitle) {
+			builder = new ProcessBuilder("/bin/bash", "-c", "cat \"" + textFile + "\" > \"" + outputFile + "\" && "
+					+ encode + " >> \"" + outputFile + "\"");
+		} else {
+			builder = new ProcessBuilder("/bin/bash", "-c", encode + " > \"" + outputFile + "\" && cat \""
+					+ textFile + "\" >> \"" + outputFile + "\"");
+		}
+		startProcess(builder, _info.getDuration());
 	}
 
 	/**
 	 * Send appropriate messages to the EDT to update when completed
-	 * successfully or ungracefully.
+	 * successfully or ungracefully. A preview keeps the workspace alive while
+	 * it is being played, otherwise it is deleted here.
 	 */
 	@Override
 	protected void done() {
 		try {
 			this.get();
-			if (_isPreview) {
-				VideoEditor.getInstance().startPreview(_tempLocation);
+			if (_isPreview && errorState == false) {
+				VideoEditor.getInstance().startPreview(_tempLocation, _workspace);
 			}
 			if (errorState == false) {
 				Library.getInstance().refreshTree();
@@ -190,8 +293,6 @@ public class VideoTask extends SwingWorker<Void, Void> {
 			}
 		} catch (CancellationException e) {
 			firePropertyChange("cancelled", null, "The text editing task was stopped!");
-			File toDelete = new File(_editedLocation);
-			toDelete.delete();
 			Library.getInstance().refreshTree();
 			return;
 
@@ -199,15 +300,22 @@ public class VideoTask extends SwingWorker<Void, Void> {
 			e.printStackTrace();
 		} catch (ExecutionException e) {
 			e.printStackTrace();
+		} finally {
+			if (_workspace != null) {
+				_workspace.release();
+			}
 		}
 
 	}
 
 	/**
 	 * Start the process required and also keep track of the output in case
-	 * errors occur in which case these can be reflected back to the user.
+	 * errors occur in which case these can be reflected back to the user. The
+	 * avconv status lines are parsed as they arrive and published as progress
+	 * against the given output duration in seconds.
 	 */
-	private void startProcess(ProcessBuilder builder) {
+	private void startProcess(ProcessBuilder builder, double duration) {
+		ProgressParser parser = new ProgressParser(duration);
 		Process process = null;
 		builder.redirectErrorStream(true);
 		try {
@@ -223,6 +331,10 @@ public class VideoTask extends SwingWorker<Void, Void> {
 		try {
 			while ((line = stdoutBuffered.readLine()) != null) {
 				last = line;
+				EncodeProgress progress = parser.parse(line);
+				if (progress != null) {
+					publish(progress);
+				}
 				if (isCancelled()) {
 					process.destroy();
 					return;
@@ -288,33 +400,26 @@ public class VideoTask extends SwingWorker<Void, Void> {
 	}
 
 	/**
-	 * This method uses avprobe to obtain the dimensions of the video
+	 * This method obtains the dimensions of the video from the shared avprobe
+	 * cache.
 	 * 
 	 * @return Dimension of the video file
 	 */
 	private Dimension getDimensions() {
-		ProcessBuilder builder = new ProcessBuilder("/bin/bash", "-c", "avprobe " + _inputFile
-				+ " 2>&1 | grep -i video");
-		builder.redirectErrorStream(true);
+		_info = MediaProbe.getInstance().probe(_inputFile);
+		_videoSize = new Dimension(_info.getWidth(), _info.getHeight());
+		return _videoSize;
+	}
 
-		Pattern progressValue = Pattern.compile("(\\d*)x(\\d*)");
-		StringBuffer output = new StringBuffer();
-		try {
-			Process process = builder.start();
-			InputStream stdout = process.getInputStream();
-			BufferedReader stdoutBuffered = new BufferedReader(new InputStreamReader(stdout));
-			String line;
-			while ((line = stdoutBuffered.readLine()) != null) {
-				output.append(line);
-				output.append(" ");
-			}
-			Matcher matcher = progressValue.matcher(output);
-			matcher.find();
-			_videoSize = new Dimension(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
-		} catch (IOException e) {
-			e.printStackTrace();
+	/**
+	 * Pass the latest encoding progress on to the EDT.
+	 */
+	@Override
+	protected void process(List<EncodeProgress> chunks) {
+		EncodeProgress latest = chunks.get(chunks.size() - 1);
+		if (latest.getPercent() >= 0) {
+			setProgress(latest.getPercent());
 		}
-
-		return null;
+		firePropertyChange("encodeProgress", null, latest);
 	}
 }
\ No newline at end of file
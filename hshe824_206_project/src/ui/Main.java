@@ -6,6 +6,8 @@ import java.awt.EventQueue;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
@@ -29,7 +31,8 @@ import net.miginfocom.swing.MigLayout;
 
 import org.apache.commons.io.FileUtils;
 
-import processes.video.VideoTask;
+import processes.JobScheduler;
+import processes.TempWorkspace;
 import ui.editors.AudioEditor;
 import ui.editors.Playback;
 import ui.editors.SubtitleEditor;
@@ -131,11 +134,14 @@ public class Main extends JFrame {
 		setMinimumSize(new Dimension(1000, 700));
 		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		setLocationRelativeTo(null);
-		getContentPane().setLayout(new MigLayout("", "[grow]", "[grow]"));
+		getContentPane().setLayout(new MigLayout("", "[grow]", "[grow][]"));
 
 		// Set up main library tab
 		getContentPane().add(_tabbedPane, "cell 0 0,aligny top,grow");
 
+		// Status bar showing the background job queue
+		setUpJobStatus();
+
 		// Menu Bar setup
 		setUpMenuBar();
 
@@ -153,8 +159,28 @@ public class Main extends JFrame {
 		// Sets up the ability to dynamically change look and feel
 		setupDynamicLookAndFeel();
 
-		// Deletes temporary files on exit.
-		deleteDirOnExit(new File(VideoTask.tempDir));
+		// Deletes temporary files left behind by sessions that crashed. Each
+		// session deletes its own on exit.
+		TempWorkspace.recover();
+	}
+
+	/**
+	 * Sets up the status label at the bottom of the frame that shows how many
+	 * jobs are running and queued in the {@link JobScheduler} and how much
+	 * temporary space they are using.
+	 */
+	private void setUpJobStatus() {
+		final JLabel jobStatus = new JLabel(JobScheduler.getInstance().getStatus() + "  |  "
+				+ TempWorkspace.getStatus());
+		getContentPane().add(jobStatus, "cell 0 1,growx");
+		JobScheduler.getInstance().addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				if ("queue".equals(evt.getPropertyName())) {
+					jobStatus.setText(evt.getNewValue() + "  |  " + TempWorkspace.getStatus());
+				}
+			}
+		});
 	}
 
 	/**
@@ -371,28 +397,4 @@ public class Main extends JFrame {
 
 		return firstTime;
 	}
-
-	/**
-	 * Method used to delete temporary directory after the user exits the
-	 * application.
-	 * 
-	 * Boilerplate code from
-	 * http://www.coderanch.com/t/278832/java-io/java/delete-directory-VM-exits;
-	 * 
-	 * @param dir
-	 */
-	private static void deleteDirOnExit(File dir) {
-		// call deleteOnExit for the folder first, so it will get deleted last
-		dir.deleteOnExit();
-		File[] files = dir.listFiles();
-		if (files != null) {
-			for (File f : files) {
-				if (f.isDirectory()) {
-					deleteDirOnExit(f);
-				} else {
-					f.deleteOnExit();
-				}
-			}
-		}
-	}
 }
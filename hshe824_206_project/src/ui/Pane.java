@@ -4,6 +4,9 @@ import java.awt.Font;
 import java.io.File;
 
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+
+import processes.EncodeProgress;
 
 /**
  * The Abstract class that all main panels in the VAMIX application extend. This
@@ -44,6 +47,34 @@ public abstract class Pane extends JPanel {
 	protected Font tabFont = new Font(_font, Font.BOLD, _bodyFontSize);
 	protected Font normFont = new Font(_font, Font.BOLD, 12);
 
+	/**
+	 * Shows the progress of an encode on a progress bar, including the frame
+	 * rate and time left. If the length of the output is unknown the bar is
+	 * left indeterminate.
+	 * 
+	 * @param bar
+	 * @param progress
+	 */
+	protected void showProgress(JProgressBar bar, EncodeProgress progress) {
+		if (progress.getPercent() >= 0) {
+			bar.setIndeterminate(false);
+			bar.setValue(progress.getPercent());
+		}
+		bar.setStringPainted(true);
+		bar.setString(progress.toString());
+	}
+
+	/**
+	 * Returns a progress bar to its idle state after a task has finished.
+	 * 
+	 * @param bar
+	 */
+	protected void resetProgress(JProgressBar bar) {
+		bar.setIndeterminate(false);
+		bar.setStringPainted(false);
+		bar.setString(null);
+	}
+
 	// All concrete subclasses must implement this
 	public abstract void setInputFile(String inputFile);
 }
@@ -8,8 +8,13 @@ import java.awt.event.ActionListener;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JComponent;
 import javax.swing.JFileChooser;
 import javax.swing.JLabel;
@@ -18,13 +23,20 @@ import javax.swing.JPanel;
 import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
+import javax.swing.JTextField;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingWorker;
 import javax.swing.border.BevelBorder;
 import javax.swing.border.EtchedBorder;
 import javax.swing.border.TitledBorder;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 import net.miginfocom.swing.MigLayout;
+import processes.EncodeProgress;
+import processes.JobScheduler;
 import processes.audio.AudioTask;
+import processes.audio.BatchAudioTask;
+import processes.audio.StreamPlan;
 import processes.file.FileChecker;
 import ui.Pane;
 import ui.filesystem.Library;
@@ -34,7 +46,8 @@ import ui.filesystem.Library;
  * operations for this VAMIX application. This includes the ripping of audio
  * from a video, the replacing of an audio track on a video with another audio
  * track that the user selects, as well as an option to overlay another layer of
- * audio onto a video file. The pane also includes a small preview playback
+ * audio onto a video file. Any of these can also be applied to many files at
+ * once as a batch. The pane also includes a small preview playback
  * instance of the current video file being edited as well as this file's
  * details.
  * 
@@ -122,6 +135,27 @@ public class AudioEditor extends Pane {
 		});
 		panel_6.add(btnChange, "cell 1 0,alignx center,aligny center,grow");
 
+		/*
+		 * Option for the user to apply an operation to many files at once
+		 */
+		JButton btnBatch = new JButton("Batch...");
+		btnBatch.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent arg0) {
+				JFileChooser _chooseInputFiles = new JFileChooser(Library.inputDir);
+				_chooseInputFiles.setAcceptAllFileFilterUsed(false);
+				_chooseInputFiles.setMultiSelectionEnabled(true);
+				_chooseInputFiles.setFileFilter(new FileNameExtensionFilter("Video files", Library._validVideoOnly));
+				if (_chooseInputFiles.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
+					List<String> inputs = new ArrayList<String>();
+					for (File f : _chooseInputFiles.getSelectedFiles()) {
+						inputs.add(f.getAbsolutePath());
+					}
+					runBatch(inputs);
+				}
+			}
+		});
+		panel_6.add(btnBatch, "cell 2 0,alignx center,aligny center,grow");
+
 		JLabel stripLabel = new JLabel("Strips audio to Output Library");
 		panel_2.add(stripLabel, "cell 1 0 2 1,alignx center,aligny center");
 		final JProgressBar stripProgressBar = new JProgressBar();
@@ -132,9 +166,9 @@ public class AudioEditor extends Pane {
 		stripCancel.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				strip.cancel(true);
+				JobScheduler.getInstance().cancel(strip);
 				setCursor(Cursor.getDefaultCursor());
-				stripProgressBar.setIndeterminate(false);
+				resetProgress(stripProgressBar);
 			}
 		});
 
@@ -145,8 +179,8 @@ public class AudioEditor extends Pane {
 
 				String[] options = { "Get audio only", "Get video only", "Cancel" };
 				String[] outputLocationStrip = { _outputLocationStrippedAudio, _outputLocationStrippedVideo };
-				String cmd = "";
-				String outString = "";
+				final String cmd;
+				final String outString;
 
 				int action = JOptionPane.showOptionDialog(null,
 						"Would you like to save the stripped audio or the video that has will have its audio removed?",
@@ -162,52 +196,47 @@ public class AudioEditor extends Pane {
 					// cancel
 					return;
 				}
-				// Check if file exists first
-				File _file = new File(outString);
-				if (_file.exists()) {
-					Object[] options2 = { "Overwrite", "Cancel" };
-					int action2 = JOptionPane.showOptionDialog(null, "File: " + _file
-							+ " already exists, do you wish to overwrite?", "ERROR: File already exists:",
-							JOptionPane.CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE, null, options2, options2[1]);
-					if (action2 == JOptionPane.YES_OPTION) {
-						// Overwrite
-						_file.delete();
-					} else if (action2 == JOptionPane.NO_OPTION) {
-						// Cancel
-						return;
-					}
-				}
-				/*
-				 * Strip Button and listener to create audiotask
-				 */
-				strip = new AudioTask(_inputFile, outString, cmd);
-				stripProgressBar.setIndeterminate(true);
-				strip.addPropertyChangeListener(new PropertyChangeListener() {
+				new Planner(cmd, _inputFile, null, outString, stripProgressBar) {
 					@Override
-					public void propertyChange(PropertyChangeEvent evt) {
-						if ("failure".equals(evt.getPropertyName())) {
-							setCursor(Cursor.getDefaultCursor());
-							stripProgressBar.setIndeterminate(false);
-							JOptionPane.showMessageDialog(null, evt.getNewValue(), "Error!",
-									JOptionPane.WARNING_MESSAGE);
-						} else if ("success".equals(evt.getPropertyName())) {
-							stripProgressBar.setIndeterminate(false);
-							stripProgressBar.setValue(100);
-							setCursor(Cursor.getDefaultCursor());
-							JOptionPane.showMessageDialog(null, "Stripping of file from  " + _inputFile
-									+ " to the output library was successful!", "Strip Successful",
-									JOptionPane.INFORMATION_MESSAGE);
-							stripProgressBar.setValue(0);
-						} else if ("cancelled".equals(evt.getPropertyName())) {
-							setCursor(Cursor.getDefaultCursor());
-							stripProgressBar.setIndeterminate(false);
-							JOptionPane.showMessageDialog(null, evt.getNewValue(), "Cancelled!",
-									JOptionPane.WARNING_MESSAGE);
-						}
+					protected void planned(StreamPlan plan) {
+						/*
+						 * Strip Button and listener to create audiotask
+						 */
+						strip = new AudioTask(_inputFile, outString, cmd);
+						strip.setPlan(plan);
+						showPlan(stripProgressBar, plan);
+						strip.addPropertyChangeListener(new PropertyChangeListener() {
+							@Override
+							public void propertyChange(PropertyChangeEvent evt) {
+								if ("failure".equals(evt.getPropertyName())) {
+									setCursor(Cursor.getDefaultCursor());
+									resetProgress(stripProgressBar);
+									JOptionPane.showMessageDialog(null, evt.getNewValue(), "Error!",
+											JOptionPane.WARNING_MESSAGE);
+								} else if ("encodeProgress".equals(evt.getPropertyName())) {
+									showProgress(stripProgressBar, (EncodeProgress) evt.getNewValue());
+								} else if ("success".equals(evt.getPropertyName())) {
+									resetProgress(stripProgressBar);
+									stripProgressBar.setValue(100);
+									setCursor(Cursor.getDefaultCursor());
+									JOptionPane.showMessageDialog(null, "Stripping of file from  " + _inputFile
+											+ " to the output library was successful!"
+											+ System.getProperty("line.separator") + "Saved as "
+											+ new File(strip.getOutputFile()).getName(), "Strip Successful",
+											JOptionPane.INFORMATION_MESSAGE);
+									stripProgressBar.setValue(0);
+								} else if ("cancelled".equals(evt.getPropertyName())) {
+									setCursor(Cursor.getDefaultCursor());
+									resetProgress(stripProgressBar);
+									JOptionPane.showMessageDialog(null, evt.getNewValue(), "Cancelled!",
+											JOptionPane.WARNING_MESSAGE);
+								}
+							}
+						});
+						JobScheduler.getInstance().submit(strip, JobScheduler.Priority.EXPORT);
+						setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 					}
-				});
-				strip.execute();
-				setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+				}.execute();
 			}
 		});
 
@@ -243,9 +272,9 @@ public class AudioEditor extends Pane {
 		mergeCancel.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				merge.cancel(true);
+				JobScheduler.getInstance().cancel(merge);
 				setCursor(Cursor.getDefaultCursor());
-				overlayProgressBar.setIndeterminate(false);
+				resetProgress(overlayProgressBar);
 			}
 		});
 
@@ -256,49 +285,47 @@ public class AudioEditor extends Pane {
 		btnMergeAudio.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				// Check if file exists first
-				File _file = new File(_outputLocationOverlayedVideo);
-				if (_file.exists()) {
-					Object[] options = { "Overwrite", "Cancel" };
-					int action = JOptionPane.showOptionDialog(null, "File: " + _file
-							+ " already exists, do you wish to overwrite?", "ERROR: File already exists:",
-							JOptionPane.CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[1]);
-					if (action == JOptionPane.YES_OPTION) {
-						// Overwrite
-						_file.delete();
-					} else if (action == JOptionPane.NO_OPTION) {
-						// Cancel
-						return;
-					}
+				if (_mergeAudio == null) {
+					JOptionPane.showMessageDialog(null, "Please browse for an audio track to overlay first.",
+							"No audio track", JOptionPane.WARNING_MESSAGE);
+					return;
 				}
-				merge = new AudioTask(_inputFile, _outputLocationOverlayedVideo, _mergeAudio, "MERGE");
-				overlayProgressBar.setIndeterminate(true);
-				merge.addPropertyChangeListener(new PropertyChangeListener() {
+				new Planner("MERGE", _inputFile, _mergeAudio, _outputLocationOverlayedVideo, overlayProgressBar) {
 					@Override
-					public void propertyChange(PropertyChangeEvent evt) {
-						if ("failure".equals(evt.getPropertyName())) {
-							setCursor(Cursor.getDefaultCursor());
-							overlayProgressBar.setIndeterminate(false);
-							JOptionPane.showMessageDialog(null, evt.getNewValue(), "Error!",
-									JOptionPane.WARNING_MESSAGE);
-						} else if ("success".equals(evt.getPropertyName())) {
-							setCursor(Cursor.getDefaultCursor());
-							overlayProgressBar.setIndeterminate(false);
-							overlayProgressBar.setValue(100);
-							JOptionPane.showMessageDialog(null,
-									"Merging of audio layers to the output library was successful!",
-									"Merge Successful", JOptionPane.INFORMATION_MESSAGE);
-							overlayProgressBar.setValue(0);
-						} else if ("cancelled".equals(evt.getPropertyName())) {
-							setCursor(Cursor.getDefaultCursor());
-							overlayProgressBar.setIndeterminate(false);
-							JOptionPane.showMessageDialog(null, evt.getNewValue(), "Cancelled!",
-									JOptionPane.WARNING_MESSAGE);
-						}
+					protected void planned(StreamPlan plan) {
+						merge = new AudioTask(_inputFile, _outputLocationOverlayedVideo, _mergeAudio, "MERGE");
+						merge.setPlan(plan);
+						showPlan(overlayProgressBar, plan);
+						merge.addPropertyChangeListener(new PropertyChangeListener() {
+							@Override
+							public void propertyChange(PropertyChangeEvent evt) {
+								if ("failure".equals(evt.getPropertyName())) {
+									setCursor(Cursor.getDefaultCursor());
+									resetProgress(overlayProgressBar);
+									JOptionPane.showMessageDialog(null, evt.getNewValue(), "Error!",
+											JOptionPane.WARNING_MESSAGE);
+								} else if ("encodeProgress".equals(evt.getPropertyName())) {
+									showProgress(overlayProgressBar, (EncodeProgress) evt.getNewValue());
+								} else if ("success".equals(evt.getPropertyName())) {
+									setCursor(Cursor.getDefaultCursor());
+									resetProgress(overlayProgressBar);
+									overlayProgressBar.setValue(100);
+									JOptionPane.showMessageDialog(null,
+											"Merging of audio layers to the output library was successful!",
+											"Merge Successful", JOptionPane.INFORMATION_MESSAGE);
+									overlayProgressBar.setValue(0);
+								} else if ("cancelled".equals(evt.getPropertyName())) {
+									setCursor(Cursor.getDefaultCursor());
+									resetProgress(overlayProgressBar);
+									JOptionPane.showMessageDialog(null, evt.getNewValue(), "Cancelled!",
+											JOptionPane.WARNING_MESSAGE);
+								}
+							}
+						});
+						JobScheduler.getInstance().submit(merge, JobScheduler.Priority.EXPORT);
+						setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 					}
-				});
-				merge.execute();
-				setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+				}.execute();
 
 			}
 		});
@@ -341,61 +368,240 @@ public class AudioEditor extends Pane {
 
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				replace.cancel(true);
+				JobScheduler.getInstance().cancel(replace);
 				setCursor(Cursor.getDefaultCursor());
-				replaceProgressBar.setIndeterminate(false);
+				resetProgress(replaceProgressBar);
 			}
 		});
 
 		btnReplace.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				File _file = new File(_outputLocationReplacedAudioVideo);
-				if (_file.exists()) {
-					Object[] options = { "Overwrite", "Cancel" };
-					int action = JOptionPane.showOptionDialog(null, "File: " + _file
-							+ " already exists, do you wish to overwrite?", "ERROR: File already exists:",
-							JOptionPane.CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[1]);
-					if (action == JOptionPane.YES_OPTION) {
-						// Overwrite
-						_file.delete();
-					} else if (action == JOptionPane.NO_OPTION) {
-						// Cancel
-						return;
-					}
+				if (_replaceFile == null) {
+					JOptionPane.showMessageDialog(null, "Please choose the replacement audio file first.",
+							"No audio file", JOptionPane.WARNING_MESSAGE);
+					return;
 				}
-				replace = new AudioTask(_inputFile, _outputLocationReplacedAudioVideo, _replaceFile, "REPLACE");
-				replaceProgressBar.setIndeterminate(true);
-				replace.addPropertyChangeListener(new PropertyChangeListener() {
+				new Planner("REPLACE", _inputFile, _replaceFile, _outputLocationReplacedAudioVideo,
+						replaceProgressBar) {
 					@Override
-					public void propertyChange(PropertyChangeEvent evt) {
-						if ("failure".equals(evt.getPropertyName())) {
-							setCursor(Cursor.getDefaultCursor());
-							replaceProgressBar.setIndeterminate(false);
-							JOptionPane.showMessageDialog(null, evt.getNewValue(), "Error!",
-									JOptionPane.WARNING_MESSAGE);
-						} else if ("success".equals(evt.getPropertyName())) {
-							setCursor(Cursor.getDefaultCursor());
-							replaceProgressBar.setIndeterminate(false);
-							replaceProgressBar.setValue(100);
-							JOptionPane.showMessageDialog(null, "Replacement of audio from: " + _replaceFile
-									+ " to the output library was successful!", "Replacement of audio Successful",
-									JOptionPane.INFORMATION_MESSAGE);
-							replaceProgressBar.setValue(0);
-						} else if ("cancelled".equals(evt.getPropertyName())) {
-							setCursor(Cursor.getDefaultCursor());
-							replaceProgressBar.setIndeterminate(false);
-							JOptionPane.showMessageDialog(null, evt.getNewValue(), "Cancelled!",
-									JOptionPane.WARNING_MESSAGE);
-						}
+					protected void planned(StreamPlan plan) {
+						replace = new AudioTask(_inputFile, _outputLocationReplacedAudioVideo, _replaceFile,
+								"REPLACE");
+						replace.setPlan(plan);
+						showPlan(replaceProgressBar, plan);
+						replace.addPropertyChangeListener(new PropertyChangeListener() {
+							@Override
+							public void propertyChange(PropertyChangeEvent evt) {
+								if ("failure".equals(evt.getPropertyName())) {
+									setCursor(Cursor.getDefaultCursor());
+									resetProgress(replaceProgressBar);
+									JOptionPane.showMessageDialog(null, evt.getNewValue(), "Error!",
+											JOptionPane.WARNING_MESSAGE);
+								} else if ("encodeProgress".equals(evt.getPropertyName())) {
+									showProgress(replaceProgressBar, (EncodeProgress) evt.getNewValue());
+								} else if ("success".equals(evt.getPropertyName())) {
+									setCursor(Cursor.getDefaultCursor());
+									resetProgress(replaceProgressBar);
+									replaceProgressBar.setValue(100);
+									JOptionPane.showMessageDialog(null, "Replacement of audio from: " + _replaceFile
+											+ " to the output library was successful!",
+											"Replacement of audio Successful", JOptionPane.INFORMATION_MESSAGE);
+									replaceProgressBar.setValue(0);
+								} else if ("cancelled".equals(evt.getPropertyName())) {
+									setCursor(Cursor.getDefaultCursor());
+									resetProgress(replaceProgressBar);
+									JOptionPane.showMessageDialog(null, evt.getNewValue(), "Cancelled!",
+											JOptionPane.WARNING_MESSAGE);
+								}
+							}
+						});
+						JobScheduler.getInstance().submit(replace, JobScheduler.Priority.EXPORT);
+						setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 					}
-				});
-				replace.execute();
-				setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+				}.execute();
 			}
 		});
 	}
 
+	/**
+	 * Asks which operation to apply to the given files and how to name the
+	 * outputs, then runs it on all of them as one batch. Progress is shown in
+	 * a progress monitor that can cancel the batch, and the files that failed
+	 * are listed together when it finishes. Replacing and overlaying use the
+	 * audio chosen in this pane.
+	 * 
+	 * @param inputs
+	 */
+	private void runBatch(List<String> inputs) {
+		final String[] operations = { "Get audio only", "Get video only", "Replace audio", "Overlay audio" };
+		final String[] cmds = { "STRIP-audio", "STRIP-video", "REPLACE", "MERGE" };
+		final JComboBox<String> operation = new JComboBox<String>(operations);
+		final JTextField template = new JTextField(BatchAudioTask.defaultTemplate(cmds[0]), 30);
+		JCheckBox overwrite = new JCheckBox("Overwrite outputs that already exist");
+		operation.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				template.setText(BatchAudioTask.defaultTemplate(cmds[operation.getSelectedIndex()]));
+			}
+		});
+		JPanel options = new JPanel(new MigLayout());
+		options.add(new JLabel(inputs.size() + " files selected."), "wrap");
+		options.add(new JLabel("Operation:"), "split 2");
+		options.add(operation, "wrap");
+		options.add(new JLabel("Output names ({name}, {ext} and {n} are filled in):"), "wrap");
+		options.add(template, "growx, wrap");
+		options.add(overwrite);
+		if (JOptionPane.showConfirmDialog(null, options, "Batch audio", JOptionPane.OK_CANCEL_OPTION,
+				JOptionPane.QUESTION_MESSAGE) != JOptionPane.OK_OPTION) {
+			return;
+		}
+		String cmd = cmds[operation.getSelectedIndex()];
+		String otherFile = null;
+		if (cmd.equals("REPLACE")) {
+			otherFile = _replaceFile;
+		} else if (cmd.equals("MERGE")) {
+			otherFile = _mergeAudio;
+		}
+		if ((cmd.equals("REPLACE") || cmd.equals("MERGE")) && otherFile == null) {
+			JOptionPane.showMessageDialog(null, "Please choose the audio to " + operations[operation
+					.getSelectedIndex()].toLowerCase().replace(" audio", " with") + " first.", "No audio file",
+					JOptionPane.WARNING_MESSAGE);
+			return;
+		}
+
+		final BatchAudioTask task;
+		try {
+			task = new BatchAudioTask(inputs, cmd, otherFile, template.getText().trim(), overwrite.isSelected());
+		} catch (IllegalArgumentException e) {
+			JOptionPane.showMessageDialog(null, e.getMessage(), "Error!", JOptionPane.WARNING_MESSAGE);
+			return;
+		}
+		final ProgressMonitor monitor = new ProgressMonitor(this, "Batch: " + operations[operation
+				.getSelectedIndex()], "Planning...", 0, 1000);
+		monitor.setMillisToDecideToPopup(0);
+		monitor.setMillisToPopup(0);
+		task.addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				if ("batchProgress".equals(evt.getPropertyName())) {
+					if (monitor.isCanceled()) {
+						JobScheduler.getInstance().cancel(task);
+						return;
+					}
+					BatchAudioTask.Progress progress = (BatchAudioTask.Progress) evt.getNewValue();
+					monitor.setNote(progress.toString());
+					monitor.setProgress(progress.getPermille());
+				} else if ("success".equals(evt.getPropertyName())) {
+					monitor.close();
+					setCursor(Cursor.getDefaultCursor());
+					JOptionPane.showMessageDialog(null, evt.getNewValue(), "Batch Finished",
+							JOptionPane.INFORMATION_MESSAGE);
+				} else if ("failure".equals(evt.getPropertyName())) {
+					monitor.close();
+					setCursor(Cursor.getDefaultCursor());
+					JOptionPane.showMessageDialog(null, evt.getNewValue(), "Error!", JOptionPane.WARNING_MESSAGE);
+				} else if ("cancelled".equals(evt.getPropertyName())) {
+					monitor.close();
+					setCursor(Cursor.getDefaultCursor());
+				}
+			}
+		});
+		// The batch only waits for its files, which run on the JobScheduler,
+		// so it gets a thread of its own rather than taking a slot
+		Thread waiter = new Thread(task, "vamix-audio-batch");
+		waiter.setDaemon(true);
+		waiter.start();
+		setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+	}
+
+	/**
+	 * Plans a task in the background, as planning may have to probe the files,
+	 * so the EDT never waits on avprobe. Once planned, asks whether to
+	 * overwrite the output if it already exists, and unless the user cancels
+	 * hands the plan to {@link #planned(StreamPlan)} on the EDT to start the
+	 * task.
+	 */
+	private abstract class Planner extends SwingWorker<StreamPlan, Void> {
+		private final String _cmd;
+		private final String _input;
+		private final String _other;
+		private final String _output;
+		private final JProgressBar _bar;
+
+		Planner(String cmd, String input, String other, String output, JProgressBar bar) {
+			_cmd = cmd;
+			_input = input;
+			_other = other;
+			_output = output;
+			_bar = bar;
+			bar.setIndeterminate(true);
+			bar.setStringPainted(true);
+			bar.setString("Planning...");
+			setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+		}
+
+		@Override
+		protected StreamPlan doInBackground() {
+			// Copy the streams that fit rather than transcode them, which may
+			// change the extension of the output
+			return StreamPlan.plan(_cmd, _input, _other, _output);
+		}
+
+		@Override
+		protected void done() {
+			StreamPlan plan;
+			try {
+				plan = get();
+			} catch (InterruptedException | ExecutionException e) {
+				setCursor(Cursor.getDefaultCursor());
+				resetProgress(_bar);
+				JOptionPane.showMessageDialog(null, e.getCause() != null ? e.getCause().getMessage() : e
+						.getMessage(), "Error!", JOptionPane.WARNING_MESSAGE);
+				return;
+			}
+			// Check if file exists first
+			File _file = new File(plan.getOutputFile());
+			if (_file.exists()) {
+				Object[] options = { "Overwrite", "Cancel" };
+				int action = JOptionPane.showOptionDialog(null, "File: " + _file
+						+ " already exists, do you wish to overwrite?", "ERROR: File already exists:",
+						JOptionPane.CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[1]);
+				if (action == JOptionPane.YES_OPTION) {
+					// Overwrite
+					_file.delete();
+				} else {
+					// Cancel
+					setCursor(Cursor.getDefaultCursor());
+					resetProgress(_bar);
+					return;
+				}
+			}
+			planned(plan);
+		}
+
+		/**
+		 * Starts the task with the plan.
+		 */
+		protected abstract void planned(StreamPlan plan);
+	}
+
+
+	/**
+	 * Shows how a task is going to build its output, and how long that should
+	 * take, on its progress bar until the encode reports progress. The plan
+	 * stays on the tooltip.
+	 * 
+	 * @param bar
+	 * @param plan
+	 */
+	private void showPlan(JProgressBar bar, StreamPlan plan) {
+		bar.setIndeterminate(true);
+		bar.setStringPainted(true);
+		bar.setString(plan.toString());
+		bar.setToolTipText(plan.toString());
+	}
+
 	/**
 	 * Sets up the layout using miglayout of the panel
 	 */
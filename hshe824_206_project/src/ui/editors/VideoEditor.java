@@ -46,6 +46,9 @@ import javax.swing.text.BadLocationException;
 import javax.swing.text.DocumentFilter;
 
 import net.miginfocom.swing.MigLayout;
+import processes.EncodeProgress;
+import processes.JobScheduler;
+import processes.TempWorkspace;
 import processes.video.FontFinder;
 import processes.video.VideoTask;
 import ui.Pane;
@@ -85,6 +88,7 @@ public class VideoEditor extends Pane {
 	private FontFinder _fonts = new FontFinder();
 	JProgressBar _textProgressBar;
 	protected VideoTask videoTask;
+	private TempWorkspace _previewWorkspace = null;
 
 	/**
 	 * Create the panel.
@@ -155,7 +159,7 @@ public class VideoEditor extends Pane {
 			@Override
 			public void actionPerformed(ActionEvent e) {
 				try {
-					videoTask.cancel(true);
+					JobScheduler.getInstance().cancel(videoTask);
 				} catch (NullPointerException ne) {
 				}
 			}
@@ -257,18 +261,20 @@ public class VideoEditor extends Pane {
 								return;
 							}
 						}
-						videoTask.execute();
+						JobScheduler.getInstance().submit(videoTask, JobScheduler.Priority.EXPORT);
 						setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 						_textProgressBar.setIndeterminate(true);
 						videoTask.addPropertyChangeListener(new PropertyChangeListener() {
 							public void propertyChange(PropertyChangeEvent evt) {
 								if ("failure".equals(evt.getPropertyName())) {
 									setCursor(Cursor.getDefaultCursor());
-									_textProgressBar.setIndeterminate(false);
+									resetProgress(_textProgressBar);
 									JOptionPane.showMessageDialog(null, evt.getNewValue(), "Error!",
 											JOptionPane.WARNING_MESSAGE);
+								} else if ("encodeProgress".equals(evt.getPropertyName())) {
+									showProgress(_textProgressBar, (EncodeProgress) evt.getNewValue());
 								} else if ("success".equals(evt.getPropertyName())) {
-									_textProgressBar.setIndeterminate(false);
+									resetProgress(_textProgressBar);
 									_textProgressBar.setValue(100);
 									setCursor(Cursor.getDefaultCursor());
 									JOptionPane.showMessageDialog(null, "Text editing of file from  " + _inputFile
@@ -277,7 +283,7 @@ public class VideoEditor extends Pane {
 									_textProgressBar.setValue(0);
 								} else if ("cancelled".equals(evt.getPropertyName())) {
 									setCursor(Cursor.getDefaultCursor());
-									_textProgressBar.setIndeterminate(false);
+									resetProgress(_textProgressBar);
 									JOptionPane.showMessageDialog(null, evt.getNewValue(), "Cancelled!",
 											JOptionPane.WARNING_MESSAGE);
 								}
@@ -307,7 +313,7 @@ public class VideoEditor extends Pane {
 					if (videoTask.isTextTooLong()) {
 						JOptionPane.showMessageDialog(null, "Text too long.");
 					} else {
-						videoTask.execute();
+						JobScheduler.getInstance().submit(videoTask, JobScheduler.Priority.PREVIEW);
 						setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 						videoTask.addPropertyChangeListener(new PropertyChangeListener() {
 							@Override
@@ -587,11 +593,17 @@ public class VideoEditor extends Pane {
 	}
 
 	/**
-	 * This method is to be called when the preview video created
+	 * Plays a preview file, keeping its temporary workspace until the next
+	 * preview replaces it.
 	 * 
 	 * @param previewFile
+	 * @param workspace
 	 */
-	public void startPreview(String previewFile) {
+	public void startPreview(String previewFile, TempWorkspace workspace) {
+		if (_previewWorkspace != null) {
+			_previewWorkspace.release();
+		}
+		_previewWorkspace = workspace.retain();
 		_editedPlayback.startPlayer(previewFile);
 	}
 
@@ -1,10 +1,12 @@
 package ui.filesystem;
 
+import java.awt.Component;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
+import java.net.URL;
 
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
@@ -12,82 +14,80 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JProgressBar;
+import javax.swing.JScrollPane;
+import javax.swing.JSpinner;
+import javax.swing.JTable;
 import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.table.TableCellRenderer;
 
-import processes.file.DownloadTask;
+import model.DownloadQueueModel;
 import net.miginfocom.swing.MigLayout;
+import processes.file.DownloadQueue;
+import processes.file.SegmentedDownloader;
 
 /**
- * This represents the download operation pane that the user uses to download a
- * particular file. It intermediates download progress to a JProgressBar with
- * the option of the user to pause/resume downloads as they please.
- * 
+ * This represents the download pane that the user uses to queue files for
+ * download. The downloads in the {@link DownloadQueue} are listed with their
+ * progress, and can be paused, resumed or removed individually. The number of
+ * downloads running at once and the total bandwidth they may use can be set
+ * here too.
+ *
  * @author Harry She
- * 
+ *
  * @param args
  */
 @SuppressWarnings("serial")
 public class Download extends JFrame {
 
-	private DownloadTask dl = null;
+	private final DownloadQueue _queue = DownloadQueue.getInstance();
+	private final DownloadQueueModel _model = new DownloadQueueModel(_queue);
+	private final JTable _table = new JTable(_model);
 
 	protected Download() {
 
 		JLabel _label = new JLabel("Please enter URL of mp3 to download:");
 		final JLabel _label2 = new JLabel("The file must be open source to download!");
-		final JLabel _downloading = new JLabel("Downloading");
 		final JTextField _URLField = new JTextField("", 30);
-		final JButton _download = new JButton("Download");
-		final JButton _cancel = new JButton("Cancel download");
+		final JTextField _checksumField = new JTextField("", 30);
+		_checksumField.setToolTipText("Optional, e.g. md5:1a2b... or sha256:3c4d...");
+		final JButton _download = new JButton("Add to download queue");
 		final JButton _pause = new JButton("Pause");
+		final JButton _resume = new JButton("Resume");
+		final JButton _remove = new JButton("Remove");
+		final JButton _clear = new JButton("Clear finished");
 		final JCheckBox _openSourceCheck = new JCheckBox("Is it open source?");
-		final JProgressBar _progress = new JProgressBar(0, 100);
-		final JLabel _outputLocation = new JLabel();
+		final JSpinner _concurrency = new JSpinner(new SpinnerNumberModel(_queue.getConcurrency(), 1,
+				DownloadQueue.MAX_CONCURRENCY, 1));
+		final JSpinner _bandwidth = new JSpinner(new SpinnerNumberModel((int) (_queue.getBandwidth() / 1024), 0,
+				1024 * 1024, 100));
 
 		_label2.setVisible(false);
-		_downloading.setVisible(false);
 		_download.setEnabled(false);
-		_progress.setStringPainted(true);
-		_cancel.setEnabled(false);
-		_pause.setEnabled(false);
 
-		/**
-		 * Custom download listener created to monitor events coming from the
-		 * download task to intermediate GUI updates.
-		 * 
-		 * 
-		 */
-		class DownloadListener implements PropertyChangeListener {
-			@Override
-			public void propertyChange(PropertyChangeEvent e) {
-				if ("progress".equals(e.getPropertyName())) {
-					_progress.setValue((Integer) e.getNewValue());
-				} else if ("cancelled".equals(e.getPropertyName())) {
-					_progress.setString((String) e.getNewValue());
-					return;
-				} else if ("_progressLabel".equals(e.getPropertyName())) {
-					_progress.setString((String) e.getNewValue());
-				} else if ("reenableDownload".equals(e.getPropertyName())) {
-					_download.setEnabled(true);
-					_downloading.setVisible(false);
-					_cancel.setEnabled(false);
-					_pause.setEnabled(false);
-				} else if ("failure".equals(e.getPropertyName())) {
-					_progress.setString("Download Failed!");
-					JOptionPane.showMessageDialog(null, e.getNewValue(), "Error!", JOptionPane.WARNING_MESSAGE);
-				}
-			}
-		}
+		_table.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+		_table.getColumnModel().getColumn(DownloadQueueModel.PROGRESS_COLUMN)
+				.setCellRenderer(new TableCellRenderer() {
+					private final JProgressBar _bar = new JProgressBar(0, 100);
+					{
+						_bar.setStringPainted(true);
+					}
 
-		_cancel.addActionListener(new ActionListener() {
-			@Override
-			public void actionPerformed(ActionEvent e) {
-				dl.cancel(true);
-				if (_pause.getText() == "Pause") {
-					_pause.setText("Resume");
-				}
-			}
-		});
+					@Override
+					public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+							boolean hasFocus, int row, int column) {
+						DownloadQueue.Item item = (DownloadQueue.Item) value;
+						_bar.setValue(item.getPercent());
+						_bar.setString(item.getStatus());
+						return _bar;
+					}
+				});
+		_table.getColumnModel().getColumn(0).setPreferredWidth(200);
+		_table.getColumnModel().getColumn(1).setPreferredWidth(90);
+		_table.getColumnModel().getColumn(2).setPreferredWidth(260);
 
 		// Check if the file is open source
 		_openSourceCheck.addActionListener(new ActionListener() {
@@ -105,49 +105,40 @@ public class Download extends JFrame {
 
 		/**
 		 * When the user clicks on download, this checks if the file exists or
-		 * not and subsequently if the user wishes to overwrite the file or
-		 * simply resume the download from where they left off.
-		 * 
+		 * not and if the user wishes to overwrite it, then adds the download
+		 * to the queue.
+		 *
 		 * @author harry
-		 * 
+		 *
 		 */
 		_download.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
+				// Only download if open source
+				if (!_openSourceCheck.isSelected()) {
+					return;
+				}
 				try {
 					String _url = _URLField.getText().trim();
 					String _basename = _url.substring(_url.lastIndexOf(File.separator), _url.length());
 					File _file = new File(Library.inputDir + _basename);
 					if (_file.exists()) {
-						Object[] options = { "Resume", "Overwrite", "Cancel" };
+						Object[] options = { "Overwrite", "Cancel" };
 						int action = JOptionPane.showOptionDialog(null, "File: " + _file
 								+ " already exists, do you wish to overwrite?", "ERROR: File already exists:",
-								JOptionPane.CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[1]);
-						if (action == JOptionPane.YES_OPTION) {
-							// Resume
-						} else if (action == JOptionPane.NO_OPTION) {
-							// Overwrite
-							_file.delete();
-						} else {
-							// Cancel
+								JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
+						if (action != JOptionPane.YES_OPTION) {
 							return;
 						}
+						_file.delete();
+						new SegmentedDownloader(new URL(_url), _file).discardPartial();
 					}
-
-					// Only download if open source
-					if (_openSourceCheck.isSelected()) {
-						_outputLocation.setText(_url.substring(_url.lastIndexOf(File.separator) + 1)
-								+ " will be downloaded to " + Library.inputDir);
-						dl = new DownloadTask(_url);
-						dl.addPropertyChangeListener(new DownloadListener());
-						dl.execute();
-						_downloading.setVisible(true);
-						_downloading.setText("Downloading...");
-						_download.setEnabled(false);
-						_pause.setText("Pause");
-						_cancel.setEnabled(true);
-						_pause.setEnabled(true);
-					}
+					String _checksum = _checksumField.getText().trim();
+					_queue.add(_url, _checksum.isEmpty() ? null : _checksum);
+					_URLField.setText("");
+					_checksumField.setText("");
+				} catch (IllegalArgumentException exp) {
+					JOptionPane.showMessageDialog(null, exp.getMessage(), "Error!", JOptionPane.WARNING_MESSAGE);
 				} catch (Exception exp) {
 					JOptionPane.showMessageDialog(null, "Please enter a valid URL", "Error!",
 							JOptionPane.WARNING_MESSAGE);
@@ -155,38 +146,87 @@ public class Download extends JFrame {
 			}
 		});
 
-		// Pause button to "pause" download, but really just cancels the process
+		// Pause keeps the segments downloaded so far for resuming
 		_pause.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
+				for (int row : _table.getSelectedRows()) {
+					_queue.pause(_model.getItem(row));
+				}
+			}
+		});
 
-				if (_pause.getText() == "Pause") {
-					dl.cancel(true);
-					_pause.setText("Resume");
-				} else {
-					_pause.setText("Pause");
-					String _url = _URLField.getText();
-					dl = new DownloadTask(_url);
-					dl.addPropertyChangeListener(new DownloadListener());
-					dl.execute();
-					_downloading.setVisible(true);
-					_downloading.setText("Downloading...");
+		_resume.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				for (int row : _table.getSelectedRows()) {
+					_queue.resume(_model.getItem(row));
 				}
 			}
 		});
 
+		_remove.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				int[] rows = _table.getSelectedRows();
+				DownloadQueue.Item[] items = new DownloadQueue.Item[rows.length];
+				for (int i = 0; i < rows.length; i++) {
+					items[i] = _model.getItem(rows[i]);
+				}
+				for (DownloadQueue.Item item : items) {
+					_queue.remove(item);
+				}
+			}
+		});
+
+		_clear.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				_queue.clearFinished();
+			}
+		});
+
+		_concurrency.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				_queue.setConcurrency((Integer) _concurrency.getValue());
+			}
+		});
+
+		_bandwidth.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				_queue.setBandwidth((Integer) _bandwidth.getValue() * 1024L);
+			}
+		});
+
+		// Stop following the queue once the window is closed
+		setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+		addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosed(WindowEvent e) {
+				_model.dispose();
+			}
+		});
+
 		setLayout(new MigLayout("center"));
 
-		add(_label, "wrap, align center, gapbottom 30 ");
-		add(_URLField, "wrap, align center, gapbottom 30");
-		add(_openSourceCheck, "wrap, align center, gapbottom 10");
-		add(_label2, "wrap, align center, gapbottom 10");
-		add(_download, "height 100, width 500, wrap, align center");
-		add(_downloading, "wrap, align center, gaptop 20");
-		add(_outputLocation, "wrap, gapbottom 5, align center");
-		add(_progress, "gapbottom 30, width 500, height 50, wrap, align center");
-		add(_pause, "height 50, width 200, split 2, align center, gapright 40");
-		add(_cancel, "height 50, width 200");
+		add(_label, "wrap, align center, gapbottom 10");
+		add(_URLField, "wrap, align center, gapbottom 10");
+		add(new JLabel("Checksum to verify it against (optional):"), "wrap, align center");
+		add(_checksumField, "wrap, align center, gapbottom 10");
+		add(_openSourceCheck, "wrap, align center");
+		add(_label2, "wrap, align center");
+		add(_download, "height 40, width 500, wrap, align center, gapbottom 10");
+		add(new JScrollPane(_table), "width 650, height 200, wrap, align center");
+		add(_pause, "split 4, align center");
+		add(_resume);
+		add(_remove);
+		add(_clear, "wrap, gapbottom 10");
+		add(new JLabel("Simultaneous downloads:"), "split 4, align center");
+		add(_concurrency);
+		add(new JLabel("Bandwidth limit (KB/s, 0 for none):"), "gapleft 20");
+		add(_bandwidth, "width 80");
 	}
 
 }
@@ -7,6 +7,7 @@ import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
@@ -14,12 +15,17 @@ import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 import javax.imageio.ImageIO;
 import javax.swing.Icon;
@@ -38,7 +44,11 @@ import javax.swing.JSplitPane;
 import javax.swing.JTabbedPane;
 import javax.swing.JTextArea;
 import javax.swing.JTree;
+import javax.swing.ProgressMonitor;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.border.BevelBorder;
 import javax.swing.border.SoftBevelBorder;
 import javax.swing.event.ChangeEvent;
@@ -51,10 +61,20 @@ import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreeModel;
 import javax.swing.tree.TreePath;
 
+import model.MediaInfo;
 import model.OpenListener;
 import net.miginfocom.swing.MigLayout;
-import processes.file.FileChecker;
+import processes.JobScheduler;
+import processes.file.BulkImportTask;
+import processes.file.ContentIndex;
+import processes.file.DownloadQueue;
+import processes.file.ContainerSniffer;
 import processes.file.ImportTask;
+import processes.file.IndexTask;
+import processes.file.LibraryWatcher;
+import processes.file.MediaIndex;
+import processes.file.MediaProbe;
+import processes.file.ThumbnailCache;
 import ui.Main;
 import ui.Pane;
 import ui.editors.AudioEditor;
@@ -73,7 +93,9 @@ import ui.special.Filters;
  * To manipulate files in this application, there is a specified input and
  * output library created by the app and to be used by the user for operations.
  * This library can be accessed through the app user interface through a JTree
- * model that I have created.
+ * model that I have created. Each file in the trees is shown with a strip of
+ * thumbnails, made in the background for the rows in view, see
+ * {@link ThumbnailRenderer}.
  * 
  * 
  * @author Harry She
@@ -111,6 +133,10 @@ public class Library extends Pane {
 	private JSplitPane splitPane_1;
 	private JScrollPane _inputScrollPane;
 	private JScrollPane _outputScrollPane;
+	private JScrollPane _inputTreeScrollPane;
+	private JScrollPane _outputTreeScrollPane;
+	// Probe of the selected file, if it is still running
+	private SwingWorker<MediaInfo, Void> _probeTask = null;
 
 	/**
 	 * Create the panel.
@@ -138,8 +164,18 @@ public class Library extends Pane {
 		// Sets up the input and output Library
 		setupLibraryFileSystem();
 
-		splitPane.setLeftComponent(outputTree);
-		splitPane_1.setLeftComponent(inputTree);
+		// Bring the persistent media index up to date in the background, behind
+		// anything the user starts. The listing is I/O, the probes are batch jobs
+		JobScheduler.getInstance().submitIO(new IndexTask(inputDir, outputDir));
+
+		// Carry on with the downloads left queued by the last session
+		DownloadQueue.getInstance();
+
+		// Keep the trees up to date as files come and go
+		watchLibrary();
+
+		splitPane.setLeftComponent(_outputTreeScrollPane);
+		splitPane_1.setLeftComponent(_inputTreeScrollPane);
 		splitPane_1.setRightComponent(_inputScrollPane);
 		splitPane.setRightComponent(_outputScrollPane);
 
@@ -164,6 +200,7 @@ public class Library extends Pane {
 				if (_selectedFileNodeInputTree != null) {
 					File toDelete = new File(_selectedFileNodeInputTree.toString());
 					toDelete.delete();
+					MediaProbe.getInstance().invalidate(toDelete.toString());
 					try {
 						refreshTree();
 					} catch (NullPointerException ne) {
@@ -191,6 +228,7 @@ public class Library extends Pane {
 				if (_selectedFileNodeOutputTree != null) {
 					File toDelete = new File(_selectedFileNodeOutputTree.toString());
 					toDelete.delete();
+					MediaProbe.getInstance().invalidate(toDelete.toString());
 					try {
 						refreshTree();
 					} catch (NullPointerException ne) {
@@ -286,8 +324,10 @@ public class Library extends Pane {
 			public void stateChanged(ChangeEvent arg0) {
 				if (tabbedPane.getSelectedIndex() == 0) {
 					_currentFileString = _currentFileInputString;
+					retainVisibleThumbnails(inputTree, inputDir);
 				} else {
 					_currentFileString = _currentFileOutputString;
+					retainVisibleThumbnails(outputTree, outputDir);
 				}
 			}
 		});
@@ -318,9 +358,21 @@ public class Library extends Pane {
 				JFileChooser chooseImport = new JFileChooser();
 				chooseImport.setAcceptAllFileFilterUsed(false);
 				chooseImport.setFileFilter(new FileNameExtensionFilter("Audio and Video files only", _validExtensions));
+				// Several files or whole directories can be imported in one go
+				chooseImport.setMultiSelectionEnabled(true);
+				chooseImport.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
 				int returnValue = chooseImport.showOpenDialog(null);
 				if (returnValue == JFileChooser.APPROVE_OPTION) {
-					File inputFile = chooseImport.getSelectedFile();
+					File[] selected = chooseImport.getSelectedFiles();
+					if (selected.length != 1 || selected[0].isDirectory()) {
+						List<Path> inputs = new ArrayList<Path>();
+						for (File f : selected) {
+							inputs.add(f.toPath());
+						}
+						importFiles(inputs);
+						return;
+					}
+					File inputFile = selected[0];
 					importDirString = (inputFile.getAbsolutePath());
 					String basename = importDirString.substring(importDirString.lastIndexOf(File.separator));
 					File libraryFile = new File(inputDir + basename);
@@ -413,6 +465,8 @@ public class Library extends Pane {
 		inputTree = new JTree();
 		inputTree.setFont(mainFont);
 		inputTree.setModel(configureTree("Input"));
+		inputTree.setCellRenderer(new ThumbnailRenderer(inputDir));
+		inputTree.setRowHeight(ThumbnailRenderer.getRowHeight());
 		inputTree.addTreeSelectionListener(new TreeSelectionListener() {
 			public void valueChanged(TreeSelectionEvent event) {
 				Object file = inputTree.getLastSelectedPathComponent();
@@ -420,27 +474,16 @@ public class Library extends Pane {
 					_currentFileInputString = inputDir + File.separator + file.toString();
 					_currentFileString = _currentFileInputString;
 					if (file.toString().equals(inputDir)) {
+						cancelProbe();
 						_detailsInputArea.setText(defaultMessageString);
 						noMedia();
 					} else {
-						_detailsInputArea.setText(getDetails(_currentFileInputString).toString());
-					}
-					/*
-					 * Check if valid file first here: and then allow to be
-					 * played/edited etc. if (File is audio or video) then
-					 * enable play, edit etc...
-					 */
-					FileChecker fc = new FileChecker(_currentFileString);
-					boolean hasAudio = fc.checkAVFile("Audio");
-					boolean hasVideo = fc.checkAVFile("Video");
-					if (hasAudio && hasVideo) {
-						bothAV();
-					} else if (hasAudio && !hasVideo) {
-						audioNoVideo();
-					} else if (!hasAudio && hasVideo) {
-						videoNoAudio();
-					} else {
-						noMedia();
+						/*
+						 * Check if valid file first here: and then allow to be
+						 * played/edited etc. if (File is audio or video) then
+						 * enable play, edit etc...
+						 */
+						showDetails(_currentFileInputString, _detailsInputArea);
 					}
 				}
 			}
@@ -450,6 +493,8 @@ public class Library extends Pane {
 		outputTree = new JTree();
 		outputTree.setFont(mainFont);
 		outputTree.setModel(configureTree("Output"));
+		outputTree.setCellRenderer(new ThumbnailRenderer(outputDir));
+		outputTree.setRowHeight(ThumbnailRenderer.getRowHeight());
 		outputTree.addTreeSelectionListener(new TreeSelectionListener() {
 			public void valueChanged(TreeSelectionEvent event) {
 				Object file = outputTree.getLastSelectedPathComponent();
@@ -457,31 +502,69 @@ public class Library extends Pane {
 					_currentFileOutputString = outputDir + File.separator + file.toString();
 					_currentFileString = _currentFileOutputString;
 					if (file.toString().equals(outputDir)) {
+						cancelProbe();
 						_detailsOutputArea.setText(defaultOutputLibString);
 						noMedia();
 					} else {
-						_detailsOutputArea.setText(getDetails(_currentFileOutputString).toString());
-					}
-					/*
-					 * Check if valid file first here: and then allow to be
-					 * played/edited etc. if (File is audio or video) then
-					 * enable play, edit etc...
-					 */
-					FileChecker fc = new FileChecker(_currentFileString);
-					boolean hasAudio = fc.checkAVFile("Audio");
-					boolean hasVideo = fc.checkAVFile("Video");
-					if (hasAudio && hasVideo) {
-						bothAV();
-					} else if (hasAudio && !hasVideo) {
-						audioNoVideo();
-					} else if (!hasAudio && hasVideo) {
-						videoNoAudio();
-					} else {
-						noMedia();
+						/*
+						 * Check if valid file first here: and then allow to be
+						 * played/edited etc. if (File is audio or video) then
+						 * enable play, edit etc...
+						 */
+						showDetails(_currentFileOutputString, _detailsOutputArea);
 					}
 				}
 			}
 		});
+
+		// The trees scroll now that their rows hold thumbnails. Scrolling
+		// drops the thumbnails still waiting for rows that went out of view.
+		_inputTreeScrollPane = new JScrollPane(inputTree);
+		_inputTreeScrollPane.getViewport().addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				retainVisibleThumbnails(inputTree, inputDir);
+			}
+		});
+		_outputTreeScrollPane = new JScrollPane(outputTree);
+		_outputTreeScrollPane.getViewport().addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				retainVisibleThumbnails(outputTree, outputDir);
+			}
+		});
+		ThumbnailCache.getInstance().addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				inputTree.repaint();
+				outputTree.repaint();
+			}
+		});
+	}
+
+	/**
+	 * Tells the thumbnail cache which files are in the rows of a tree that can
+	 * currently be seen, so that it stops working on any others.
+	 * 
+	 * @param tree
+	 * @param dir
+	 *            directory of the files in the tree
+	 */
+	private void retainVisibleThumbnails(JTree tree, String dir) {
+		if (!tree.isShowing()) {
+			return;
+		}
+		Rectangle visible = tree.getVisibleRect();
+		int first = tree.getClosestRowForLocation(visible.x, visible.y);
+		int last = tree.getClosestRowForLocation(visible.x, visible.y + visible.height - 1);
+		List<String> paths = new ArrayList<String>();
+		for (int row = Math.max(first, 0); row <= last; row++) {
+			TreePath path = tree.getPathForRow(row);
+			if (path != null) {
+				paths.add(dir + File.separator + path.getLastPathComponent());
+			}
+		}
+		ThumbnailCache.getInstance().retainOnly(tree, paths);
 	}
 
 	/**
@@ -543,7 +626,7 @@ public class Library extends Pane {
 	 * @param input
 	 * @param importPath
 	 */
-	protected void importFile(final Path input, Path importPath) {
+	protected void importFile(final Path input, final Path importPath) {
 		ImportTask it = new ImportTask(input, importPath);
 		it.addPropertyChangeListener(new PropertyChangeListener() {
 			@Override
@@ -564,41 +647,190 @@ public class Library extends Pane {
 					refreshTree();
 					setCursor(Cursor.getDefaultCursor());
 					return;
+				} else if ("duplicate".equals(evt.getPropertyName())) {
+					setCursor(Cursor.getDefaultCursor());
+					String existing = (String) evt.getNewValue();
+					Object[] options = { "Skip", "Add as link", "Copy anyway" };
+					int choice = JOptionPane.showOptionDialog(null, "The file " + input
+							+ " is already in the input library as " + new File(existing).getName() + "."
+							+ System.getProperty("line.separator")
+							+ "It can be added under its own name as a link, which takes no extra space.",
+							"Duplicate file", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options,
+							options[0]);
+					if (choice == 1) {
+						try {
+							if (Files.exists(importPath)) {
+								throw new IOException("The input library already has a file called "
+										+ importPath.getFileName() + ".");
+							}
+							ContentIndex.getInstance().link(existing, importPath);
+						} catch (IOException e) {
+							JOptionPane.showMessageDialog(null, e.getMessage(), "Error!", JOptionPane.WARNING_MESSAGE);
+						}
+						refreshTree();
+					} else if (choice == 2) {
+						ImportTask copy = new ImportTask(input, importPath);
+						copy.setAllowDuplicate(true);
+						copy.addPropertyChangeListener(this);
+						JobScheduler.getInstance().submitIO(copy);
+						setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+					}
 				}
 			}
 		});
-		it.execute();
+		JobScheduler.getInstance().submitIO(it);
 		setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 	}
 
+	/**
+	 * Imports many files and directories to the input library in one task,
+	 * showing its progress and throughput in a progress monitor that can
+	 * cancel it.
+	 * 
+	 * @param inputs
+	 */
+	protected void importFiles(List<Path> inputs) {
+		final BulkImportTask task = new BulkImportTask(inputs);
+		final ProgressMonitor monitor = new ProgressMonitor(this, "Importing to the input library", "Finding files...",
+				0, 1000);
+		monitor.setMillisToDecideToPopup(0);
+		monitor.setMillisToPopup(0);
+		// The Cancel button of a ProgressMonitor only sets a flag, so look at it
+		// regularly rather than only when progress arrives
+		final Timer cancelPoller = new Timer(200, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (monitor.isCanceled()) {
+					((Timer) e.getSource()).stop();
+					JobScheduler.getInstance().cancel(task);
+				}
+			}
+		});
+		task.addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				if ("success".equals(evt.getPropertyName()) || "failure".equals(evt.getPropertyName())
+						|| "cancelled".equals(evt.getPropertyName())) {
+					cancelPoller.stop();
+				}
+				if ("importProgress".equals(evt.getPropertyName())) {
+					BulkImportTask.Progress progress = (BulkImportTask.Progress) evt.getNewValue();
+					monitor.setNote(progress.toString());
+					monitor.setProgress(progress.getPermille());
+				} else if ("success".equals(evt.getPropertyName())) {
+					monitor.close();
+					setCursor(Cursor.getDefaultCursor());
+					JOptionPane.showMessageDialog(null, evt.getNewValue(), "Import Finished",
+							JOptionPane.INFORMATION_MESSAGE);
+				} else if ("failure".equals(evt.getPropertyName())) {
+					monitor.close();
+					setCursor(Cursor.getDefaultCursor());
+					JOptionPane.showMessageDialog(null, evt.getNewValue(), "Error!", JOptionPane.WARNING_MESSAGE);
+				} else if ("cancelled".equals(evt.getPropertyName())) {
+					monitor.close();
+					setCursor(Cursor.getDefaultCursor());
+				}
+			}
+		});
+		JobScheduler.getInstance().submitIO(task);
+		cancelPoller.start();
+		setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+	}
+
+	/**
+	 * Shows the details of a selected file and enables the buttons that suit
+	 * it. Files that have been probed before are shown straight away, others
+	 * are probed in the background so the EDT never waits on avprobe. Only the
+	 * latest selection is shown, the results for earlier ones are dropped.
+	 * 
+	 * @param file
+	 * @param detailsArea
+	 *            text area to show the details in
+	 */
+	private void showDetails(final String file, final JTextArea detailsArea) {
+		cancelProbe();
+		MediaInfo cached = MediaProbe.getInstance().getCached(file);
+		if (cached != null) {
+			detailsArea.setText(getDetails(cached).toString());
+			enableFor(cached);
+			return;
+		}
+		detailsArea.setText("File Details:" + System.getProperty("line.separator")
+				+ System.getProperty("line.separator") + "Probing " + new File(file).getName() + "...");
+		// The container header is enough to choose the buttons until the
+		// details arrive
+		Set<String> streams = ContainerSniffer.sniff(file);
+		if (streams != null) {
+			enableFor(streams.contains(ContainerSniffer.AUDIO), streams.contains(ContainerSniffer.VIDEO));
+		} else {
+			noMedia();
+		}
+		_probeTask = new SwingWorker<MediaInfo, Void>() {
+			@Override
+			protected MediaInfo doInBackground() throws Exception {
+				return MediaProbe.getInstance().probe(file);
+			}
+
+			@Override
+			protected void done() {
+				if (_probeTask != this || isCancelled()) {
+					// Superseded by another selection
+					return;
+				}
+				_probeTask = null;
+				try {
+					MediaInfo info = get();
+					detailsArea.setText(getDetails(info).toString());
+					enableFor(info);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				} catch (ExecutionException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		_probeTask.execute();
+	}
+
+	/**
+	 * Drops the result of the probe for the previous selection, if it is still
+	 * running. The probe itself is left to finish so its result is cached.
+	 */
+	private void cancelProbe() {
+		if (_probeTask != null) {
+			_probeTask.cancel(false);
+			_probeTask = null;
+		}
+	}
+
 	/**
 	 * This helper method uses the avprobe command in linux to in fact grab the
 	 * audio/visual information about a given selected file to be displayed by
-	 * the GUI to the user.
+	 * the GUI to the user. The output is shared with the other users of
+	 * {@link MediaProbe} so avprobe is only run once per file.
 	 * 
 	 * @param file
 	 * @return
 	 */
 	public static StringBuffer getDetails(String file) {
-		ProcessBuilder builder = new ProcessBuilder("avprobe", file);
-		Process process = null;
-		builder.redirectErrorStream(true);
+		return getDetails(MediaProbe.getInstance().probe(file));
+	}
+
+	/**
+	 * Formats the avprobe output of an already probed file for display.
+	 * 
+	 * @param info
+	 * @return
+	 */
+	private static StringBuffer getDetails(MediaInfo info) {
 		StringBuffer sb = new StringBuffer();
-		try {
-			process = builder.start();
-		} catch (IOException e1) {
-			e1.printStackTrace();
-		}
-		InputStream stdout = process.getInputStream();
-		BufferedReader stdoutBuffered = new BufferedReader(new InputStreamReader(stdout));
-		String line = null;
 		sb.append("File Details:" + System.getProperty("line.separator") + System.getProperty("line.separator"));
-		try {
-			while ((line = stdoutBuffered.readLine()) != null) {
-				sb.append(line).append(System.getProperty("line.separator"));
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
+		sb.append(info.getDetails());
+		MediaIndex.Integrity integrity = MediaIndex.getInstance().getIntegrity(new File(info.getPath()));
+		if (integrity == MediaIndex.Integrity.VERIFIED) {
+			sb.append(System.getProperty("line.separator") + "Download verified: the file is complete.");
+		} else if (integrity == MediaIndex.Integrity.BROKEN) {
+			sb.append(System.getProperty("line.separator") + "Download broken: the file is damaged or incomplete.");
 		}
 		return sb;
 	}
@@ -624,25 +856,169 @@ public class Library extends Pane {
 		}
 		DefaultMutableTreeNode root = new DefaultMutableTreeNode(dir);
 		DefaultTreeModel model = new DefaultTreeModel(root);
-		File[] subItems = dir.listFiles();
-		for (File file : subItems) {
-			String absolutePath = file.toString();
-			String basename = absolutePath.substring(absolutePath.lastIndexOf(File.separator) + 1);
-			File node = new File(basename);
-			root.add(new DefaultMutableTreeNode(node));
+		// Kept in name order so that nodes can be found by binary search
+		String[] names = dir.list();
+		if (names != null) {
+			Arrays.sort(names);
+			for (String basename : names) {
+				File node = new File(basename);
+				root.add(new DefaultMutableTreeNode(node));
+			}
 		}
 
 		return (TreeModel) model;
 	}
 
 	/**
-	 * Refreshes tree model when changes need to be appropriated from model.
+	 * Brings both trees up to date with the library directories, changing only
+	 * the nodes of files that have been added or removed so that the selection
+	 * and scroll position are kept. Safe to call from any thread.
 	 * 
 	 * @return
 	 */
 	public void refreshTree() {
-		inputTree.setModel(configureTree("Input"));
-		outputTree.setModel(configureTree("Output"));
+		if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					refreshTree();
+				}
+			});
+			return;
+		}
+		updateTree(inputTree, inputDir, null);
+		updateTree(outputTree, outputDir, null);
+	}
+
+	/**
+	 * Starts watching the library directories, applying each batch of changes
+	 * to the trees as it arrives. Without a watcher the trees are still brought
+	 * up to date by {@link #refreshTree()} after each task.
+	 */
+	private void watchLibrary() {
+		try {
+			LibraryWatcher watcher = new LibraryWatcher(inputDir, outputDir);
+			watcher.addPropertyChangeListener(new PropertyChangeListener() {
+				@Override
+				public void propertyChange(PropertyChangeEvent evt) {
+					LibraryWatcher.Changes changes = (LibraryWatcher.Changes) evt.getNewValue();
+					Set<String> names = changes.isRescan() ? null : changes.getNames();
+					if (changes.getDir().equals(inputDir)) {
+						updateTree(inputTree, inputDir, names);
+					} else if (changes.getDir().equals(outputDir)) {
+						updateTree(outputTree, outputDir, names);
+					}
+				}
+			});
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Updates the nodes of a tree for the given files, inserting, removing or
+	 * refreshing each according to whether it is in the directory now. All of
+	 * the insertions and removals are announced to the tree in one go.
+	 * 
+	 * @param tree
+	 * @param dir
+	 *            directory of the files in the tree
+	 * @param names
+	 *            names of the files that may have changed, or null to compare
+	 *            every file
+	 */
+	private void updateTree(JTree tree, String dir, Collection<String> names) {
+		DefaultTreeModel model = (DefaultTreeModel) tree.getModel();
+		DefaultMutableTreeNode root = (DefaultMutableTreeNode) model.getRoot();
+		// Only files named by the watcher can have been modified in place
+		boolean rescan = names == null;
+		if (rescan) {
+			Set<String> all = new HashSet<String>();
+			for (int i = 0; i < root.getChildCount(); i++) {
+				all.add(root.getChildAt(i).toString());
+			}
+			String[] present = new File(dir).list();
+			if (present != null) {
+				all.addAll(Arrays.asList(present));
+			}
+			names = all;
+		}
+
+		List<Integer> changed = new ArrayList<Integer>();
+		List<Integer> removed = new ArrayList<Integer>();
+		List<String> added = new ArrayList<String>();
+		for (String name : names) {
+			int index = indexOf(root, name);
+			boolean exists = new File(dir, name).exists();
+			if (index >= 0 && !exists) {
+				removed.add(index);
+			} else if (index < 0 && exists) {
+				added.add(name);
+			} else if (index >= 0 && !rescan) {
+				changed.add(index);
+			}
+		}
+
+		if (!changed.isEmpty()) {
+			model.nodesChanged(root, toSortedArray(changed));
+		}
+		if (!removed.isEmpty()) {
+			int[] indices = toSortedArray(removed);
+			Object[] nodes = new Object[indices.length];
+			for (int i = indices.length - 1; i >= 0; i--) {
+				nodes[i] = root.getChildAt(indices[i]);
+				root.remove(indices[i]);
+				MediaProbe.getInstance().invalidate(dir + File.separator + nodes[i]);
+			}
+			model.nodesWereRemoved(root, indices, nodes);
+		}
+		if (!added.isEmpty()) {
+			List<DefaultMutableTreeNode> nodes = new ArrayList<DefaultMutableTreeNode>();
+			for (String name : added) {
+				DefaultMutableTreeNode node = new DefaultMutableTreeNode(new File(name));
+				root.insert(node, -indexOf(root, name) - 1);
+				nodes.add(node);
+			}
+			List<Integer> indices = new ArrayList<Integer>();
+			for (DefaultMutableTreeNode node : nodes) {
+				indices.add(root.getIndex(node));
+			}
+			model.nodesWereInserted(root, toSortedArray(indices));
+			tree.expandPath(new TreePath(root));
+		}
+	}
+
+	/**
+	 * Finds the node of a file among the children of the root, which are kept
+	 * in name order.
+	 * 
+	 * @return the index of the node, or (-(insertion point) - 1) if there is
+	 *         none, as for {@link Arrays#binarySearch}
+	 */
+	private static int indexOf(DefaultMutableTreeNode root, String name) {
+		int low = 0;
+		int high = root.getChildCount() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = root.getChildAt(mid).toString().compareTo(name);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private static int[] toSortedArray(List<Integer> values) {
+		int[] array = new int[values.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = values.get(i);
+		}
+		Arrays.sort(array);
+		return array;
 	}
 
 	/**
@@ -675,6 +1051,27 @@ public class Library extends Pane {
 		return theInstance;
 	}
 
+	/**
+	 * Enables the buttons appropriate for the streams found in a media file.
+	 * 
+	 * @param info
+	 */
+	private void enableFor(MediaInfo info) {
+		enableFor(info.hasAudio(), info.hasVideo());
+	}
+
+	private void enableFor(boolean hasAudio, boolean hasVideo) {
+		if (hasAudio && hasVideo) {
+			bothAV();
+		} else if (hasAudio && !hasVideo) {
+			audioNoVideo();
+		} else if (!hasAudio && hasVideo) {
+			videoNoAudio();
+		} else {
+			noMedia();
+		}
+	}
+
 	// Enable all av buttons
 	private void bothAV() {
 		Main.play.setEnabled(true);
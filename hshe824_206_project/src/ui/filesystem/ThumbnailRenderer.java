@@ -0,0 +1,104 @@
+package ui.filesystem;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.swing.Icon;
+import javax.swing.JTree;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeCellRenderer;
+
+import processes.file.ThumbnailCache;
+
+/**
+ * Tree cell renderer for the library trees that shows each media file with a
+ * strip of thumbnails from the {@link ThumbnailCache} next to its name. Until
+ * a strip is ready, and for files without video, an empty frame of the same
+ * size is shown so the rows do not jump about.
+ *
+ * Only rows that are painted request their strips, so strips are only ever
+ * made for the rows the user can see.
+ *
+ * @author Harry She
+ *
+ */
+@SuppressWarnings("serial")
+public class ThumbnailRenderer extends DefaultTreeCellRenderer {
+	private static final int WIDTH = ThumbnailCache.FRAMES * ThumbnailCache.FRAME_WIDTH;
+	private static final int HEIGHT = ThumbnailCache.FRAME_HEIGHT;
+
+	// Directory the files in the tree are in
+	private final String _dir;
+	// The tree being drawn, which the strips are requested for
+	private JTree _tree;
+	// The row being drawn. A renderer draws one row at a time, so a single
+	// pair of icons serves every row.
+	private String _path;
+	private int _row;
+	private BufferedImage _strip;
+
+	// Shown until the strip is ready. The strip is only requested once this
+	// is actually painted, as the tree also asks for rows when laying out.
+	private final Icon _placeholder = new Icon() {
+		@Override
+		public void paintIcon(Component c, Graphics g, int x, int y) {
+			ThumbnailCache.getInstance().request(_tree, _path, _row);
+			g.setColor(Color.LIGHT_GRAY);
+			g.drawRect(x, y, WIDTH - 1, HEIGHT - 1);
+		}
+
+		@Override
+		public int getIconWidth() {
+			return WIDTH;
+		}
+
+		@Override
+		public int getIconHeight() {
+			return HEIGHT;
+		}
+	};
+	private final Icon _stripIcon = new Icon() {
+		@Override
+		public void paintIcon(Component c, Graphics g, int x, int y) {
+			g.drawImage(_strip, x, y, null);
+		}
+
+		@Override
+		public int getIconWidth() {
+			return WIDTH;
+		}
+
+		@Override
+		public int getIconHeight() {
+			return HEIGHT;
+		}
+	};
+
+	public ThumbnailRenderer(String dir) {
+		_dir = dir;
+	}
+
+	/**
+	 * Row height that fits the thumbnails.
+	 */
+	public static int getRowHeight() {
+		return HEIGHT + 4;
+	}
+
+	@Override
+	public Component getTreeCellRendererComponent(JTree tree, Object value, boolean sel, boolean expanded,
+			boolean leaf, int row, boolean hasFocus) {
+		super.getTreeCellRendererComponent(tree, value, sel, expanded, leaf, row, hasFocus);
+		if (value instanceof DefaultMutableTreeNode && !((DefaultMutableTreeNode) value).isRoot()) {
+			_tree = tree;
+			_path = _dir + File.separator + value;
+			_row = row;
+			_strip = ThumbnailCache.getInstance().get(_path);
+			setIcon(_strip == null ? _placeholder : _stripIcon);
+		}
+		return this;
+	}
+}
@@ -13,6 +13,7 @@ import java.io.File;
 import java.util.concurrent.ExecutionException;
 
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
@@ -22,9 +23,14 @@ import javax.swing.border.BevelBorder;
 import javax.swing.border.TitledBorder;
 
 import net.miginfocom.swing.MigLayout;
+import processes.JobScheduler;
+import processes.TempWorkspace;
+import processes.EncodeProgress;
 import processes.bounce.BounceCreator;
+import processes.bounce.BounceExportTask;
 import processes.bounce.DurationFinder;
 import ui.Pane;
+import ui.filesystem.Library;
 import bounce.AnimationViewer;
 
 /**
@@ -49,6 +55,12 @@ public class Bounce extends Pane {
 	private JTextField _ShapesField;
 	private int _numberOfShapes;
 	private JProgressBar progressBar;
+	private TempWorkspace _workspace = null;
+	private JCheckBox _collisionsBox;
+	// What the GIFs in the workspace were generated for
+	private int _shownShapes;
+	private boolean _shownMania;
+	private BounceExportTask _exportTask;
 
 	public Bounce() {
 
@@ -100,32 +112,60 @@ public class Bounce extends Pane {
 		panel.add(_ShapesField, "cell 2 0,width 50,alignx center");
 		_ShapesField.setColumns(10);
 
+		_collisionsBox = new JCheckBox("Shapes collide");
+		_collisionsBox.setToolTipText("Make the GIFs bounce off each other as well as the walls");
+		_collisionsBox.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (animationViewer != null) {
+					animationViewer.setCollisions(_collisionsBox.isSelected());
+				}
+			}
+		});
+		panel.add(_collisionsBox, "cell 2 0,alignx center");
+
 		JButton bounce = new JButton("Bounce");
 		panel.add(bounce, "cell 0 1,alignx center,growy,aligny center");
 		bounce.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
 
+				if (bCreator != null) {
+					JobScheduler.getInstance().cancel(bCreator);
+				}
 				bCreator = new BounceCreator(_currentFileString, 5, _duration);
-				bCreator.execute();
+				_shownShapes = 5;
+				_shownMania = false;
+				JobScheduler.getInstance().submit(bCreator, JobScheduler.Priority.PREVIEW);
 				progressBar.setIndeterminate(true);
 				setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
-				if (animationViewer != null) {
-					remove(animationViewer);
-					validate();
-					repaint();
-				}
+				clearAnimation();
 				bCreator.addPropertyChangeListener(new PropertyChangeListener() {
 
 					@Override
 					public void propertyChange(PropertyChangeEvent evt) {
-						if ("success".equals(evt.getPropertyName())) {
+						if (evt.getSource() != bCreator) {
+							// From a bounce that has since been replaced
+							return;
+						}
+						if ("clip".equals(evt.getPropertyName())) {
+							// Start bouncing as soon as the first clip is ready
+							if (animationViewer == null) {
+								showAnimation(new AnimationViewer(retainWorkspace()));
+							}
+							animationViewer.addClip((Integer) evt.getNewValue());
+						} else if ("success".equals(evt.getPropertyName())) {
+							progressBar.setIndeterminate(false);
+							setCursor(Cursor.getDefaultCursor());
+							if (animationViewer == null) {
+								showAnimation(new AnimationViewer(retainWorkspace()));
+							}
+						} else if ("failure".equals(evt.getPropertyName())) {
 							progressBar.setIndeterminate(false);
 							setCursor(Cursor.getDefaultCursor());
-							animationViewer = new AnimationViewer();
-							add(animationViewer, "cell 0 0,growx 90,growy");
-							validate();
-							repaint();
+							JOptionPane.showMessageDialog(null, evt.getNewValue(), "Error!",
+									JOptionPane.WARNING_MESSAGE);
+							clearAnimation();
 						}
 					}
 				});
@@ -137,54 +177,71 @@ public class Bounce extends Pane {
 		btnClearScreen.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				if (animationViewer != null) {
-					bCreator.cancel(true);
-					progressBar.setIndeterminate(false);
-					setCursor(Cursor.getDefaultCursor());
-					remove(animationViewer);
-					validate();
-					repaint();
+				if (bCreator != null) {
+					JobScheduler.getInstance().cancel(bCreator);
 				}
+				progressBar.setIndeterminate(false);
+				setCursor(Cursor.getDefaultCursor());
+				clearAnimation();
 			}
 		});
 		panel.add(btnClearScreen, "cell 1 1,growy");
 
 		JButton btnBouncemania = new JButton("Bouncemania!");
 		panel.add(btnBouncemania, "cell 2 1,alignx center,growy,aligny center");
+
+		JButton btnExport = new JButton("Export video");
+		btnExport.setToolTipText("Save the current animation as a video in the output library");
+		panel.add(btnExport, "cell 2 1,growy");
+		btnExport.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				exportAnimation();
+			}
+		});
 		btnBouncemania.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
+				if (bCreator != null) {
+					JobScheduler.getInstance().cancel(bCreator);
+				}
 				bCreator = new BounceCreator(_currentFileString, _numberOfShapes, _duration);
-				bCreator.execute();
+				_shownShapes = _numberOfShapes;
+				_shownMania = true;
+				JobScheduler.getInstance().submit(bCreator, JobScheduler.Priority.PREVIEW);
 				progressBar.setIndeterminate(true);
 				setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 				progressBar.setIndeterminate(true);
-				if (animationViewer != null) {
-					remove(animationViewer);
-					validate();
-					repaint();
-				}
+				clearAnimation();
 				bCreator.addPropertyChangeListener(new PropertyChangeListener() {
 
 					@Override
 					public void propertyChange(PropertyChangeEvent evt) {
-						if ("success".equals(evt.getPropertyName())) {
+						if (evt.getSource() != bCreator) {
+							// From a bounce that has since been replaced
+							return;
+						}
+						if ("clip".equals(evt.getPropertyName())) {
+							// Start bouncing as soon as the first clip is ready
+							if (animationViewer == null) {
+								showAnimation(new AnimationViewer(_numberOfShapes, retainWorkspace()));
+							}
+							animationViewer.addClip((Integer) evt.getNewValue());
+						} else if ("success".equals(evt.getPropertyName())) {
 							progressBar.setIndeterminate(false);
 							setCursor(Cursor.getDefaultCursor());
-							animationViewer = new AnimationViewer(_numberOfShapes);
-							add(animationViewer, "cell 0 0,growx 90,growy");
-							validate();
-							repaint();
+							if (animationViewer == null) {
+								showAnimation(new AnimationViewer(_numberOfShapes, retainWorkspace()));
+							}
 						} else if ("failure".equals(evt.getPropertyName())) {
 							progressBar.setIndeterminate(false);
 							setCursor(Cursor.getDefaultCursor());
-							JOptionPane.showMessageDialog(null, "Please enter a valid number between 1-20!", "Error!",
-									JOptionPane.WARNING_MESSAGE);
-							if (animationViewer != null) {
-								remove(animationViewer);
-								validate();
-								repaint();
+							String message = (String) evt.getNewValue();
+							if ("failure".equals(message)) {
+								message = "Please enter a valid number between 1-20!";
 							}
+							JOptionPane.showMessageDialog(null, message, "Error!", JOptionPane.WARNING_MESSAGE);
+							clearAnimation();
 						}
 					}
 				});
@@ -208,7 +265,103 @@ public class Bounce extends Pane {
 		} catch (ExecutionException e1) {
 			e1.printStackTrace();
 		}
-		new File(processes.video.VideoTask.tempDir).mkdirs();
+	}
+
+	/**
+	 * Exports the animation currently shown to a video in the output library.
+	 */
+	private void exportAnimation() {
+		if (_workspace == null || animationViewer == null) {
+			JOptionPane.showMessageDialog(null, "Please bounce a video first!", "Error!", JOptionPane.WARNING_MESSAGE);
+			return;
+		}
+		String seconds = JOptionPane.showInputDialog(null, "How many seconds of animation should be exported?", "20");
+		if (seconds == null) {
+			return;
+		}
+		int length;
+		try {
+			length = Integer.parseInt(seconds.trim());
+		} catch (NumberFormatException e) {
+			length = 0;
+		}
+		if (length <= 0) {
+			JOptionPane.showMessageDialog(null, "Please enter a valid number of seconds!", "Error!",
+					JOptionPane.WARNING_MESSAGE);
+			return;
+		}
+		if (_exportTask != null) {
+			JobScheduler.getInstance().cancel(_exportTask);
+		}
+		String basename = new File(_currentFileString).getName();
+		int dot = basename.lastIndexOf(".");
+		String filenameNoExtension = dot > 0 ? basename.substring(0, dot) : basename;
+		String output = Library.outputDir + File.separator + filenameNoExtension + "[BOUNCE-VAMIX].mp4";
+
+		_exportTask = new BounceExportTask(_workspace, _shownShapes, _shownMania, animationViewer.getWidth(),
+				animationViewer.getHeight(), length, _collisionsBox.isSelected(), output);
+		_exportTask.addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				if (evt.getSource() != _exportTask) {
+					return;
+				}
+				if ("encodeProgress".equals(evt.getPropertyName())) {
+					showProgress(progressBar, (EncodeProgress) evt.getNewValue());
+				} else if ("success".equals(evt.getPropertyName())) {
+					resetProgress(progressBar);
+					JOptionPane.showMessageDialog(null, "The bounce animation was exported to the output library!");
+				} else if ("failure".equals(evt.getPropertyName())) {
+					resetProgress(progressBar);
+					JOptionPane.showMessageDialog(null, evt.getNewValue(), "Error!", JOptionPane.WARNING_MESSAGE);
+				} else if ("cancelled".equals(evt.getPropertyName())) {
+					resetProgress(progressBar);
+				}
+			}
+		});
+		JobScheduler.getInstance().submit(_exportTask, JobScheduler.Priority.EXPORT);
+	}
+
+	/**
+	 * Takes a reference to the workspace holding the GIFs of the finished
+	 * bounce task, so it is kept until the animation is cleared.
+	 * 
+	 * @return directory holding the GIFs
+	 */
+	private File retainWorkspace() {
+		TempWorkspace workspace = bCreator.getWorkspace();
+		if (workspace == null) {
+			return null;
+		}
+		_workspace = workspace.retain();
+		return _workspace.getDir();
+	}
+
+	/**
+	 * Adds a new animation viewer to the pane.
+	 */
+	private void showAnimation(AnimationViewer viewer) {
+		animationViewer = viewer;
+		animationViewer.setCollisions(_collisionsBox.isSelected());
+		add(animationViewer, "cell 0 0,growx 90,growy");
+		validate();
+		repaint();
+	}
+
+	/**
+	 * Removes the animation viewer and deletes the GIFs it was showing.
+	 */
+	private void clearAnimation() {
+		if (animationViewer != null) {
+			remove(animationViewer);
+			animationViewer = null;
+			validate();
+			repaint();
+		}
+		if (_workspace != null) {
+			_workspace.release();
+			_workspace = null;
+		}
 	}
 
 	/**
@@ -24,6 +24,8 @@ import javax.swing.border.EtchedBorder;
 import javax.swing.border.TitledBorder;
 
 import net.miginfocom.swing.MigLayout;
+import processes.EncodeProgress;
+import processes.JobScheduler;
 import processes.video.FilterTask;
 import processes.video.VideoTask;
 import ui.Pane;
@@ -106,7 +108,7 @@ public class Filters extends Pane {
 			@Override
 			public void actionPerformed(ActionEvent e) {
 				try {
-					filterTask.cancel(true);
+					JobScheduler.getInstance().cancel(filterTask);
 				} catch (NullPointerException ne) {
 				}
 			}
@@ -202,25 +204,27 @@ public class Filters extends Pane {
 					public void propertyChange(PropertyChangeEvent evt) {
 						if ("failure".equals(evt.getPropertyName())) {
 							setCursor(Cursor.getDefaultCursor());
-							_textProgressBar.setIndeterminate(false);
+							resetProgress(_textProgressBar);
 							JOptionPane.showMessageDialog(null, evt.getNewValue(), "Error!",
 									JOptionPane.WARNING_MESSAGE);
+						} else if ("encodeProgress".equals(evt.getPropertyName())) {
+							showProgress(_textProgressBar, (EncodeProgress) evt.getNewValue());
 						} else if ("success".equals(evt.getPropertyName())) {
 							setCursor(Cursor.getDefaultCursor());
-							_textProgressBar.setIndeterminate(false);
+							resetProgress(_textProgressBar);
 							_textProgressBar.setValue(100);
 							JOptionPane.showMessageDialog(null, "Adding of filter to:" + _inputFile
 									+ " was successful!", "Filter added!", JOptionPane.INFORMATION_MESSAGE);
 							_textProgressBar.setValue(0);
 						} else if ("cancelled".equals(evt.getPropertyName())) {
 							setCursor(Cursor.getDefaultCursor());
-							_textProgressBar.setIndeterminate(false);
+							resetProgress(_textProgressBar);
 							JOptionPane.showMessageDialog(null, evt.getNewValue(), "Cancelled!",
 									JOptionPane.WARNING_MESSAGE);
 						}
 					}
 				});
-				filterTask.execute();
+				JobScheduler.getInstance().submit(filterTask, JobScheduler.Priority.EXPORT);
 				setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 
 			}
@@ -243,7 +247,7 @@ public class Filters extends Pane {
 						}
 					}
 				});
-				filterTask.execute();
+				JobScheduler.getInstance().submit(filterTask, JobScheduler.Priority.PREVIEW);
 			}
 		});
 	}